@@ -0,0 +1,81 @@
+package pl.mjaron.datanode;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collecting descendants of generated trees of various shapes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DescendantsBenchmark {
+
+    @Param({"wide", "deep", "balanced"})
+    public String shape;
+
+    @Param({"1000"})
+    public int files;
+
+    private Path directory;
+    private INode fileNode;
+    private INode pathNode;
+    private INode memoryNode;
+    private ParallelTraversal parallelTraversal;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        directory = TreeFixture.createTempDirectory("descendants");
+        TreeFixture.create(new PathNode(directory), shape, files);
+        fileNode = new FileNode(directory.toFile());
+        pathNode = new PathNode(directory);
+        memoryNode = new MemoryNode();
+        TreeFixture.create(memoryNode, shape, files);
+        parallelTraversal = new ParallelTraversal(Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        new PathNode(directory).remove();
+    }
+
+    @Benchmark
+    public Object fileNodeGetDescendants() {
+        return fileNode.getDescendants();
+    }
+
+    @Benchmark
+    public Object fileNodeGetFileDescendants() {
+        return fileNode.getFileDescendants();
+    }
+
+    @Benchmark
+    public Object pathNodeGetDescendants() {
+        return pathNode.getDescendants();
+    }
+
+    @Benchmark
+    public long fileNodeStreamDescendants() {
+        return fileNode.streamDescendants().count();
+    }
+
+    @Benchmark
+    public long fileNodeParallelStreamDescendants() {
+        return fileNode.streamDescendants().parallel().count();
+    }
+
+    @Benchmark
+    public Object fileNodeParallelTraversal() {
+        return fileNode.getDescendants(parallelTraversal);
+    }
+
+    @Benchmark
+    public Object memoryNodeGetDescendants() {
+        return memoryNode.getDescendants();
+    }
+}
@@ -0,0 +1,93 @@
+package pl.mjaron.datanode;
+
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HttpNode operations against a local HTTP server, so results don't depend on the network.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HttpNodeBenchmark {
+
+    @Param({"1024", "4194304"})
+    public int size;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private HttpNode node;
+    private INode downloadTarget;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        final byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/content.bin", exchange -> {
+            exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+            if (exchange.getRequestMethod().equals("HEAD")) {
+                exchange.getResponseHeaders().set("Content-Length", Integer.toString(content.length));
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+                return;
+            }
+            int from = 0;
+            int to = content.length - 1;
+            final String range = exchange.getRequestHeaders().getFirst("Range");
+            if (range != null) {
+                final String[] bounds = range.substring("bytes=".length()).split("-");
+                from = Integer.parseInt(bounds[0]);
+                to = Math.min(to, Integer.parseInt(bounds[1]));
+                exchange.getResponseHeaders().set("Content-Range", "bytes " + from + "-" + to + "/" + content.length);
+            }
+            exchange.sendResponseHeaders((range != null) ? 206 : 200, to - from + 1);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(content, from, to - from + 1);
+            }
+            exchange.close();
+        });
+        serverExecutor = Executors.newFixedThreadPool(8);
+        server.setExecutor(serverExecutor);
+        server.start();
+        node = new HttpNode("http://127.0.0.1:" + server.getAddress().getPort() + "/content.bin");
+        downloadTarget = new MemoryNode().getChild("content.bin");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public boolean exists() {
+        return node.exists();
+    }
+
+    @Benchmark
+    public long getSize() {
+        return node.getSize();
+    }
+
+    @Benchmark
+    public byte[] readBytes() {
+        return node.readBytes();
+    }
+
+    @Benchmark
+    public INode parallelDownload() {
+        return node.download(downloadTarget, 4, Math.max(1, size / 4));
+    }
+}
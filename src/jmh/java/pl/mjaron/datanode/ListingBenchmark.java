@@ -0,0 +1,68 @@
+package pl.mjaron.datanode;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Listing of a single flat directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListingBenchmark {
+
+    @Param({"100", "10000"})
+    public int entries;
+
+    private Path directory;
+    private INode fileNode;
+    private INode pathNode;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        directory = TreeFixture.createTempDirectory("listing");
+        TreeFixture.create(new PathNode(directory), "flat", entries);
+        fileNode = new FileNode(directory.toFile());
+        pathNode = new PathNode(directory);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        new PathNode(directory).remove();
+    }
+
+    @Benchmark
+    public void fileNodeGetChildren(final Blackhole blackhole) {
+        for (final INode child : fileNode.getChildren()) {
+            blackhole.consume(child.isFile());
+        }
+    }
+
+    @Benchmark
+    public void pathNodeGetChildren(final Blackhole blackhole) {
+        for (final INode child : pathNode.getChildren()) {
+            blackhole.consume(child.isFile());
+        }
+    }
+
+    @Benchmark
+    public Object fileNodeGetChildrenNames() {
+        return fileNode.getChildrenNames();
+    }
+
+    @Benchmark
+    public int fileNodeGetChildrenCount() {
+        return fileNode.getChildrenCount();
+    }
+
+    @Benchmark
+    public Object fileNodeGetChildrenWithAttributes() {
+        return fileNode.getChildrenWithAttributes();
+    }
+}
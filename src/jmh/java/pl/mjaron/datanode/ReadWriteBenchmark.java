@@ -0,0 +1,90 @@
+package pl.mjaron.datanode;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading and writing whole files of various sizes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReadWriteBenchmark {
+
+    @Param({"1024", "1048576", "67108864"})
+    public int size;
+
+    private Path directory;
+    private byte[] content;
+    private String text;
+    private INode fileNode;
+    private INode writtenNode;
+    private INode memoryNode;
+    private ByteBuffer directBuffer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        directory = TreeFixture.createTempDirectory("readwrite");
+        content = new byte[size];
+        new Random(size).nextBytes(content);
+        final char[] chars = new char[size];
+        for (int i = 0; i < size; ++i) {
+            chars[i] = (char) ('a' + (i % 26));
+        }
+        text = new String(chars);
+        fileNode = new FileNode(directory.resolve("read.bin").toFile()).write(content);
+        writtenNode = new FileNode(directory.resolve("written.bin").toFile());
+        memoryNode = new MemoryNode().getChild("read.bin").write(content);
+        directBuffer = ByteBuffer.allocateDirect(size);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        new PathNode(directory).remove();
+    }
+
+    @Benchmark
+    public byte[] fileNodeReadBytes() {
+        return fileNode.readBytes();
+    }
+
+    @Benchmark
+    public String fileNodeReadString() {
+        return fileNode.readString();
+    }
+
+    @Benchmark
+    public int fileNodeReadIntoDirectBuffer() {
+        directBuffer.clear();
+        return fileNode.readInto(directBuffer);
+    }
+
+    @Benchmark
+    public long fileNodeMap() {
+        try (MappedData data = fileNode.map()) {
+            return data.get(data.size() - 1);
+        }
+    }
+
+    @Benchmark
+    public INode fileNodeWriteBytes() {
+        return writtenNode.write(content);
+    }
+
+    @Benchmark
+    public INode fileNodeWriteString() {
+        return writtenNode.write(text);
+    }
+
+    @Benchmark
+    public byte[] memoryNodeReadBytes() {
+        return memoryNode.readBytes();
+    }
+}
@@ -0,0 +1,47 @@
+package pl.mjaron.datanode;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Removing deep trees. Each invocation removes a freshly generated tree.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+public class RemoveBenchmark {
+
+    @Param({"deep", "balanced"})
+    public String shape;
+
+    @Param({"400"})
+    public int files;
+
+    private Path directory;
+
+    @Setup(Level.Invocation)
+    public void setUp() {
+        directory = TreeFixture.createTempDirectory("remove");
+        TreeFixture.create(new PathNode(directory), shape, files);
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() {
+        new PathNode(directory).remove();
+    }
+
+    @Benchmark
+    public INode fileNodeRemove() {
+        return new FileNode(directory.toFile()).remove();
+    }
+
+    @Benchmark
+    public INode pathNodeRemove() {
+        return new PathNode(directory).remove();
+    }
+}
@@ -0,0 +1,80 @@
+package pl.mjaron.datanode;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Generates directory trees used by benchmarks.
+ */
+final class TreeFixture {
+
+    private TreeFixture() {
+    }
+
+    /**
+     * @return New empty temporary directory.
+     */
+    static Path createTempDirectory(final String prefix) {
+        try {
+            return Files.createTempDirectory(prefix);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to create temporary directory.", e);
+        }
+    }
+
+    /**
+     * Creates a tree of given shape under the root.
+     *
+     * @param shape One of: {@code flat} (files only), {@code wide} (many directories with few files), {@code deep}
+     *              (long chain of directories) or {@code balanced}.
+     * @param files Approximate total count of files.
+     */
+    static void create(final INode root, final String shape, final int files) {
+        switch (shape) {
+            case "flat":
+                createLevel(root, 0, files, 0);
+                break;
+            case "wide":
+                createLevel(root, files / 4, 4, 0);
+                break;
+            case "deep": {
+                INode directory = root;
+                for (int depth = 0; depth < files / 2; ++depth) {
+                    directory = directory.getChild("d" + depth).mkdirs();
+                    directory.getChild("f0").write(new byte[16]);
+                    directory.getChild("f1").write(new byte[16]);
+                }
+                break;
+            }
+            case "balanced":
+                createBalanced(root, files, 8);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown tree shape: [" + shape + "].");
+        }
+    }
+
+    private static void createLevel(final INode directory, final int directories, final int filesPerDirectory, final int depth) {
+        directory.mkdirs();
+        for (int i = 0; i < filesPerDirectory; ++i) {
+            directory.getChild("f" + i).write(new byte[16]);
+        }
+        for (int i = 0; i < directories; ++i) {
+            createLevel(directory.getChild("d" + i), 0, filesPerDirectory, depth + 1);
+        }
+    }
+
+    private static void createBalanced(final INode directory, final int files, final int fanOut) {
+        directory.mkdirs();
+        if (files <= fanOut) {
+            for (int i = 0; i < files; ++i) {
+                directory.getChild("f" + i).write(new byte[16]);
+            }
+            return;
+        }
+        for (int i = 0; i < fanOut; ++i) {
+            createBalanced(directory.getChild("d" + i), files / fanOut, fanOut);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package pl.mjaron.datanode;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Reads and writes whole local files with {@link AsynchronousFileChannel}, without blocking the calling thread.
+ */
+final class AsyncFileIo {
+
+    private AsyncFileIo() {
+    }
+
+    private static void closeQuietly(final AsynchronousFileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // Result is already decided.
+        }
+    }
+
+    static CompletableFuture<byte[]> readAll(final Path path) {
+        final CompletableFuture<byte[]> result = new CompletableFuture<>();
+        final AsynchronousFileChannel channel;
+        final ByteBuffer buffer;
+        try {
+            channel = AsynchronousFileChannel.open(path, StandardOpenOption.READ);
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE - 8) {
+                closeQuietly(channel);
+                throw new IOException("File is too large for an array: [" + path + "].");
+            }
+            buffer = ByteBuffer.allocate((int) size);
+        } catch (IOException e) {
+            result.completeExceptionally(new RuntimeException("Failed to read file: [" + path + "].", e));
+            return result;
+        }
+        if (!buffer.hasRemaining()) {
+            closeQuietly(channel);
+            result.complete(buffer.array());
+            return result;
+        }
+        channel.read(buffer, 0, null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(final Integer count, final Void attachment) {
+                if (count != -1 && buffer.hasRemaining()) {
+                    channel.read(buffer, buffer.position(), null, this);
+                    return;
+                }
+                closeQuietly(channel);
+                if (buffer.hasRemaining()) {
+                    // File has been truncated in the meantime.
+                    final byte[] read = new byte[buffer.position()];
+                    System.arraycopy(buffer.array(), 0, read, 0, read.length);
+                    result.complete(read);
+                } else {
+                    result.complete(buffer.array());
+                }
+            }
+
+            @Override
+            public void failed(final Throwable e, final Void attachment) {
+                closeQuietly(channel);
+                result.completeExceptionally(new RuntimeException("Failed to read file: [" + path + "].", e));
+            }
+        });
+        return result;
+    }
+
+    static CompletableFuture<Void> writeAll(final Path path, final ByteBuffer data) {
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+        final AsynchronousFileChannel channel;
+        try {
+            channel = AsynchronousFileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException e) {
+            result.completeExceptionally(new RuntimeException("Failed to write file: [" + path + "].", e));
+            return result;
+        }
+        if (!data.hasRemaining()) {
+            closeQuietly(channel);
+            result.complete(null);
+            return result;
+        }
+        final int start = data.position();
+        channel.write(data, 0, null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(final Integer count, final Void attachment) {
+                if (data.hasRemaining()) {
+                    channel.write(data, data.position() - start, null, this);
+                    return;
+                }
+                closeQuietly(channel);
+                result.complete(null);
+            }
+
+            @Override
+            public void failed(final Throwable e, final Void attachment) {
+                closeQuietly(channel);
+                result.completeExceptionally(new RuntimeException("Failed to write file: [" + path + "].", e));
+            }
+        });
+        return result;
+    }
+}
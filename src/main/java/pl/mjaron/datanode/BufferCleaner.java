@@ -0,0 +1,67 @@
+package pl.mjaron.datanode;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+
+/**
+ * Releases memory of direct and mapped buffers without waiting for garbage collection.
+ * <p>
+ * There is no public API for that in Java 8, so JDK internals are used by reflection: {@code Unsafe.invokeCleaner}
+ * on Java 9 and newer, {@code DirectBuffer.cleaner().clean()} on Java 8. When none of them is accessible, releasing
+ * is left to the garbage collector.
+ */
+final class BufferCleaner {
+
+    private interface Cleaner {
+        void clean(ByteBuffer buffer) throws Exception;
+    }
+
+    private static final Cleaner CLEANER = findCleaner();
+
+    private BufferCleaner() {
+    }
+
+    private static Cleaner findCleaner() {
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            final Object unsafe = theUnsafe.get(null);
+            return buffer -> invokeCleaner.invoke(unsafe, buffer);
+        } catch (Exception | LinkageError ignored) {
+            // Java 8.
+        }
+        try {
+            final Method cleanerMethod = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+            final Method cleanMethod = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            return buffer -> {
+                final Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleanMethod.invoke(cleaner);
+                }
+            };
+        } catch (Exception | LinkageError ignored) {
+            return null;
+        }
+    }
+
+    /**
+     * Releases memory of given buffer if it is a direct buffer. The buffer and all its views must not be used
+     * afterwards.
+     *
+     * @return True if the memory has been released.
+     */
+    static boolean clean(final ByteBuffer buffer) {
+        if (CLEANER == null || buffer == null || !buffer.isDirect()) {
+            return false;
+        }
+        try {
+            CLEANER.clean(buffer);
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
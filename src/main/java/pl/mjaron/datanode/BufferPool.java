@@ -0,0 +1,77 @@
+package pl.mjaron.datanode;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Pool of heap buffers used to transfer data between streams.
+ * <p>
+ * Default pool is used by all node operations which need a temporary buffer, e.g. {@link INode#copyTo} or
+ * {@link INode#readBytes()}. It can be replaced by {@link #setDefault}, e.g. with a pool of different capacity or a
+ * subclass with other allocation strategy.
+ */
+public class BufferPool {
+
+    private static volatile BufferPool defaultPool =
+            new BufferPool(NodeIo.BUFFER_SIZE, 2 * Runtime.getRuntime().availableProcessors());
+
+    private final int bufferSize;
+    private final ArrayBlockingQueue<byte[]> free;
+
+    /**
+     * @param bufferSize Size of provided buffers.
+     * @param capacity   Maximal count of buffers kept in the pool when not used.
+     */
+    public BufferPool(final int bufferSize, final int capacity) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("Buffer size must be positive: [" + bufferSize + "].");
+        }
+        this.bufferSize = bufferSize;
+        this.free = new ArrayBlockingQueue<>(Math.max(1, capacity));
+    }
+
+    /**
+     * @return Pool used by node operations.
+     */
+    public static BufferPool getDefault() {
+        return defaultPool;
+    }
+
+    /**
+     * @param pool Pool to be used by node operations.
+     */
+    public static void setDefault(final BufferPool pool) {
+        if (pool == null) {
+            throw new IllegalArgumentException("Buffer pool cannot be null.");
+        }
+        defaultPool = pool;
+    }
+
+    /**
+     * @return Size of provided buffers.
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return Buffer of {@link #getBufferSize()} bytes, taken from the pool or allocated when the pool is empty.
+     */
+    public byte[] acquire() {
+        final byte[] buffer = free.poll();
+        if (buffer != null) {
+            return buffer;
+        }
+        return new byte[bufferSize];
+    }
+
+    /**
+     * Returns a buffer to the pool. The buffer must not be used by the caller anymore.
+     *
+     * @param buffer Buffer obtained from {@link #acquire()}.
+     */
+    public void release(final byte[] buffer) {
+        if (buffer != null && buffer.length == bufferSize) {
+            free.offer(buffer);
+        }
+    }
+}
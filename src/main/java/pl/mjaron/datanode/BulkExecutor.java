@@ -0,0 +1,346 @@
+package pl.mjaron.datanode;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Executor of bulk node operations, e.g. parallel traversal, copying of directory trees or cache prefetching.
+ * <p>
+ * When the runtime supports virtual threads (Java 21 and newer), each operation runs on its own virtual thread, so
+ * thousands of blocking file or network operations are cheap. On older runtimes operations run on a bounded pool of
+ * platform daemon threads. Operations submitted with {@link #submit(INode, Supplier)} are additionally limited per
+ * backing store, so e.g. a single HTTP host or filesystem is not flooded with requests. Operations over the limit wait
+ * in a queue of their store, not on threads, so a busy store doesn't hold threads needed by other stores.
+ */
+public class BulkExecutor implements Executor {
+
+    /**
+     * Default maximal count of concurrent operations on a single backing store.
+     */
+    public static final int DEFAULT_PER_STORE_LIMIT = 32;
+
+    private static volatile BulkExecutor defaultExecutor = null;
+
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+    private final int perStoreLimit;
+    private final ConcurrentHashMap<String, StoreQueue> stores = new ConcurrentHashMap<>();
+
+    /**
+     * Maximal count of directories which store keys are remembered.
+     */
+    private static final int MAX_CACHED_DIRECTORIES = 4096;
+
+    /**
+     * Store keys of local files by their parent directories, so the mount table is not scanned for every operation.
+     */
+    private final ConcurrentHashMap<Path, String> fileStoreKeys = new ConcurrentHashMap<>();
+
+    /**
+     * Operations of one backing store: at most {@link #perStoreLimit} are passed to the executor, the rest wait here.
+     */
+    private final class StoreQueue {
+        private final ArrayDeque<StoreTask<?>> waiting = new ArrayDeque<>();
+        private int running = 0;
+
+        void offer(final StoreTask<?> task) {
+            synchronized (this) {
+                if (running >= perStoreLimit) {
+                    waiting.addLast(task);
+                    return;
+                }
+                ++running;
+            }
+            start(task);
+        }
+
+        /**
+         * Called when an operation of this store is done, starts the next waiting one.
+         */
+        void finished() {
+            start(next());
+        }
+
+        private synchronized StoreTask<?> next() {
+            final StoreTask<?> next = waiting.pollFirst();
+            if (next == null) {
+                --running;
+            }
+            return next;
+        }
+
+        private void start(StoreTask<?> task) {
+            while (task != null) {
+                try {
+                    executor.execute(task);
+                    return;
+                } catch (RejectedExecutionException e) {
+                    task.result.completeExceptionally(e);
+                    task = next();
+                }
+            }
+        }
+    }
+
+    private static final class StoreTask<T> implements Runnable {
+        final StoreQueue store;
+        final Supplier<T> operation;
+        final CompletableFuture<T> result = new CompletableFuture<>();
+
+        StoreTask(final StoreQueue store, final Supplier<T> operation) {
+            this.store = store;
+            this.operation = operation;
+        }
+
+        @Override
+        public void run() {
+            try {
+                result.complete(operation.get());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            } finally {
+                store.finished();
+            }
+        }
+    }
+
+    /**
+     * @param executor       Executor running the operations.
+     * @param virtualThreads Whether the executor starts virtual threads.
+     * @param perStoreLimit  Maximal count of concurrent operations on a single backing store.
+     */
+    protected BulkExecutor(final ExecutorService executor, final boolean virtualThreads, final int perStoreLimit) {
+        if (perStoreLimit < 1) {
+            throw new IllegalArgumentException("Per store limit must be positive: [" + perStoreLimit + "].");
+        }
+        this.executor = executor;
+        this.virtualThreads = virtualThreads;
+        this.perStoreLimit = perStoreLimit;
+    }
+
+    /**
+     * @return Shared executor, using virtual threads when available.
+     */
+    public static BulkExecutor getDefault() {
+        BulkExecutor result = defaultExecutor;
+        if (result == null) {
+            synchronized (BulkExecutor.class) {
+                result = defaultExecutor;
+                if (result == null) {
+                    result = create(Math.max(8, 4 * Runtime.getRuntime().availableProcessors()), DEFAULT_PER_STORE_LIMIT);
+                    defaultExecutor = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Creates an executor using virtual threads when available, or a bounded pool of platform threads otherwise.
+     *
+     * @param platformThreads Count of platform threads used when virtual threads are not available.
+     * @param perStoreLimit   Maximal count of concurrent operations on a single backing store.
+     * @return New executor.
+     */
+    public static BulkExecutor create(final int platformThreads, final int perStoreLimit) {
+        final ExecutorService virtual = newVirtualThreadExecutor();
+        if (virtual != null) {
+            return new BulkExecutor(virtual, true, perStoreLimit);
+        }
+        return platform(platformThreads, perStoreLimit);
+    }
+
+    /**
+     * Creates an executor using a bounded pool of platform daemon threads.
+     *
+     * @param threads       Count of threads.
+     * @param perStoreLimit Maximal count of concurrent operations on a single backing store.
+     * @return New executor.
+     */
+    public static BulkExecutor platform(final int threads, final int perStoreLimit) {
+        final ExecutorService pool = Executors.newFixedThreadPool(threads, NodeExecutors.daemonThreadFactory("datanode-bulk-"));
+        return new BulkExecutor(pool, false, perStoreLimit);
+    }
+
+    /**
+     * @return True if the runtime supports virtual threads.
+     */
+    public static boolean isVirtualThreadsAvailable() {
+        final ExecutorService probe = newVirtualThreadExecutor();
+        if (probe == null) {
+            return false;
+        }
+        probe.shutdown();
+        return true;
+    }
+
+    /**
+     * Creates {@code Executors.newVirtualThreadPerTaskExecutor()} by reflection, as the library is built for Java 8.
+     *
+     * @return New executor, or null when virtual threads are not available.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            final Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return True if operations run on virtual threads.
+     */
+    public boolean usesVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * @return Maximal count of concurrent operations on a single backing store.
+     */
+    public int getPerStoreLimit() {
+        return perStoreLimit;
+    }
+
+    /**
+     * Identifies the backing store of a node. Operations on nodes with the same key share the per-store limit.
+     * Default implementation uses the HTTP host for {@link HttpNode}s, the {@link java.nio.file.FileStore} (mounted
+     * volume) of the parent directory for local nodes and the class name for other nodes. Decorators, e.g.
+     * {@link CachingNode}, are keyed by the nodes they decorate.
+     *
+     * @param node Node which is going to be accessed.
+     * @return Key of the backing store.
+     */
+    protected String storeKey(final INode decorated) {
+        final INode node = undecorated(decorated);
+        if (node instanceof HttpNode) {
+            final URL url = ((HttpNode) node).url;
+            return url.getProtocol() + "://" + url.getAuthority();
+        }
+        final Path path = NodeIo.localPath(node);
+        if (path != null) {
+            return "file:" + fileStoreKey(path.toAbsolutePath());
+        }
+        return node.getClass().getName();
+    }
+
+    private static INode undecorated(INode node) {
+        while (true) {
+            if (node instanceof CachingNode) {
+                node = ((CachingNode) node).getDelegate();
+            } else if (node instanceof MetricsNode) {
+                node = ((MetricsNode) node).getDelegate();
+            } else if (node instanceof CompressedNode) {
+                node = ((CompressedNode) node).getDelegate();
+            } else {
+                return node;
+            }
+        }
+    }
+
+    private String fileStoreKey(final Path path) {
+        final Path parent = path.getParent();
+        final Path directory = (parent == null) ? path : parent;
+        String key = fileStoreKeys.get(directory);
+        if (key == null) {
+            key = findFileStoreKey(directory);
+            if (fileStoreKeys.size() >= MAX_CACHED_DIRECTORIES) {
+                fileStoreKeys.clear();
+            }
+            fileStoreKeys.put(directory, key);
+        }
+        return key;
+    }
+
+    private static String findFileStoreKey(final Path path) {
+        for (Path existing = path; existing != null; existing = existing.getParent()) {
+            try {
+                return Files.getFileStore(existing).toString();
+            } catch (IOException e) {
+                // Doesn't exist yet, the parent is on the same store.
+            }
+        }
+        final Path root = path.getRoot();
+        return (root == null) ? "" : root.toString();
+    }
+
+    /**
+     * Runs a task without the per-store limit.
+     */
+    @Override
+    public void execute(final Runnable task) {
+        executor.execute(task);
+    }
+
+    /**
+     * Runs an operation on given node. When the limit of concurrent operations on its backing store is reached, the
+     * operation waits in a queue of the store until another one is done, without occupying a thread.
+     *
+     * @param node      Node accessed by the operation.
+     * @param operation Operation to run.
+     * @param <T>       Type of the operation result.
+     * @return Future completed with the operation result.
+     */
+    public <T> CompletableFuture<T> submit(final INode node, final Supplier<T> operation) {
+        final StoreTask<T> task = new StoreTask<>(stores.computeIfAbsent(storeKey(node), k -> new StoreQueue()), operation);
+        task.store.offer(task);
+        return task.result;
+    }
+
+    /**
+     * Runs an operation on each node and waits until all of them are done.
+     *
+     * @param nodes     Nodes to process.
+     * @param operation Operation run for each node.
+     * @param <T>       Type of the operation result.
+     * @return Results in the order of the nodes.
+     * @throws RuntimeException when any of the operations fails.
+     */
+    public <T> List<T> invokeAll(final Collection<? extends INode> nodes, final Function<INode, T> operation) {
+        final List<CompletableFuture<T>> futures = new ArrayList<>(nodes.size());
+        for (final INode node : nodes) {
+            futures.add(submit(node, () -> operation.apply(node)));
+        }
+        return joinAll(futures);
+    }
+
+    /**
+     * Waits for all futures, even if some of them fail.
+     *
+     * @return Results in the order of the futures.
+     * @throws RuntimeException with the first failure as its cause, when any of the futures fails.
+     */
+    static <T> List<T> joinAll(final List<CompletableFuture<T>> futures) {
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw e;
+        }
+        final List<T> results = new ArrayList<>(futures.size());
+        for (final CompletableFuture<T> future : futures) {
+            results.add(future.join());
+        }
+        return results;
+    }
+
+    /**
+     * Stops accepting new operations. Already submitted operations are completed.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
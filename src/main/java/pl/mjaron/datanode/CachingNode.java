@@ -0,0 +1,420 @@
+package pl.mjaron.datanode;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Decorator caching metadata and file contents of any node, e.g. to avoid network round-trips of {@link HttpNode}.
+ * <p>
+ * Children obtained from this node are wrapped too and share the same {@link NodeCache}. Modifications made through
+ * the decorators invalidate affected cache entries at once, modifications made in other ways become visible when the
+ * cached metadata expires or after {@link NodeCache#invalidate}. Cached file contents are served without checking
+ * for the same time as metadata, then only while size and modification time of the file don't change.
+ */
+public class CachingNode implements INode {
+
+    private final INode delegate;
+    private final NodeCache cache;
+
+    /**
+     * @param delegate Decorated node.
+     * @param cache    Cache shared with other decorators of the same tree.
+     */
+    public CachingNode(final INode delegate, final NodeCache cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    /**
+     * @param delegate        Decorated node.
+     * @param ttlMillis       How long metadata is valid, in milliseconds.
+     * @param maxContentBytes Maximal total size of cached file contents.
+     */
+    public CachingNode(final INode delegate, final long ttlMillis, final long maxContentBytes) {
+        this(delegate, new NodeCache(ttlMillis, maxContentBytes));
+    }
+
+    /**
+     * @return Decorated node.
+     */
+    public INode getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * @return Cache used by this node.
+     */
+    public NodeCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Loads this node to the cache in the background: attributes, and content when it is a file. For a directory,
+     * attributes of all children and contents of child files are loaded concurrently, with one attributes request
+     * per child.
+     *
+     * @param executor Executor running the loading, limiting concurrent operations on the backing store.
+     * @return Future completed when everything is loaded.
+     */
+    public CompletableFuture<Void> prefetch(final BulkExecutor executor) {
+        return executor.submit(this, this::isDirectory).thenCompose(directory -> {
+            if (!directory) {
+                return executor.submit(this, this::readBytes).thenApply(ignored -> null);
+            }
+            final List<CompletableFuture<Object>> loads = new ArrayList<>();
+            for (final INode child : getChildren()) {
+                loads.add(executor.submit(child, () -> child.isFile() ? child.readBytes() : null));
+            }
+            return CompletableFuture.allOf(loads.toArray(new CompletableFuture<?>[0]));
+        });
+    }
+
+    private CachingNode wrap(final INode node) {
+        return new CachingNode(node, cache);
+    }
+
+    private static INode unwrap(final INode node) {
+        if (node instanceof CachingNode) {
+            return ((CachingNode) node).delegate;
+        }
+        return node;
+    }
+
+    private void modified() {
+        cache.invalidate(delegate.getPath());
+    }
+
+    private static void modified(final INode node) {
+        if (node instanceof CachingNode) {
+            ((CachingNode) node).modified();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return delegate.toString();
+    }
+
+    @Override
+    public String getName() {
+        return delegate.getName();
+    }
+
+    @Override
+    public String getPath() {
+        return delegate.getPath();
+    }
+
+    /**
+     * Existence, type, size and modification time share one cache entry, loaded with a single
+     * {@link INode#getAttributes()} call, e.g. one HEAD request of {@link HttpNode}.
+     */
+    @Override
+    public NodeAttributes getAttributes() {
+        return cache.get(getPath(), NodeCache.Kind.ATTRIBUTES, delegate::getAttributes);
+    }
+
+    @Override
+    public boolean isFile() {
+        final NodeAttributes attributes = getAttributes();
+        return attributes != null && attributes.isFile();
+    }
+
+    /**
+     * For a node which doesn't exist, asks the decorated node, because some implementations, e.g. {@link HttpNode},
+     * report missing nodes as directories.
+     */
+    @Override
+    public boolean isDirectory() {
+        final NodeAttributes attributes = getAttributes();
+        if (attributes == null) {
+            return cache.get(getPath(), NodeCache.Kind.DIRECTORY, delegate::isDirectory);
+        }
+        return attributes.isDirectory();
+    }
+
+    @Override
+    public boolean exists() {
+        return getAttributes() != null;
+    }
+
+    @Override
+    public INode mkdirs() {
+        delegate.mkdirs();
+        modified();
+        return this;
+    }
+
+    @Override
+    public INode touch() {
+        delegate.touch();
+        modified();
+        return this;
+    }
+
+    @Override
+    public INode remove() {
+        delegate.remove();
+        modified();
+        return this;
+    }
+
+    @Override
+    public long getSize() {
+        final NodeAttributes attributes = getAttributes();
+        return (attributes == null) ? 0 : attributes.getSize();
+    }
+
+    @Override
+    public long getLastModified() {
+        final NodeAttributes attributes = getAttributes();
+        return (attributes == null) ? 0 : attributes.getLastModified();
+    }
+
+    /**
+     * @return Cached content, or null when it is not cached or the file has changed since it was cached.
+     */
+    private byte[] cachedContent() {
+        return cache.getContent(getPath(), this::getAttributes);
+    }
+
+    /**
+     * Reads the content from the decorated node and caches it with the attributes read before it, so it can be
+     * checked against them later.
+     */
+    private byte[] loadContent() {
+        final Object stamp = cache.stamp(getPath());
+        final NodeAttributes attributes = getAttributes();
+        final byte[] content = delegate.readBytes();
+        cache.putContent(getPath(), content, attributes, stamp);
+        return content;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        final byte[] content = cachedContent();
+        if (content != null) {
+            return new ByteArrayInputStream(content);
+        }
+        return delegate.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        modified();
+        return new FilterOutputStream(delegate.getOutputStream()) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    modified();
+                }
+            }
+        };
+    }
+
+    @Override
+    public List<String> getChildrenNames() {
+        return new ArrayList<>(cache.get(getPath(), NodeCache.Kind.CHILDREN_NAMES, delegate::getChildrenNames));
+    }
+
+    @Override
+    public List<INode> getChildren() {
+        final List<String> childNames = getChildrenNames();
+        final List<INode> result = new ArrayList<>(childNames.size());
+        for (final String childName : childNames) {
+            result.add(getChild(childName));
+        }
+        return result;
+    }
+
+    @Override
+    public List<INode> getChildren(final Predicate<String> nameFilter) {
+        final List<INode> result = new ArrayList<>();
+        for (final String childName : cache.get(getPath(), NodeCache.Kind.CHILDREN_NAMES, delegate::getChildrenNames)) {
+            if (nameFilter.test(childName)) {
+                result.add(getChild(childName));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Watches the decorated node. Reported changes invalidate the cache, nodes in events are decorated.
+     */
+    @Override
+    public NodeWatcher watch(final long intervalMillis, final Consumer<List<NodeEvent>> listener) {
+        return delegate.watch(intervalMillis, events -> {
+            final List<NodeEvent> wrapped = new ArrayList<>(events.size());
+            for (final NodeEvent event : events) {
+                cache.invalidate(event.getNode().getPath());
+                wrapped.add(new NodeEvent(event.getKind(), event.getPath(), wrap(event.getNode())));
+            }
+            listener.accept(wrapped);
+        });
+    }
+
+    @Override
+    public INode getChild(String name) {
+        return wrap(delegate.getChild(name));
+    }
+
+    @Override
+    public File asJavaFile() {
+        return delegate.asJavaFile();
+    }
+
+    @Override
+    public int getChildrenCount() {
+        return getChildrenNames().size();
+    }
+
+    @Override
+    public INode write(final byte[] what) {
+        try {
+            delegate.write(what);
+        } finally {
+            modified();
+        }
+        return this;
+    }
+
+    @Override
+    public INode write(final ByteBuffer... data) {
+        try {
+            delegate.write(data);
+        } finally {
+            modified();
+        }
+        return this;
+    }
+
+    @Override
+    public INode append(final ByteBuffer... data) {
+        try {
+            delegate.append(data);
+        } finally {
+            modified();
+        }
+        return this;
+    }
+
+    @Override
+    public INode writeAtomic(final byte[] what) {
+        try {
+            delegate.writeAtomic(what);
+        } finally {
+            modified();
+        }
+        return this;
+    }
+
+    /**
+     * Serves the content from the cache, or reads it from the decorated node and caches it.
+     */
+    @Override
+    public byte[] readBytes() {
+        final byte[] content = cachedContent();
+        if (content == null) {
+            return loadContent().clone();
+        }
+        return content.clone();
+    }
+
+    @Override
+    public CompletableFuture<byte[]> readBytesAsync() {
+        final byte[] content = cachedContent();
+        if (content != null) {
+            return CompletableFuture.completedFuture(content.clone());
+        }
+        // Attributes are not read here not to block, so the content is not checked but dropped when it expires.
+        final String path = getPath();
+        final Object stamp = cache.stamp(path);
+        return delegate.readBytesAsync().thenApply(read -> {
+            cache.putContent(path, read.clone(), null, stamp);
+            return read;
+        });
+    }
+
+    @Override
+    public CompletableFuture<INode> writeAsync(final byte[] what) {
+        return delegate.writeAsync(what).handle((ignored, e) -> {
+            modified();
+            if (e != null) {
+                throw (e instanceof CompletionException) ? (CompletionException) e : new CompletionException(e);
+            }
+            return this;
+        });
+    }
+
+    @Override
+    public String readString(final java.nio.charset.Charset charset) {
+        byte[] content = cachedContent();
+        if (content == null) {
+            content = loadContent();
+        }
+        return new String(content, charset);
+    }
+
+    @Override
+    public int read(final byte[] buffer, final int offset, final int length) {
+        final byte[] content = cachedContent();
+        if (content == null) {
+            return delegate.read(buffer, offset, length);
+        }
+        final int count = Math.min(length, content.length);
+        System.arraycopy(content, 0, buffer, offset, count);
+        return count;
+    }
+
+    @Override
+    public int readInto(final ByteBuffer buffer) {
+        final byte[] content = cachedContent();
+        if (content == null) {
+            return delegate.readInto(buffer);
+        }
+        final int count = Math.min(buffer.remaining(), content.length);
+        buffer.put(content, 0, count);
+        return count;
+    }
+
+    @Override
+    public MappedData map(final long offset, final long length) {
+        return delegate.map(offset, length);
+    }
+
+    @Override
+    public INode copyTo(final INode target) {
+        delegate.copyTo(unwrap(target));
+        modified(target);
+        return target;
+    }
+
+    @Override
+    public INode moveTo(final INode target) {
+        try {
+            delegate.moveTo(unwrap(target));
+        } finally {
+            modified();
+            modified(target);
+        }
+        return target;
+    }
+}
@@ -0,0 +1,16 @@
+package pl.mjaron.datanode;
+
+/**
+ * Receives attributes of directory entries one by one, see {@link INode#visitChildren(ChildVisitor)}.
+ */
+@FunctionalInterface
+public interface ChildVisitor {
+
+    /**
+     * @param name         Name of the child.
+     * @param type         Type of the child.
+     * @param size         Size of a file, 0 for other types.
+     * @param lastModified Time of the last modification in milliseconds since the epoch, 0 if unknown.
+     */
+    void visit(String name, NodeAttributes.Type type, long size, long lastModified);
+}
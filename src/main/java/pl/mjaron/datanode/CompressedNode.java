@@ -0,0 +1,336 @@
+package pl.mjaron.datanode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Decorator of any node, storing file contents compressed with a {@link CompressionCodec}. Contents are compressed
+ * when written and decompressed when read, so users of this node see the original data.
+ * <p>
+ * With a concatenable codec, like gzip, written data is split into blocks which are compressed concurrently and
+ * stored as consecutive members, like pigz does, so large writes are not limited by a single core. Other codecs
+ * compress on the writing thread.
+ * <p>
+ * Children obtained from this node are wrapped too and use the same codec. Names are not changed, so a suffix like
+ * {@code .gz} should be added by the caller when needed. Sizes reported by {@link #getSize()} and
+ * {@link #visitChildren(ChildVisitor)} are the stored, compressed sizes, because the original sizes are not known
+ * without decompressing.
+ */
+public class CompressedNode implements INode {
+
+    /**
+     * Default count of uncompressed bytes compressed as one block.
+     */
+    public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+    private final INode delegate;
+    private final CompressionCodec codec;
+    private final int blockSize;
+
+    /**
+     * Null when blocks are not compressed in parallel.
+     */
+    private final Executor executor;
+
+    /**
+     * @param delegate  Node storing compressed contents.
+     * @param codec     Compression format.
+     * @param blockSize Count of uncompressed bytes compressed as one block.
+     * @param executor  Executor compressing blocks concurrently, or null to compress on the writing thread. Used only
+     *                  with concatenable codecs.
+     */
+    public CompressedNode(final INode delegate, final CompressionCodec codec, final int blockSize, final Executor executor) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Block size must be positive: [" + blockSize + "].");
+        }
+        this.delegate = delegate;
+        this.codec = codec;
+        this.blockSize = blockSize;
+        this.executor = executor;
+    }
+
+    /**
+     * Compresses blocks of {@link #DEFAULT_BLOCK_SIZE} bytes in {@link ForkJoinPool#commonPool()}.
+     *
+     * @param delegate Node storing compressed contents.
+     * @param codec    Compression format.
+     */
+    public CompressedNode(final INode delegate, final CompressionCodec codec) {
+        this(delegate, codec, DEFAULT_BLOCK_SIZE, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @return Node storing compressed contents.
+     */
+    public INode getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * @return Compression format used by this node.
+     */
+    public CompressionCodec getCodec() {
+        return codec;
+    }
+
+    private CompressedNode wrap(final INode node) {
+        return new CompressedNode(node, codec, blockSize, executor);
+    }
+
+    private static INode unwrap(final INode node) {
+        if (node instanceof CompressedNode) {
+            return ((CompressedNode) node).delegate;
+        }
+        return node;
+    }
+
+    /**
+     * @return Whether compressed contents of this node can be copied to the target without recompression.
+     */
+    private boolean sameCodec(final INode target) {
+        return target instanceof CompressedNode && codec.equals(((CompressedNode) target).codec);
+    }
+
+    private OutputStream compress(final OutputStream out) throws IOException {
+        if (executor != null && codec.isConcatenable()) {
+            final int parallelism = (executor instanceof ForkJoinPool) ?
+                    ((ForkJoinPool) executor).getParallelism() : Runtime.getRuntime().availableProcessors();
+            return new ParallelCompressionOutputStream(out, codec, blockSize, 2 * parallelism, executor);
+        }
+        return codec.compress(out);
+    }
+
+    private byte[] compress(final ByteBuffer... data) {
+        final ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (final OutputStream out = compress(result)) {
+            for (final ByteBuffer buffer : data) {
+                NodeIo.write(out, buffer);
+            }
+        } catch (final IOException e) {
+            throw new RuntimeException("Failed to compress content of: [" + getPath() + "].", e);
+        }
+        return result.toByteArray();
+    }
+
+    @Override
+    public String toString() {
+        return delegate.toString();
+    }
+
+    @Override
+    public String getName() {
+        return delegate.getName();
+    }
+
+    @Override
+    public String getPath() {
+        return delegate.getPath();
+    }
+
+    @Override
+    public boolean isFile() {
+        return delegate.isFile();
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return delegate.isDirectory();
+    }
+
+    @Override
+    public boolean exists() {
+        return delegate.exists();
+    }
+
+    @Override
+    public INode mkdirs() {
+        delegate.mkdirs();
+        return this;
+    }
+
+    /**
+     * Creates a file with compressed empty content, so it can be read.
+     */
+    @Override
+    public INode touch() {
+        if (!delegate.exists()) {
+            write(new byte[0]);
+        }
+        return this;
+    }
+
+    @Override
+    public INode remove() {
+        delegate.remove();
+        return this;
+    }
+
+    /**
+     * @return Compressed size of the file.
+     */
+    @Override
+    public long getSize() {
+        return delegate.getSize();
+    }
+
+    @Override
+    public long getLastModified() {
+        return delegate.getLastModified();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        final InputStream in = delegate.getInputStream();
+        try {
+            return codec.decompress(in);
+        } catch (final IOException e) {
+            try {
+                in.close();
+            } catch (final IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw new RuntimeException("Failed to decompress: [" + getPath() + "].", e);
+        }
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        final OutputStream out = delegate.getOutputStream();
+        try {
+            return compress(out);
+        } catch (final IOException e) {
+            try {
+                out.close();
+            } catch (final IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw new RuntimeException("Failed to compress: [" + getPath() + "].", e);
+        }
+    }
+
+    /**
+     * The compressed size is used as the initial size of the result array.
+     */
+    @Override
+    public byte[] readBytes() {
+        try (final InputStream in = getInputStream()) {
+            return NodeIo.readAll(in, delegate.getSize());
+        } catch (final IOException e) {
+            throw new RuntimeException("Failed to decompress: [" + getPath() + "].", e);
+        }
+    }
+
+    /**
+     * With a concatenable codec, the data is compressed and appended to the stored content without decompressing it.
+     */
+    @Override
+    public INode append(final ByteBuffer... data) {
+        if (!codec.isConcatenable() || !delegate.isFile()) {
+            return INode.super.append(data);
+        }
+        delegate.append(ByteBuffer.wrap(compress(data)));
+        return this;
+    }
+
+    /**
+     * The content is compressed in memory and written atomically by the delegate.
+     */
+    @Override
+    public INode writeAtomic(final byte[] what) {
+        delegate.writeAtomic(compress(ByteBuffer.wrap(what)));
+        return this;
+    }
+
+    @Override
+    public List<String> getChildrenNames() {
+        return delegate.getChildrenNames();
+    }
+
+    @Override
+    public List<INode> getChildren() {
+        final List<INode> children = delegate.getChildren();
+        final List<INode> result = new ArrayList<>(children.size());
+        for (final INode child : children) {
+            result.add(wrap(child));
+        }
+        return result;
+    }
+
+    @Override
+    public List<INode> getChildren(final Predicate<String> nameFilter) {
+        final List<INode> children = delegate.getChildren(nameFilter);
+        final List<INode> result = new ArrayList<>(children.size());
+        for (final INode child : children) {
+            result.add(wrap(child));
+        }
+        return result;
+    }
+
+    @Override
+    public NodeWatcher watch(final long intervalMillis, final Consumer<List<NodeEvent>> listener) {
+        return delegate.watch(intervalMillis, events -> {
+            final List<NodeEvent> wrapped = new ArrayList<>(events.size());
+            for (final NodeEvent event : events) {
+                wrapped.add(new NodeEvent(event.getKind(), event.getPath(), wrap(event.getNode())));
+            }
+            listener.accept(wrapped);
+        });
+    }
+
+    @Override
+    public INode getChild(final String name) {
+        return wrap(delegate.getChild(name));
+    }
+
+    @Override
+    public File asJavaFile() {
+        return delegate.asJavaFile();
+    }
+
+    @Override
+    public int getChildrenCount() {
+        return delegate.getChildrenCount();
+    }
+
+    /**
+     * Reports compressed sizes of files.
+     */
+    @Override
+    public void visitChildren(final ChildVisitor visitor) {
+        delegate.visitChildren(visitor);
+    }
+
+    /**
+     * When the target is a compressed node with the same codec, compressed contents are copied as they are.
+     */
+    @Override
+    public INode copyTo(final INode target) {
+        if (sameCodec(target)) {
+            delegate.copyTo(unwrap(target));
+            return target;
+        }
+        return INode.super.copyTo(target);
+    }
+
+    /**
+     * When the target is a compressed node with the same codec, compressed contents are moved as they are.
+     */
+    @Override
+    public INode moveTo(final INode target) {
+        if (sameCodec(target)) {
+            delegate.moveTo(unwrap(target));
+            return target;
+        }
+        return INode.super.moveTo(target);
+    }
+}
@@ -0,0 +1,62 @@
+package pl.mjaron.datanode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * Compression format used by {@link CompressedNode}.
+ */
+public interface CompressionCodec {
+
+    /**
+     * @param out Stream receiving compressed data. It is closed when the returned stream is closed.
+     * @return Stream compressing written data.
+     */
+    OutputStream compress(OutputStream out) throws IOException;
+
+    /**
+     * @param in Stream of compressed data. It is closed when the returned stream is closed.
+     * @return Stream providing decompressed data.
+     */
+    InputStream decompress(InputStream in) throws IOException;
+
+    /**
+     * @return Whether independently compressed parts can be concatenated into a valid compressed stream, which
+     * allows compressing blocks in parallel and appending without decompression. False by default.
+     */
+    default boolean isConcatenable() {
+        return false;
+    }
+
+    /**
+     * @return Gzip format with default compression level. Gzip members can be concatenated.
+     */
+    static CompressionCodec gzip() {
+        return gzip(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param level Compression level, from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION}.
+     * @return Gzip format with given compression level. Gzip members can be concatenated.
+     */
+    static CompressionCodec gzip(final int level) {
+        return new DeflateCodec(true, level);
+    }
+
+    /**
+     * @return Zlib (deflate) format with default compression level.
+     */
+    static CompressionCodec deflate() {
+        return deflate(Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param level Compression level, from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION}.
+     * @return Zlib (deflate) format with given compression level.
+     */
+    static CompressionCodec deflate(final int level) {
+        return new DeflateCodec(false, level);
+    }
+}
@@ -0,0 +1,102 @@
+package pl.mjaron.datanode;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hashes many files concurrently with {@link INode#hash(String)}, skipping files which hashes are in the
+ * {@link HashCache} and are still valid.
+ */
+public class ContentHasher {
+
+    private final String algorithm;
+    private final BulkExecutor executor;
+    private final HashCache cache;
+
+    /**
+     * @param algorithm {@link java.security.MessageDigest} algorithm.
+     * @param executor  Executor running the hashing, limiting concurrent reads from a single store.
+     * @param cache     Cache of hashes of the same algorithm, may be null.
+     */
+    public ContentHasher(final String algorithm, final BulkExecutor executor, final HashCache cache) {
+        if (cache != null && !cache.getAlgorithm().equals(algorithm)) {
+            throw new IllegalArgumentException("Hash cache algorithm " + cache.getAlgorithm() + " differs from " + algorithm + ".");
+        }
+        this.algorithm = algorithm;
+        this.executor = executor;
+        this.cache = cache;
+    }
+
+    /**
+     * @param algorithm {@link java.security.MessageDigest} algorithm.
+     * @param cache     Cache of hashes of the same algorithm, may be null.
+     */
+    public ContentHasher(final String algorithm, final HashCache cache) {
+        this(algorithm, BulkExecutor.getDefault(), cache);
+    }
+
+    /**
+     * @return Hash of the file, from the cache when the file didn't change.
+     */
+    public byte[] hash(final INode file) {
+        if (cache == null) {
+            return file.hash(algorithm);
+        }
+        final String path = file.getPath();
+        final long size = file.getSize();
+        final long lastModified = file.getLastModified();
+        byte[] result = cache.get(path, size, lastModified);
+        if (result == null) {
+            result = file.hash(algorithm);
+            cache.put(path, size, lastModified, result);
+        }
+        return result;
+    }
+
+    /**
+     * Hashes files concurrently.
+     *
+     * @param files Files to hash.
+     * @return Hashes by paths of the files, in order of the given collection.
+     */
+    public Map<String, byte[]> hashAll(final Collection<? extends INode> files) {
+        final List<byte[]> hashes = executor.invokeAll(files, this::hash);
+        final Map<String, byte[]> result = new LinkedHashMap<>();
+        int i = 0;
+        for (final INode file : files) {
+            result.put(file.getPath(), hashes.get(i++));
+        }
+        return result;
+    }
+
+    /**
+     * Hashes all files of the tree concurrently. Local trees are listed with attributes, so the cache is checked
+     * without reading attributes of each file again.
+     *
+     * @param root Root directory.
+     * @return Hashes by paths of the files.
+     */
+    public Map<String, byte[]> hashDescendants(final INode root) {
+        final Path localPath = NodeIo.localPath(root);
+        final List<INode> files = (localPath != null) ? new PathNode(localPath).getFileDescendants() : root.getFileDescendants();
+        return hashAll(files);
+    }
+
+    /**
+     * Hashes all files of the tree and removes cache entries of files which are not in the tree anymore.
+     *
+     * @param root Root directory, the cache should contain only files of this tree.
+     * @return Hashes by paths of the files.
+     */
+    public Map<String, byte[]> hashDescendantsAndPrune(final INode root) {
+        final Map<String, byte[]> result = hashDescendants(root);
+        if (cache != null) {
+            cache.retain(new ArrayList<>(result.keySet()));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,98 @@
+package pl.mjaron.datanode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Gzip and zlib codecs of the JDK.
+ */
+final class DeflateCodec implements CompressionCodec {
+
+    private final boolean gzip;
+    private final int level;
+
+    DeflateCodec(final boolean gzip, final int level) {
+        if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("Invalid compression level: [" + level + "].");
+        }
+        this.gzip = gzip;
+        this.level = level;
+    }
+
+    @Override
+    public OutputStream compress(final OutputStream out) throws IOException {
+        if (gzip) {
+            return new GZIPOutputStream(out, NodeIo.BUFFER_SIZE) {
+                {
+                    def.setLevel(level);
+                }
+            };
+        }
+        final Deflater deflater = new Deflater(level);
+        return new DeflaterOutputStream(out, deflater, NodeIo.BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    deflater.end();
+                }
+            }
+        };
+    }
+
+    /**
+     * Gzip streams may consist of several concatenated members, which are read as one stream, also when the
+     * underlying stream doesn't report available bytes.
+     */
+    @Override
+    public InputStream decompress(final InputStream in) {
+        if (gzip) {
+            return new GzipMembersInputStream(in, NodeIo.BUFFER_SIZE);
+        }
+        final Inflater inflater = new Inflater();
+        return new InflaterInputStream(in, inflater, NodeIo.BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+    }
+
+    @Override
+    public boolean isConcatenable() {
+        return gzip;
+    }
+
+    /**
+     * Codecs are equal when they write the same format with the same level.
+     */
+    @Override
+    public boolean equals(final Object other) {
+        if (!(other instanceof DeflateCodec)) {
+            return false;
+        }
+        final DeflateCodec codec = (DeflateCodec) other;
+        return gzip == codec.gzip && level == codec.level;
+    }
+
+    @Override
+    public int hashCode() {
+        return (gzip ? 31 : 0) + level;
+    }
+
+    @Override
+    public String toString() {
+        return gzip ? "gzip" : "deflate";
+    }
+}
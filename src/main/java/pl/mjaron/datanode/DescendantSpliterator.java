@@ -0,0 +1,132 @@
+package pl.mjaron.datanode;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Lazy, splittable spliterator over descendants of a node.
+ * <p>
+ * Directory is listed only when the traversal goes past it. Nodes waiting for the traversal are kept in a deque, so
+ * {@link #trySplit()} can hand over a half of them to another thread and parallel streams list sibling directories
+ * concurrently.
+ */
+class DescendantSpliterator implements Spliterator<INode> {
+
+    private static final class Pending {
+        final INode node;
+        final int depth;
+
+        Pending(final INode node, final int depth) {
+            this.node = node;
+            this.depth = depth;
+        }
+    }
+
+    private final TraversalOrder order;
+    private final int maxDepth;
+    private final Predicate<String> nameFilter;
+    private final Predicate<INode> prune;
+
+    /**
+     * Nodes not returned yet, the next one first.
+     */
+    private final ArrayDeque<Pending> pending;
+
+    /**
+     * Last returned node, listed before the next one is returned.
+     */
+    private Pending toExpand = null;
+
+    /**
+     * @param root     Node which descendants are traversed. Root itself is not returned.
+     * @param order    Traversal order.
+     * @param maxDepth   Maximal depth of returned nodes, direct children have depth 1.
+     * @param nameFilter Directories are listed with {@link INode#getChildren(Predicate)} using this filter. May be null.
+     * @param prune      Nodes matching this predicate are skipped together with their whole subtree. May be null.
+     */
+    DescendantSpliterator(final INode root, final TraversalOrder order, final int maxDepth,
+                          final Predicate<String> nameFilter, final Predicate<INode> prune) {
+        this(order, maxDepth, nameFilter, prune, new ArrayDeque<>());
+        if (maxDepth > 0) {
+            toExpand = new Pending(root, 0);
+        }
+    }
+
+    private DescendantSpliterator(final TraversalOrder order, final int maxDepth, final Predicate<String> nameFilter,
+                                  final Predicate<INode> prune, final ArrayDeque<Pending> pending) {
+        this.order = order;
+        this.maxDepth = maxDepth;
+        this.nameFilter = nameFilter;
+        this.prune = prune;
+        this.pending = pending;
+    }
+
+    private void expand() {
+        if (toExpand == null) {
+            return;
+        }
+        final Pending parent = toExpand;
+        toExpand = null;
+        if (parent.depth >= maxDepth || (parent.depth > 0 && !parent.node.isDirectory())) {
+            return;
+        }
+        final List<INode> children = (nameFilter == null) ? parent.node.getChildren() : parent.node.getChildren(nameFilter);
+        final int childDepth = parent.depth + 1;
+        if (order == TraversalOrder.DEPTH_FIRST) {
+            final ListIterator<INode> it = children.listIterator(children.size());
+            while (it.hasPrevious()) {
+                pending.addFirst(new Pending(it.previous(), childDepth));
+            }
+        } else {
+            for (final INode child : children) {
+                pending.addLast(new Pending(child, childDepth));
+            }
+        }
+    }
+
+    @Override
+    public boolean tryAdvance(final Consumer<? super INode> action) {
+        while (true) {
+            expand();
+            final Pending next = pending.pollFirst();
+            if (next == null) {
+                return false;
+            }
+            if (prune != null && prune.test(next.node)) {
+                continue;
+            }
+            toExpand = next;
+            action.accept(next.node);
+            return true;
+        }
+    }
+
+    @Override
+    public Spliterator<INode> trySplit() {
+        expand();
+        final int count = pending.size() / 2;
+        if (count == 0) {
+            return null;
+        }
+        final ArrayDeque<Pending> prefix = new ArrayDeque<>(count);
+        for (int i = 0; i < count; ++i) {
+            prefix.addLast(pending.pollFirst());
+        }
+        return new DescendantSpliterator(order, maxDepth, nameFilter, prune, prefix);
+    }
+
+    @Override
+    public long estimateSize() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        // Breadth-first order is kept only within a split part.
+        return (order == TraversalOrder.DEPTH_FIRST) ? (ORDERED | NONNULL) : NONNULL;
+    }
+}
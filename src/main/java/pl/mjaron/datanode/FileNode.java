@@ -1,9 +1,16 @@
 package pl.mjaron.datanode;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Standard Java node implementation. Based on File interface.
@@ -107,16 +114,12 @@ public class FileNode implements INode {
         }
     }
 
+    /**
+     * Streams the directory with {@link java.nio.file.DirectoryStream}, without creating a File per entry.
+     */
     @Override
     public List<String> getChildrenNames() {
-        final File[] childFiles = file.listFiles();
-        final List<String> childNames = new ArrayList<String>((childFiles != null) ? childFiles.length : 0);
-        if (childFiles != null) {
-            for (final File childFile : childFiles) {
-                childNames.add(childFile.getName());
-            }
-        }
-        return childNames;
+        return NodeIo.listNames(file.toPath());
     }
 
     @Override
@@ -142,12 +145,152 @@ public class FileNode implements INode {
         return file;
     }
 
+    /**
+     * Streams the directory with {@link java.nio.file.DirectoryStream}, without creating objects for entries.
+     */
     @Override
     public int getChildrenCount() {
-        final File[] childFiles = this.file.listFiles();
-        if (childFiles == null) {
-            return 0;
+        return NodeIo.countEntries(file.toPath());
+    }
+
+    @Override
+    public long getLastModified() {
+        return file.lastModified();
+    }
+
+    @Override
+    public void visitChildren(final ChildVisitor visitor) {
+        NodeIo.visitChildren(file.toPath(), visitor);
+    }
+
+    /**
+     * Filters names with {@link java.nio.file.DirectoryStream.Filter}, so File objects are created only for matching
+     * children.
+     */
+    @Override
+    public List<INode> getChildren(final Predicate<String> nameFilter) {
+        final List<INode> result = new ArrayList<>();
+        for (final Path childPath : NodeIo.listMatching(file.toPath(), nameFilter)) {
+            result.add(new FileNode(childPath.toFile()));
+        }
+        return result;
+    }
+
+    /**
+     * Traverses {@link PathNode} listings, which read type of each entry once, together with the listing, and maps
+     * returned nodes to FileNode. The prune predicate receives the listing nodes.
+     */
+    @Override
+    public Stream<INode> streamDescendants(final TraversalOrder order, final int maxDepth, final Predicate<String> nameFilter,
+                                           final Predicate<INode> prune) {
+        final DescendantSpliterator spliterator = new DescendantSpliterator(new PathNode(file.toPath()), order, maxDepth,
+                nameFilter, prune);
+        return StreamSupport.stream(spliterator, false).map(node -> new FileNode(node.asJavaFile()));
+    }
+
+    /**
+     * Watches with the {@link java.nio.file.WatchService} of the filesystem, falls back to polling when it is not
+     * available.
+     */
+    @Override
+    public NodeWatcher watch(final long intervalMillis, final Consumer<List<NodeEvent>> listener) {
+        return FileSystemWatcher.create(this, file.toPath(), intervalMillis, listener);
+    }
+
+    /**
+     * When the target is on the local filesystem, copies with {@link java.nio.channels.FileChannel#transferTo}, which
+     * lets the operating system copy the data without passing it through the Java heap.
+     */
+    @Override
+    public INode copyTo(final INode target) {
+        final Path targetPath = NodeIo.localPath(target);
+        if (targetPath == null) {
+            return INode.super.copyTo(target);
+        }
+        NodeIo.copyLocal(file.toPath(), targetPath);
+        NodeIo.modified(target);
+        return target;
+    }
+
+    /**
+     * When the target is on the local filesystem, renames atomically if possible.
+     */
+    @Override
+    public INode moveTo(final INode target) {
+        final Path targetPath = NodeIo.localPath(target);
+        if (targetPath == null) {
+            return INode.super.moveTo(target);
         }
-        return childFiles.length;
+        NodeIo.moveLocal(file.toPath(), targetPath);
+        NodeIo.modified(target);
+        return target;
+    }
+
+    /**
+     * Writes with a single gathering write of a file channel.
+     */
+    @Override
+    public INode write(final ByteBuffer... data) {
+        NodeIo.write(file.toPath(), false, data);
+        return this;
+    }
+
+    /**
+     * Appends with a single gathering write of a file channel.
+     */
+    @Override
+    public INode append(final ByteBuffer... data) {
+        NodeIo.write(file.toPath(), true, data);
+        return this;
+    }
+
+    /**
+     * Writes a temporary sibling, forces it to the storage device, renames it over this file and forces the
+     * directory.
+     */
+    @Override
+    public INode writeAtomic(final byte[] what) {
+        NodeIo.writeAtomic(file.toPath(), true, ByteBuffer.wrap(what));
+        return this;
+    }
+
+    /**
+     * Maps large files to memory, so they are hashed without copying their content to the Java heap.
+     */
+    @Override
+    public byte[] hash(final String algorithm) {
+        return NodeIo.hash(file.toPath(), algorithm);
+    }
+
+    /**
+     * Memory-maps the region, so it is read by the operating system on demand, without copying to the Java heap.
+     */
+    @Override
+    public MappedData map(final long offset, final long length) {
+        return MappedData.map(file.toPath(), offset, length, MappedData.SEGMENT_SIZE);
+    }
+
+    /**
+     * Reads with a file channel, so direct buffers are filled without copying through the Java heap.
+     */
+    @Override
+    public int readInto(final ByteBuffer buffer) {
+        return NodeIo.readInto(file.toPath(), buffer);
+    }
+
+    /**
+     * Reads with {@link java.nio.channels.AsynchronousFileChannel}, without occupying a thread while waiting.
+     */
+    @Override
+    public CompletableFuture<byte[]> readBytesAsync() {
+        return AsyncFileIo.readAll(file.toPath());
+    }
+
+    /**
+     * Writes with {@link java.nio.channels.AsynchronousFileChannel}, without occupying a thread while waiting.
+     */
+    @Override
+    public CompletableFuture<INode> writeAsync(final byte[] what) {
+        return AsyncFileIo.writeAll(file.toPath(), ByteBuffer.wrap(what)).thenApply(ignored -> this);
     }
 }
@@ -0,0 +1,222 @@
+package pl.mjaron.datanode;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watcher of a local directory tree based on {@link WatchService}. Each directory of the tree is registered, new
+ * directories are registered as soon as their creation is noticed and scanned, so files created in them before the
+ * registration are reported too.
+ * <p>
+ * When the service loses events ({@link StandardWatchEventKinds#OVERFLOW}), only the directory which lost them is
+ * rescanned. When a directory can't be registered, e.g. because of the system limit of watches, the whole tree is
+ * rescanned every interval, like by the polling watcher.
+ */
+final class FileSystemWatcher extends NodeWatcher {
+
+    private final Path rootPath;
+    private final WatchService service;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    private boolean polling = false;
+
+    private FileSystemWatcher(final INode root, final Path rootPath, final WatchService service, final long intervalMillis,
+                              final Consumer<List<NodeEvent>> listener) {
+        super(root, intervalMillis, listener);
+        this.rootPath = rootPath;
+        this.service = service;
+        final Map<String, Stamp> initial = new TreeMap<>();
+        scan(rootPath, initial);
+        baseline(initial);
+    }
+
+    /**
+     * @return Watcher based on the watch service of the filesystem, or polling watcher when the filesystem doesn't
+     * provide one.
+     */
+    static NodeWatcher create(final INode root, final Path rootPath, final long intervalMillis,
+                              final Consumer<List<NodeEvent>> listener) {
+        final WatchService service;
+        try {
+            service = rootPath.getFileSystem().newWatchService();
+        } catch (UnsupportedOperationException | IOException e) {
+            return new NodeWatcher.Polling(root, intervalMillis, listener).start();
+        }
+        return new FileSystemWatcher(root, rootPath, service, intervalMillis, listener).start();
+    }
+
+    private String relative(final Path path) {
+        final StringBuilder builder = new StringBuilder();
+        for (final Path element : rootPath.relativize(path)) {
+            if (builder.length() > 0) {
+                builder.append('/');
+            }
+            builder.append(element.toString());
+        }
+        return builder.toString();
+    }
+
+    private static Stamp stamp(final BasicFileAttributes attributes) {
+        final NodeAttributes.Type type = NodeIo.typeOf(attributes);
+        return new Stamp(type, (type == NodeAttributes.Type.FILE) ? attributes.size() : 0,
+                attributes.lastModifiedTime().toMillis());
+    }
+
+    /**
+     * Registers directories of the subtree and reads states of its nodes.
+     *
+     * @param start  Root of the scanned subtree.
+     * @param result Receives states of nodes, except the watched root.
+     */
+    private void scan(final Path start, final Map<String, Stamp> result) {
+        try {
+            Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    register(dir);
+                    if (!dir.equals(rootPath)) {
+                        result.put(relative(dir), stamp(attrs));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    result.put(relative(file), stamp(attrs));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    // Removed during the scan, its deletion is reported by the event or next scan.
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (NoSuchFileException ignored) {
+            // Removed in the meantime.
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to scan directory: [" + start + "].", e);
+        }
+    }
+
+    private void register(final Path dir) {
+        try {
+            directories.put(dir.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY), dir);
+        } catch (NoSuchFileException | ClosedWatchServiceException ignored) {
+            // Removed in the meantime, or the watcher is closed.
+        } catch (IOException e) {
+            polling = true;
+        }
+    }
+
+    /**
+     * Rescans a subtree and reports its differences from the known state.
+     */
+    private void rescan(final Path start) {
+        final String path = relative(start);
+        final Map<String, Stamp> scanned = new TreeMap<>();
+        scan(start, scanned);
+        update(path, scanned);
+    }
+
+    @Override
+    void loop() throws InterruptedException {
+        long deadline = 0;
+        long lastRescan = System.currentTimeMillis();
+        try {
+            while (!closed) {
+                final WatchKey key;
+                if (polling) {
+                    key = service.poll(intervalMillis, TimeUnit.MILLISECONDS);
+                } else if (hasPending()) {
+                    key = service.poll(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                } else {
+                    key = service.take();
+                }
+                if (key != null) {
+                    process(key);
+                    for (WatchKey ready; (ready = service.poll()) != null; ) {
+                        process(ready);
+                    }
+                }
+                long now = System.currentTimeMillis();
+                if (polling && now - lastRescan >= intervalMillis) {
+                    rescan(rootPath);
+                    now = System.currentTimeMillis();
+                    lastRescan = now;
+                }
+                if (!hasPending()) {
+                    deadline = 0;
+                } else if (deadline == 0) {
+                    deadline = now + intervalMillis;
+                } else if (now >= deadline) {
+                    deliver();
+                    deadline = 0;
+                }
+            }
+        } catch (final ClosedWatchServiceException ignored) {
+            // Closed.
+        }
+    }
+
+    private void process(final WatchKey key) {
+        final Path dir = directories.get(key);
+        if (dir == null) {
+            key.cancel();
+            return;
+        }
+        for (final WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                rescan(dir);
+                continue;
+            }
+            final Path child = dir.resolve((Path) event.context());
+            final String path = relative(child);
+            if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                changed(path, null, false);
+            } else if (event.kind() == StandardWatchEventKinds.ENTRY_MODIFY && knownType(path) == NodeAttributes.Type.DIRECTORY) {
+                // Listing of the directory has changed, reported by events of its children.
+                continue;
+            } else {
+                changedLocally(child, path, event.kind() == StandardWatchEventKinds.ENTRY_MODIFY);
+            }
+        }
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+    }
+
+    /**
+     * Reads the state of a created or modified node. New directories are registered and scanned.
+     */
+    private void changedLocally(final Path child, final String path, final boolean modified) {
+        final BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            // Already removed, the deletion event follows.
+            return;
+        }
+        if (attributes.isDirectory()) {
+            rescan(child);
+        } else {
+            changed(path, stamp(attributes), modified);
+        }
+    }
+
+    @Override
+    void release() {
+        try {
+            service.close();
+        } catch (IOException ignored) {
+            // Nothing to recover.
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package pl.mjaron.datanode;
+
+import java.util.regex.Pattern;
+
+/**
+ * Converts glob patterns to regular expressions, so they can be matched against names of any node implementation.
+ */
+final class Glob {
+
+    private static final String REGEX_META = ".^$+()|";
+
+    private Glob() {
+    }
+
+    /**
+     * Parses a pattern in the form accepted by {@link java.nio.file.FileSystem#getPathMatcher}, without creating
+     * paths, so it matches names of any node implementation.
+     *
+     * @param syntaxAndPattern {@code glob:} or {@code regex:} followed by the pattern, e.g. {@code glob:*.txt}.
+     * @return Compiled regular expression matching whole names.
+     * @throws IllegalArgumentException when the syntax is missing or the pattern is malformed.
+     * @throws UnsupportedOperationException when the syntax is neither {@code glob} nor {@code regex}.
+     */
+    static Pattern fromSyntaxAndPattern(final String syntaxAndPattern) {
+        final int colon = syntaxAndPattern.indexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("Expected syntax:pattern, got: [" + syntaxAndPattern + "].");
+        }
+        final String syntax = syntaxAndPattern.substring(0, colon);
+        final String pattern = syntaxAndPattern.substring(colon + 1);
+        if (syntax.equalsIgnoreCase("glob")) {
+            return toPattern(pattern);
+        }
+        if (syntax.equalsIgnoreCase("regex")) {
+            return Pattern.compile(pattern);
+        }
+        throw new UnsupportedOperationException("Unsupported pattern syntax: [" + syntax + "].");
+    }
+
+    /**
+     * Supports the syntax of {@link java.nio.file.FileSystem#getPathMatcher}: {@code *} and {@code **} match any
+     * characters, {@code ?} matches one character, {@code [abc]}, {@code [a-z]} and {@code [!abc]} match character
+     * classes, {@code {a,b}} matches alternatives and backslash escapes the next character.
+     *
+     * @param glob Glob pattern.
+     * @return Compiled regular expression matching whole names.
+     * @throws IllegalArgumentException when the pattern is malformed.
+     */
+    static Pattern toPattern(final String glob) {
+        final StringBuilder regex = new StringBuilder(glob.length() * 2);
+        boolean inGroup = false;
+        for (int i = 0; i < glob.length(); ++i) {
+            final char c = glob.charAt(i);
+            switch (c) {
+                case '\\':
+                    if (++i == glob.length()) {
+                        throw new IllegalArgumentException("Glob ends with escape character: [" + glob + "].");
+                    }
+                    appendLiteral(regex, glob.charAt(i));
+                    break;
+                case '*':
+                    regex.append(".*");
+                    while (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                        ++i;
+                    }
+                    break;
+                case '?':
+                    regex.append('.');
+                    break;
+                case '[':
+                    i = appendClass(regex, glob, i);
+                    break;
+                case '{':
+                    if (inGroup) {
+                        throw new IllegalArgumentException("Nested glob groups are not supported: [" + glob + "].");
+                    }
+                    inGroup = true;
+                    regex.append("(?:");
+                    break;
+                case '}':
+                    if (inGroup) {
+                        inGroup = false;
+                        regex.append(')');
+                    } else {
+                        appendLiteral(regex, c);
+                    }
+                    break;
+                case ',':
+                    if (inGroup) {
+                        regex.append('|');
+                    } else {
+                        appendLiteral(regex, c);
+                    }
+                    break;
+                default:
+                    appendLiteral(regex, c);
+            }
+        }
+        if (inGroup) {
+            throw new IllegalArgumentException("Unclosed glob group: [" + glob + "].");
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+    /**
+     * @return Index of the closing bracket.
+     */
+    private static int appendClass(final StringBuilder regex, final String glob, final int start) {
+        int i = start + 1;
+        regex.append('[');
+        if (i < glob.length() && glob.charAt(i) == '!') {
+            regex.append('^');
+            ++i;
+        }
+        boolean first = true;
+        for (; i < glob.length(); ++i) {
+            final char c = glob.charAt(i);
+            if (c == ']' && !first) {
+                regex.append(']');
+                return i;
+            }
+            if (c == '\\' || c == '[' || c == ']' || c == '&' || c == '^') {
+                regex.append('\\');
+            }
+            regex.append(c);
+            first = false;
+        }
+        throw new IllegalArgumentException("Unclosed glob character class: [" + glob + "].");
+    }
+
+    private static void appendLiteral(final StringBuilder regex, final char c) {
+        if (REGEX_META.indexOf(c) >= 0 || c == '\\' || c == '[' || c == ']' || c == '{' || c == '}' || c == '?'
+                || c == '*') {
+            regex.append('\\');
+        }
+        regex.append(c);
+    }
+}
@@ -0,0 +1,330 @@
+package pl.mjaron.datanode;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes files atomically, like {@link INode#writeAtomic(byte[])}, sharing the costly syncs of many concurrent writes.
+ * <p>
+ * Each write goes to a temporary sibling of its target at once, on the calling thread, and the file is closed, so
+ * pending writes don't hold file descriptors. The pending writes are then committed in batches by a background
+ * thread: temporary files of the batch are reopened and forced concurrently, so the filesystem can merge them into a
+ * few journal commits, renamed over their targets, and each affected directory is forced once per batch. A batch is
+ * committed when it reaches the maximal size or when its oldest write has waited for the maximal delay, which trades
+ * latency of single writes for throughput.
+ * <p>
+ * Targets which are not on the local filesystem are written with {@link INode#writeAtomic(byte[])} at once.
+ */
+public class GroupCommitWriter implements Closeable {
+
+    /**
+     * What is guaranteed when a write is completed.
+     */
+    public enum Durability {
+        /**
+         * Target has been replaced atomically, but a crash may lose it or leave an empty file. Nothing is forced.
+         */
+        ATOMIC,
+
+        /**
+         * Content is forced before the rename, so after a crash the target contains either the previous or the new
+         * content. The rename itself may be lost.
+         */
+        CONTENT,
+
+        /**
+         * Content and the rename are forced, so the new content survives a crash.
+         */
+        FULL
+    }
+
+    private static final class Pending {
+        final Path temp;
+        final Path target;
+        final INode node;
+        final CompletableFuture<INode> future = new CompletableFuture<>();
+
+        Pending(final Path temp, final Path target, final INode node) {
+            this.temp = temp;
+            this.target = target;
+            this.node = node;
+        }
+    }
+
+    private final long maxDelayNanos;
+    private final int maxBatch;
+    private final Durability durability;
+    private final Executor syncExecutor;
+    private final Thread committer;
+
+    private final Object lock = new Object();
+    private List<Pending> pending = new ArrayList<>();
+    private long oldestNanos = 0;
+    private boolean flushRequested = false;
+    private boolean closed = false;
+
+    /**
+     * @param maxDelayMillis Maximal time a write waits for other writes joining its batch.
+     * @param maxBatch       Count of writes which makes a batch committed without waiting.
+     * @param durability     What is guaranteed when a write is completed.
+     * @param syncExecutor   Executor forcing the files of a batch concurrently.
+     */
+    public GroupCommitWriter(final long maxDelayMillis, final int maxBatch, final Durability durability,
+                             final Executor syncExecutor) {
+        if (maxBatch < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: [" + maxBatch + "].");
+        }
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        this.maxBatch = maxBatch;
+        this.durability = durability;
+        this.syncExecutor = syncExecutor;
+        this.committer = NodeExecutors.daemonThreadFactory("datanode-group-commit-").newThread(this::run);
+        this.committer.start();
+    }
+
+    /**
+     * Creates a writer with full durability, forcing files with {@link BulkExecutor#getDefault()}.
+     *
+     * @param maxDelayMillis Maximal time a write waits for other writes joining its batch.
+     * @param maxBatch       Count of writes which makes a batch committed without waiting.
+     */
+    public GroupCommitWriter(final long maxDelayMillis, final int maxBatch) {
+        this(maxDelayMillis, maxBatch, Durability.FULL, BulkExecutor.getDefault());
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Writes the content to a temporary sibling of the target and adds it to the current batch.
+     *
+     * @param target File to replace.
+     * @param data   Content, it is not used after this method returns.
+     * @return Future completed with the target when the batch is committed.
+     */
+    public CompletableFuture<INode> write(final INode target, final byte[] data) {
+        final Path targetPath = NodeIo.localPath(target);
+        if (targetPath == null) {
+            final CompletableFuture<INode> result = new CompletableFuture<>();
+            try {
+                result.complete(target.writeAtomic(data));
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+            return result;
+        }
+        Path temp = null;
+        try {
+            temp = NodeIo.createTempSibling(targetPath);
+            try (final FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                NodeIo.writeFully(channel, ByteBuffer.wrap(data));
+            }
+        } catch (IOException e) {
+            discard(temp);
+            final CompletableFuture<INode> result = new CompletableFuture<>();
+            result.completeExceptionally(new RuntimeException("Failed to write: [" + targetPath + "].", e));
+            return result;
+        }
+        final Pending write = new Pending(temp, targetPath, target);
+        synchronized (lock) {
+            if (closed) {
+                discard(temp);
+                throw new IllegalStateException("Group commit writer is closed.");
+            }
+            if (pending.isEmpty()) {
+                oldestNanos = System.nanoTime();
+            }
+            pending.add(write);
+            if (pending.size() == 1 || pending.size() >= maxBatch) {
+                lock.notifyAll();
+            }
+        }
+        return write.future;
+    }
+
+    /**
+     * Writes and waits until the write is committed.
+     *
+     * @return Target node.
+     * @throws RuntimeException when the write fails.
+     */
+    public INode writeAndWait(final INode target, final byte[] data) {
+        return BulkExecutor.joinAll(Collections.singletonList(write(target, data))).get(0);
+    }
+
+    /**
+     * Commits pending writes without waiting for the delay.
+     *
+     * @return Future completed when all writes made before this call are committed.
+     */
+    public CompletableFuture<Void> flush() {
+        final List<CompletableFuture<INode>> futures = new ArrayList<>();
+        synchronized (lock) {
+            for (final Pending write : pending) {
+                futures.add(write.future);
+            }
+            if (!pending.isEmpty()) {
+                flushRequested = true;
+                lock.notifyAll();
+            }
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).handle((ignored, e) -> null);
+    }
+
+    /**
+     * Commits pending writes and stops the background thread. When the background thread is interrupted, pending
+     * writes are failed and the writer is closed.
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            for (List<Pending> batch; (batch = nextBatch()) != null; ) {
+                try {
+                    commit(batch);
+                } catch (RuntimeException e) {
+                    failAll(batch, e);
+                }
+            }
+        } catch (InterruptedException e) {
+            final List<Pending> abandoned;
+            synchronized (lock) {
+                closed = true;
+                abandoned = pending;
+                pending = new ArrayList<>();
+            }
+            failAll(abandoned, new RuntimeException("Group commit writer was interrupted.", e));
+        }
+    }
+
+    /**
+     * Waits until a batch is ready to be committed.
+     *
+     * @return Batch to commit, or null when the writer is closed and there is nothing pending.
+     */
+    private List<Pending> nextBatch() throws InterruptedException {
+        synchronized (lock) {
+            while (true) {
+                if (!pending.isEmpty() && (closed || flushRequested || pending.size() >= maxBatch)) {
+                    break;
+                }
+                if (pending.isEmpty()) {
+                    if (closed) {
+                        return null;
+                    }
+                    lock.wait();
+                    continue;
+                }
+                final long waitNanos = oldestNanos + maxDelayNanos - System.nanoTime();
+                if (waitNanos <= 0) {
+                    break;
+                }
+                TimeUnit.NANOSECONDS.timedWait(lock, waitNanos);
+            }
+            final List<Pending> batch = pending;
+            pending = new ArrayList<>();
+            flushRequested = false;
+            return batch;
+        }
+    }
+
+    private void commit(final List<Pending> batch) {
+        if (durability != Durability.ATOMIC) {
+            final List<CompletableFuture<Void>> syncs = new ArrayList<>(batch.size());
+            for (final Pending write : batch) {
+                try {
+                    syncs.add(CompletableFuture.runAsync(() -> {
+                        try (final FileChannel channel = FileChannel.open(write.temp, StandardOpenOption.WRITE)) {
+                            channel.force(true);
+                        } catch (IOException e) {
+                            throw new RuntimeException("Failed to sync: [" + write.temp + "].", e);
+                        }
+                    }, syncExecutor).exceptionally(e -> {
+                        fail(write, e);
+                        return null;
+                    }));
+                } catch (RejectedExecutionException e) {
+                    fail(write, e);
+                }
+            }
+            CompletableFuture.allOf(syncs.toArray(new CompletableFuture<?>[0])).join();
+        }
+        final Set<Path> directories = new LinkedHashSet<>();
+        for (final Pending write : batch) {
+            if (write.future.isDone()) {
+                continue;
+            }
+            try {
+                NodeIo.replace(write.temp, write.target);
+                directories.add(write.target.toAbsolutePath().getParent());
+            } catch (IOException | RuntimeException e) {
+                fail(write, e);
+            }
+        }
+        if (durability == Durability.FULL) {
+            for (final Path directory : directories) {
+                NodeIo.syncDirectory(directory);
+            }
+        }
+        for (final Pending write : batch) {
+            if (!write.future.isDone()) {
+                NodeIo.modified(write.node);
+                write.future.complete(write.node);
+            }
+        }
+    }
+
+    private static void fail(final Pending write, final Throwable e) {
+        discard(write.temp);
+        final Throwable cause = (e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e;
+        write.future.completeExceptionally(cause);
+    }
+
+    /**
+     * Fails writes which are not completed yet.
+     */
+    private static void failAll(final List<Pending> writes, final Throwable e) {
+        for (final Pending write : writes) {
+            if (!write.future.isDone()) {
+                fail(write, e);
+            }
+        }
+    }
+
+    private static void discard(final Path temp) {
+        try {
+            if (temp != null) {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException ignored) {
+            // The write has failed anyway.
+        }
+    }
+}
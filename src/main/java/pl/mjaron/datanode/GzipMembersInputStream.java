@@ -0,0 +1,195 @@
+package pl.mjaron.datanode;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Input stream decompressing all members of a gzip stream, one after another.
+ * <p>
+ * {@link java.util.zip.GZIPInputStream} looks for a next member only when the underlying stream reports available
+ * bytes, so it may silently stop after the first member of a network stream. This stream reads members in a loop:
+ * bytes read past the end of a member are pushed back, and a next member is started while any input remains. Like
+ * in {@link java.util.zip.GZIPInputStream}, input after the last member which doesn't start with a gzip header, e.g.
+ * zero padding of tar archives or block devices, is ignored.
+ */
+final class GzipMembersInputStream extends InputStream {
+
+    private static final int MAGIC = 0x8B1F;
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private final PushbackInputStream in;
+    private final Inflater inflater = new Inflater(true);
+    private final CRC32 crc = new CRC32();
+    private final byte[] buffer;
+    private int bufferLength = 0;
+    private boolean memberOpen = false;
+    private boolean anyMember = false;
+    private boolean eof = false;
+    private boolean closed = false;
+
+    /**
+     * @param in         Stream of gzip members. It is closed when this stream is closed.
+     * @param bufferSize Size of the input buffer.
+     */
+    GzipMembersInputStream(final InputStream in, final int bufferSize) {
+        this.in = new PushbackInputStream(in, bufferSize);
+        this.buffer = new byte[bufferSize];
+    }
+
+    private int readByte() throws IOException {
+        final int result = in.read();
+        if (result == -1) {
+            throw new EOFException("Unexpected end of gzip stream.");
+        }
+        return result;
+    }
+
+    private int readShort() throws IOException {
+        return readByte() | (readByte() << 8);
+    }
+
+    private long readInt() throws IOException {
+        return readShort() | ((long) readShort() << 16);
+    }
+
+    private void skipZeroTerminated() throws IOException {
+        while (readByte() != 0) {
+            // Skipped.
+        }
+    }
+
+    /**
+     * Reads the header of a next member.
+     *
+     * @return False when there are no more members, i.e. at the end of input or at trailing data which is not a gzip
+     * member.
+     */
+    private boolean nextMember() throws IOException {
+        final int first = in.read();
+        if (first == -1) {
+            if (!anyMember) {
+                throw new EOFException("Empty gzip stream.");
+            }
+            return false;
+        }
+        final int second = in.read();
+        if (second == -1 || (first | (second << 8)) != MAGIC) {
+            if (anyMember) {
+                return false;
+            }
+            throw new ZipException("Not in gzip format.");
+        }
+        if (readByte() != 8) {
+            if (anyMember) {
+                return false;
+            }
+            throw new ZipException("Unsupported gzip compression method.");
+        }
+        final int flags = readByte();
+        for (int i = 0; i < 6; ++i) {
+            readByte();
+        }
+        if ((flags & FEXTRA) != 0) {
+            for (int length = readShort(); length > 0; --length) {
+                readByte();
+            }
+        }
+        if ((flags & FNAME) != 0) {
+            skipZeroTerminated();
+        }
+        if ((flags & FCOMMENT) != 0) {
+            skipZeroTerminated();
+        }
+        if ((flags & FHCRC) != 0) {
+            readShort();
+        }
+        inflater.reset();
+        crc.reset();
+        bufferLength = 0;
+        memberOpen = true;
+        anyMember = true;
+        return true;
+    }
+
+    /**
+     * Pushes back input read past the compressed data and checks the trailer.
+     */
+    private void finishMember() throws IOException {
+        final int remaining = inflater.getRemaining();
+        if (remaining > 0) {
+            in.unread(buffer, bufferLength - remaining, remaining);
+        }
+        if (readInt() != crc.getValue()) {
+            throw new ZipException("Corrupt gzip trailer: CRC mismatch.");
+        }
+        if (readInt() != (inflater.getBytesWritten() & 0xFFFFFFFFL)) {
+            throw new ZipException("Corrupt gzip trailer: size mismatch.");
+        }
+        memberOpen = false;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final byte[] single = new byte[1];
+        return (read(single, 0, 1) == -1) ? -1 : (single[0] & 0xFF);
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream is closed.");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        while (!eof) {
+            if (!memberOpen) {
+                if (!nextMember()) {
+                    eof = true;
+                    break;
+                }
+            }
+            final int count;
+            try {
+                count = inflater.inflate(b, off, len);
+            } catch (DataFormatException e) {
+                throw new ZipException("Invalid gzip data: " + e.getMessage());
+            }
+            if (count > 0) {
+                crc.update(b, off, count);
+                return count;
+            }
+            if (inflater.finished()) {
+                finishMember();
+            } else if (inflater.needsDictionary()) {
+                throw new ZipException("Gzip data requires a preset dictionary.");
+            } else if (inflater.needsInput()) {
+                bufferLength = in.read(buffer, 0, buffer.length);
+                if (bufferLength == -1) {
+                    bufferLength = 0;
+                    throw new EOFException("Unexpected end of gzip stream.");
+                }
+                inflater.setInput(buffer, 0, bufferLength);
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            inflater.end();
+            in.close();
+        }
+    }
+}
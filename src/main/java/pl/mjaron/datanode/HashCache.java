@@ -0,0 +1,165 @@
+package pl.mjaron.datanode;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Content hashes of files, valid as long as size and modification time of the file are the same.
+ * <p>
+ * The cache is thread-safe. It can be saved to and loaded from any node, so unchanged files are not read again by
+ * next runs.
+ */
+public class HashCache {
+
+    private static final int MAGIC = 0x444E4843;
+    private static final int VERSION = 1;
+
+    private static final class Entry {
+        final long size;
+        final long lastModified;
+        final byte[] hash;
+
+        Entry(final long size, final long lastModified, final byte[] hash) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+    }
+
+    private final String algorithm;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param algorithm {@link java.security.MessageDigest} algorithm of cached hashes.
+     */
+    public HashCache(final String algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * @param path         Path of the file.
+     * @param size         Current size of the file.
+     * @param lastModified Current modification time of the file.
+     * @return Cached hash, or null if it is missing or the file has changed.
+     */
+    public byte[] get(final String path, final long size, final long lastModified) {
+        final Entry entry = entries.get(path);
+        if (entry == null || entry.size != size || entry.lastModified != lastModified) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.hash.clone();
+    }
+
+    /**
+     * Stores a hash. Files with unknown modification time, equal to 0, are not cached, because their changes couldn't
+     * be detected.
+     */
+    public void put(final String path, final long size, final long lastModified, final byte[] hash) {
+        if (lastModified == 0) {
+            return;
+        }
+        entries.put(path, new Entry(size, lastModified, hash.clone()));
+    }
+
+    public void remove(final String path) {
+        entries.remove(path);
+    }
+
+    /**
+     * Removes entries of all paths except the given ones, e.g. of files which no longer exist.
+     */
+    public void retain(final Collection<String> paths) {
+        final Set<String> retained = (paths instanceof Set) ? (Set<String>) paths : new HashSet<>(paths);
+        entries.keySet().retainAll(retained);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Writes a snapshot of all entries to the node with {@link INode#writeAtomic(byte[])}, so a failed save keeps the
+     * previously saved cache.
+     *
+     * @return This reference.
+     */
+    public HashCache save(final INode target) {
+        final Map<String, Entry> snapshot = new HashMap<>(entries);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (final DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(algorithm);
+            out.writeInt(snapshot.size());
+            for (final Map.Entry<String, Entry> entry : snapshot.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue().size);
+                out.writeLong(entry.getValue().lastModified);
+                out.writeShort(entry.getValue().hash.length);
+                out.write(entry.getValue().hash);
+            }
+        } catch (final IOException e) {
+            throw new RuntimeException("Failed to save hash cache: [" + target.getPath() + "].", e);
+        }
+        target.writeAtomic(bytes.toByteArray());
+        return this;
+    }
+
+    /**
+     * Loads entries saved by {@link #save}. Nothing is loaded when the node doesn't exist or contains hashes of other
+     * algorithm.
+     *
+     * @return This reference.
+     */
+    public HashCache load(final INode source) {
+        if (!source.exists()) {
+            return this;
+        }
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(source.getInputStream(), NodeIo.BUFFER_SIZE))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a hash cache.");
+            }
+            if (!in.readUTF().equals(algorithm)) {
+                return this;
+            }
+            final int count = in.readInt();
+            for (int i = 0; i < count; ++i) {
+                final String path = in.readUTF();
+                final long size = in.readLong();
+                final long lastModified = in.readLong();
+                final byte[] hash = new byte[in.readUnsignedShort()];
+                in.readFully(hash);
+                entries.put(path, new Entry(size, lastModified, hash));
+            }
+        } catch (final IOException e) {
+            throw new RuntimeException("Failed to load hash cache: [" + source.getPath() + "].", e);
+        }
+        return this;
+    }
+}
@@ -1,6 +1,8 @@
 package pl.mjaron.datanode;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -9,25 +11,46 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executor;
 
+/**
+ * Node representing an HTTP resource.
+ * <p>
+ * Each operation issues its own request: metadata is obtained with HEAD, content with GET and written with PUT.
+ * Responses are always consumed and closed, so the underlying connections are returned to the keep-alive pool of
+ * {@link HttpURLConnection} and reused by next requests to the same host. Size of the pool per host is configured with
+ * the {@code http.maxConnections} system property.
+ */
 public class HttpNode implements INode {
 
     URL url = null;
-    String method = "GET";
 
-    HttpURLConnection cachedConnection = null;
+    /**
+     * Response status and metadata of the resource.
+     */
+    static final class Head {
+        final int responseCode;
+        final long contentLength;
+        final boolean acceptsRanges;
 
-    HttpURLConnection connect() {
-        if (cachedConnection != null) {
-            return cachedConnection;
-        }
-        try {
-            cachedConnection = (HttpURLConnection) url.openConnection();
-            cachedConnection.setRequestMethod(method);
-            cachedConnection.connect();
-            return cachedConnection;
-        } catch (final IOException e) {
-            throw new RuntimeException(e);
+        /**
+         * Last-Modified header in milliseconds since the epoch, 0 if not provided.
+         */
+        final long lastModified;
+
+        /**
+         * ETag or Last-Modified header, empty if none of them is provided.
+         */
+        final String validator;
+
+        Head(final HttpURLConnection connection) throws IOException {
+            this.responseCode = connection.getResponseCode();
+            this.contentLength = connection.getContentLengthLong();
+            this.acceptsRanges = "bytes".equalsIgnoreCase(connection.getHeaderField("Accept-Ranges"));
+            this.lastModified = connection.getLastModified();
+            final String etag = connection.getHeaderField("ETag");
+            final String lastModified = connection.getHeaderField("Last-Modified");
+            this.validator = (etag != null) ? etag : ((lastModified != null) ? lastModified : "");
         }
     }
 
@@ -43,6 +66,183 @@ public class HttpNode implements INode {
         }
     }
 
+    /**
+     * Opens a new connection. The connection may reuse a pooled socket.
+     */
+    HttpURLConnection open(final String method) {
+        try {
+            final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setRequestMethod(method);
+            return connection;
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Reads and closes the rest of the response, so the connection can be reused.
+     */
+    static void drain(final HttpURLConnection connection) {
+        InputStream in;
+        try {
+            in = connection.getInputStream();
+        } catch (IOException e) {
+            in = connection.getErrorStream();
+        }
+        if (in == null) {
+            return;
+        }
+        try (final InputStream toClose = in) {
+            final BufferPool pool = BufferPool.getDefault();
+            final byte[] buffer = pool.acquire();
+            try {
+                //noinspection StatementWithEmptyBody
+                while (toClose.read(buffer) != -1) {
+                }
+            } finally {
+                pool.release(buffer);
+            }
+        } catch (IOException ignored) {
+            // Connection is not reusable, it is closed anyway.
+        }
+    }
+
+    /**
+     * Requests metadata of the resource with HEAD. When the server doesn't support HEAD, falls back to GET, closing
+     * its response without reading the body.
+     */
+    Head head() {
+        final HttpURLConnection connection = open("HEAD");
+        try {
+            final Head head = new Head(connection);
+            if (head.responseCode != HttpURLConnection.HTTP_BAD_METHOD && head.responseCode != HttpURLConnection.HTTP_NOT_IMPLEMENTED) {
+                return head;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            drain(connection);
+        }
+        final HttpURLConnection fallback = open("GET");
+        try {
+            return new Head(fallback);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            fallback.disconnect();
+        }
+    }
+
+    /**
+     * Sends GET request.
+     *
+     * @return Connection with successful response, which body is ready to read.
+     * @throws RuntimeException when the response status is not successful.
+     */
+    HttpURLConnection get() {
+        final HttpURLConnection connection = open("GET");
+        final int responseCode;
+        try {
+            responseCode = connection.getResponseCode();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        if (responseCode >= 300) {
+            drain(connection);
+            throw new RuntimeException("HTTP request failed with status " + responseCode + ": [" + url + "].");
+        }
+        return connection;
+    }
+
+    /**
+     * Requests a range of the resource.
+     *
+     * @param validator When not empty, sent as If-Range, so the request fails if the resource has changed.
+     * @return Stream with exactly the requested range.
+     * @throws IOException when the server doesn't return the requested range.
+     */
+    InputStream openRange(final long offset, final long length, final String validator) throws IOException {
+        final HttpURLConnection connection = open("GET");
+        connection.setRequestProperty("Range", "bytes=" + offset + "-" + (offset + length - 1));
+        if (!validator.isEmpty()) {
+            connection.setRequestProperty("If-Range", validator);
+        }
+        final int responseCode = connection.getResponseCode();
+        if (responseCode != HttpURLConnection.HTTP_PARTIAL) {
+            drain(connection);
+            throw new IOException("Range request failed with status " + responseCode + ": [" + url + "].");
+        }
+        return connection.getInputStream();
+    }
+
+    /**
+     * Reads a range of the resource with a Range request. When the server ignores the range and sends whole
+     * resource, the range is cut out from the response.
+     *
+     * @param offset Offset of the range.
+     * @param length Length of the range.
+     * @return Stream with the content of the range. It is shorter than length when the resource ends before.
+     */
+    public InputStream getInputStream(final long offset, final long length) {
+        if (length <= 0) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        final HttpURLConnection connection = open("GET");
+        connection.setRequestProperty("Range", "bytes=" + offset + "-" + (offset + length - 1));
+        try {
+            final int responseCode = connection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_PARTIAL) {
+                return connection.getInputStream();
+            }
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                final InputStream in = connection.getInputStream();
+                if (!NodeIo.skipFully(in, offset)) {
+                    in.close();
+                    return new ByteArrayInputStream(new byte[0]);
+                }
+                return new LimitedInputStream(in, length);
+            }
+            drain(connection);
+            if (responseCode == 416) {
+                return new ByteArrayInputStream(new byte[0]);
+            }
+            throw new RuntimeException("HTTP request failed with status " + responseCode + ": [" + url + "].");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Downloads the resource to the target node, fetching chunks concurrently with Range requests.
+     * <p>
+     * Local file targets are written with positional writes and the progress is kept in a sibling file with
+     * {@code .download} suffix, so calling this method again after a failure fetches only missing chunks. Other
+     * targets are written in order. When the server doesn't support ranges, the resource is downloaded with a single
+     * request.
+     *
+     * @param target      Destination file.
+     * @param parallelism Maximal count of concurrent requests.
+     * @param chunkSize   Size of a chunk fetched by one request.
+     * @return Target node.
+     */
+    public INode download(final INode target, final int parallelism, final long chunkSize) {
+        return download(target, parallelism, chunkSize, BulkExecutor.getDefault());
+    }
+
+    /**
+     * See {@link #download(INode, int, long)}.
+     *
+     * @param target      Destination file.
+     * @param parallelism Maximal count of concurrent requests.
+     * @param chunkSize   Size of a chunk fetched by one request.
+     * @param executor    Executor running the requests.
+     * @return Target node.
+     */
+    public INode download(final INode target, final int parallelism, final long chunkSize, final Executor executor) {
+        new RangedDownload(this, parallelism, chunkSize, executor).run(target);
+        return target;
+    }
+
     @Override
     public String getName() {
         String file = url.getFile();
@@ -87,13 +287,7 @@ public class HttpNode implements INode {
 
     @Override
     public boolean exists() {
-        final HttpURLConnection c = connect();
-        try {
-            final int responseCode = c.getResponseCode();
-            return 200 == responseCode;
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        return 200 == head().responseCode;
     }
 
     @Override
@@ -113,27 +307,81 @@ public class HttpNode implements INode {
 
     @Override
     public long getSize() {
-        return connect().getContentLength();
+        return head().contentLength;
+    }
+
+    /**
+     * @return Last-Modified header of the resource, 0 if the server doesn't provide it.
+     */
+    @Override
+    public long getLastModified() {
+        return head().lastModified;
+    }
+
+    /**
+     * Reads all attributes with a single request.
+     */
+    @Override
+    public NodeAttributes getAttributes() {
+        final Head head = head();
+        if (head.responseCode != HttpURLConnection.HTTP_OK) {
+            return null;
+        }
+        return new NodeAttributes(getName(), NodeAttributes.Type.FILE, head.contentLength, head.lastModified);
     }
 
     @Override
     public InputStream getInputStream() {
         try {
-            return connect().getInputStream();
+            return get().getInputStream();
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Sends the written data with PUT request when the stream is closed.
+     */
     @Override
     public OutputStream getOutputStream() {
+        final HttpURLConnection connection = open("PUT");
+        connection.setDoOutput(true);
+        connection.setChunkedStreamingMode(0);
         try {
-            return connect().getOutputStream();
+            return new FilterOutputStream(connection.getOutputStream()) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    final int responseCode = connection.getResponseCode();
+                    drain(connection);
+                    if (responseCode >= 300) {
+                        throw new IOException("HTTP request failed with status " + responseCode + ": [" + url + "].");
+                    }
+                }
+            };
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Reads the content with a single GET request, the result array is sized from the response length.
+     */
+    @Override
+    public byte[] readBytes() {
+        final HttpURLConnection connection = get();
+        try (final InputStream inputStream = connection.getInputStream()) {
+            return NodeIo.readAll(inputStream, connection.getContentLengthLong());
+        } catch (final IOException e) {
+            throw new RuntimeException("Input stream failure.", e);
+        }
+    }
+
     @Override
     public List<String> getChildrenNames() {
         return Collections.emptyList();
@@ -2,10 +2,13 @@ package pl.mjaron.datanode;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.regex.Matcher;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Represents single file or directory in any filesystem structure.
@@ -127,22 +130,115 @@ public interface INode {
         return this;
     }
 
+    /**
+     * Writes the remaining bytes of the buffers, in order, as the whole content of this file. Positions of the buffers
+     * are advanced to their limits. By default, the buffers are written to {@link #getOutputStream()}, local
+     * filesystem implementations use a single gathering write, which doesn't copy direct buffers.
+     *
+     * @param data Buffers with the content, e.g. header, payload and trailer.
+     * @return This reference.
+     */
+    default INode write(final java.nio.ByteBuffer... data) {
+        try (final OutputStream out = getOutputStream()) {
+            for (final java.nio.ByteBuffer buffer : data) {
+                NodeIo.write(out, buffer);
+            }
+        } catch (final IOException e) {
+            throw new RuntimeException("Output stream failure.", e);
+        }
+        return this;
+    }
+
+    /**
+     * Appends the remaining bytes of the buffers, in order, to the end of this file, creating it when it doesn't
+     * exist. Positions of the buffers are advanced to their limits. By default, the whole file is read and written
+     * again with the appended data, local filesystem implementations append with a single gathering write.
+     *
+     * @param data Buffers with the appended data.
+     * @return This reference.
+     */
+    default INode append(final java.nio.ByteBuffer... data) {
+        if (!isFile()) {
+            return write(data);
+        }
+        final java.nio.ByteBuffer[] content = new java.nio.ByteBuffer[data.length + 1];
+        content[0] = java.nio.ByteBuffer.wrap(readBytes());
+        System.arraycopy(data, 0, content, 1, data.length);
+        return write(content);
+    }
+
+    /**
+     * Writes the content so that readers, and the file after a crash, see either the previous or the whole new
+     * content. Local filesystem implementations write a temporary sibling, force it to the storage device, rename it
+     * over this file and force the directory. By default, the same as {@link #write(byte[])}, for implementations
+     * which publish the whole content at once.
+     *
+     * @param what Bytes to write.
+     * @return This reference.
+     */
+    default INode writeAtomic(final byte[] what) {
+        return write(what);
+    }
+
     /**
      * @param namePattern Child name pattern.
      * @return Filtered children list.
      */
     default List<INode> getChildren(Pattern namePattern) {
+        return getChildren(name -> namePattern.matcher(name).matches());
+    }
+
+    /**
+     * Watches this directory subtree. The default implementation rescans the subtree with
+     * {@link #visitChildren(ChildVisitor)} every interval, local filesystem nodes are notified by the operating system.
+     * See {@link NodeWatcher} for details.
+     *
+     * @param intervalMillis How long changes are collected before they are delivered as one batch. Polling watchers
+     *                       rescan the subtree with this period.
+     * @param listener       Receives batches of coalesced changes, from the watcher thread.
+     * @return Running watcher, which should be closed when no longer needed.
+     */
+    default NodeWatcher watch(final long intervalMillis, final java.util.function.Consumer<List<NodeEvent>> listener) {
+        return new NodeWatcher.Polling(this, intervalMillis, listener).start();
+    }
+
+    /**
+     * Lists children which names match the filter. Implementations test names during the listing, so nodes are
+     * created only for matching children.
+     *
+     * @param nameFilter Predicate of child name.
+     * @return Filtered children list.
+     */
+    default List<INode> getChildren(Predicate<String> nameFilter) {
         final List<INode> allChildren = this.getChildren();
-        final List<INode> filteredChildren = new ArrayList<>(allChildren.size());
+        final List<INode> filteredChildren = new ArrayList<>();
         for (final INode child : allChildren) {
-            final Matcher matcher = namePattern.matcher(child.getName());
-            if (matcher.matches()) {
+            if (nameFilter.test(child.getName())) {
                 filteredChildren.add(child);
             }
         }
         return filteredChildren;
     }
 
+    /**
+     * @param glob Child name glob pattern, with the syntax of {@link java.nio.file.FileSystem#getPathMatcher}, e.g.
+     *             {@code *.{txt,md}}.
+     * @return Filtered children list.
+     */
+    default List<INode> getChildrenByGlob(String glob) {
+        return getChildren(Glob.toPattern(glob));
+    }
+
+    /**
+     * @param syntaxAndPattern Child name pattern in the form of {@link java.nio.file.FileSystem#getPathMatcher}, with
+     *                         {@code glob} or {@code regex} syntax, e.g. {@code glob:*.txt}. It is matched against
+     *                         child names, so names which are not valid local paths are matched too.
+     * @return Filtered children list.
+     */
+    default List<INode> getChildrenMatching(String syntaxAndPattern) {
+        return getChildren(Glob.fromSyntaxAndPattern(syntaxAndPattern));
+    }
+
     /**
      * Writes given String using new output stream.
      *
@@ -164,17 +260,15 @@ public interface INode {
         return write(what, StandardCharsets.UTF_8);
     }
 
+    /**
+     * Reads whole file. The result array is allocated with {@link #getSize()} bytes, so the content is not copied
+     * again when the size is known.
+     *
+     * @return File content.
+     */
     default byte[] readBytes() {
         try (final InputStream inputStream = getInputStream()) {
-            // Source: https://www.baeldung.com/convert-input-stream-to-array-of-bytes#java-1
-            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-            int nRead;
-            byte[] data = new byte[1024];
-            while ((nRead = inputStream.read(data, 0, data.length)) != -1) {
-                buffer.write(data, 0, nRead);
-            }
-            buffer.flush();
-            return buffer.toByteArray();
+            return NodeIo.readAll(inputStream, getSize());
         } catch (final IOException e) {
             throw new RuntimeException("Input stream failure.", e);
         }
@@ -187,16 +281,36 @@ public interface INode {
      * @return String with whole file content.
      */
     default String readString(final java.nio.charset.Charset charset) {
+        return new String(readBytes(), charset);
+    }
+
+    /**
+     * Reads the beginning of the file to the caller-owned array.
+     *
+     * @param buffer Destination array.
+     * @param offset Offset in the destination array.
+     * @param length Maximal count of bytes to read.
+     * @return Count of read bytes, less than length only when the file is shorter.
+     */
+    default int read(final byte[] buffer, final int offset, final int length) {
         try (final InputStream inputStream = getInputStream()) {
-            // Source: https://stackoverflow.com/a/35446009/6835932
-            final ByteArrayOutputStream result = new ByteArrayOutputStream();
-            final byte[] buffer = new byte[1024];
-            for (int length; (length = inputStream.read(buffer)) != -1; ) {
-                result.write(buffer, 0, length);
-            }
-            // StandardCharsets.UTF_8.name() > JDK 7
-            return result.toString(charset.name());
-        } catch (IOException e) {
+            return NodeIo.readFully(inputStream, buffer, offset, length);
+        } catch (final IOException e) {
+            throw new RuntimeException("Input stream failure.", e);
+        }
+    }
+
+    /**
+     * Reads the beginning of the file to the caller-owned buffer, from its position up to its limit. The buffer
+     * position is advanced by the count of read bytes.
+     *
+     * @param buffer Destination buffer.
+     * @return Count of read bytes, less than remaining bytes of the buffer only when the file is shorter.
+     */
+    default int readInto(final java.nio.ByteBuffer buffer) {
+        try (final InputStream inputStream = getInputStream()) {
+            return NodeIo.readInto(inputStream, buffer);
+        } catch (final IOException e) {
             throw new RuntimeException("Input stream failure.", e);
         }
     }
@@ -210,6 +324,32 @@ public interface INode {
         return readString(StandardCharsets.UTF_8);
     }
 
+    /**
+     * Provides read-only access to the whole content of this file, see {@link #map(long, long)}.
+     *
+     * @return Content of the file. Should be closed when not used anymore.
+     */
+    default MappedData map() {
+        return map(0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Provides read-only access to a region of this file. Local filesystem implementations memory-map the region,
+     * by default the region is read from the input stream to heap buffers.
+     *
+     * @param offset Offset of the region.
+     * @param length Length of the region. It is limited to the end of the file.
+     * @return Content of the region. Should be closed when not used anymore.
+     * @throws RuntimeException when the file cannot be read.
+     */
+    default MappedData map(final long offset, final long length) {
+        try (final InputStream inputStream = getInputStream()) {
+            return MappedData.read(inputStream, offset, length, MappedData.SEGMENT_SIZE);
+        } catch (IOException e) {
+            throw new RuntimeException("Input stream failure.", e);
+        }
+    }
+
     /**
      * @return Count of (direct) children.
      */
@@ -217,6 +357,76 @@ public interface INode {
         return this.getChildrenNames().size();
     }
 
+    /**
+     * Hashes the file content, reading it in chunks.
+     *
+     * @param algorithm {@link java.security.MessageDigest} algorithm, e.g. {@code SHA-256}.
+     * @return Hash of the content.
+     * @throws RuntimeException when the algorithm is not available or the file can't be read.
+     */
+    default byte[] hash(final String algorithm) {
+        final java.security.MessageDigest digest = NodeIo.digest(algorithm);
+        try (InputStream in = getInputStream()) {
+            NodeIo.digest(in, digest);
+        } catch (final IOException e) {
+            throw new RuntimeException("Failed to hash file: [" + getPath() + "].", e);
+        }
+        return digest.digest();
+    }
+
+    /**
+     * @return Time of the last modification in milliseconds since the epoch, 0 if unknown or the node doesn't exist.
+     */
+    default long getLastModified() {
+        return 0;
+    }
+
+    /**
+     * Reads type, size and modification time together. By default, calls the separate methods, implementations which
+     * read metadata with a single filesystem call or request override it.
+     *
+     * @return Attributes of this node, or null when it doesn't exist.
+     */
+    default NodeAttributes getAttributes() {
+        if (isFile()) {
+            return new NodeAttributes(getName(), NodeAttributes.Type.FILE, getSize(), getLastModified());
+        }
+        if (isDirectory()) {
+            return new NodeAttributes(getName(), NodeAttributes.Type.DIRECTORY, 0, getLastModified());
+        }
+        if (exists()) {
+            return new NodeAttributes(getName(), NodeAttributes.Type.OTHER, 0, getLastModified());
+        }
+        return null;
+    }
+
+    /**
+     * Passes attributes of each direct child to the visitor, without creating child nodes where the implementation
+     * allows it.
+     *
+     * @param visitor Receiver of the attributes.
+     */
+    default void visitChildren(final ChildVisitor visitor) {
+        for (final INode child : this.getChildren()) {
+            if (child.isFile()) {
+                visitor.visit(child.getName(), NodeAttributes.Type.FILE, child.getSize(), child.getLastModified());
+            } else if (child.isDirectory()) {
+                visitor.visit(child.getName(), NodeAttributes.Type.DIRECTORY, 0, child.getLastModified());
+            } else {
+                visitor.visit(child.getName(), NodeAttributes.Type.OTHER, 0, child.getLastModified());
+            }
+        }
+    }
+
+    /**
+     * @return Names and attributes of direct children, read with {@link #visitChildren(ChildVisitor)}.
+     */
+    default List<NodeAttributes> getChildrenWithAttributes() {
+        final List<NodeAttributes> result = new ArrayList<>();
+        visitChildren((name, type, size, lastModified) -> result.add(new NodeAttributes(name, type, size, lastModified)));
+        return result;
+    }
+
     /**
      * @param result After calling, it will contain all child nodes which are files, including nested files.
      */
@@ -260,6 +470,209 @@ public interface INode {
         return result;
     }
 
+    /**
+     * Lazily iterates over descendants of this node. Directories are listed only when the iteration reaches them, so
+     * the first result is available at once and stopping early doesn't list the rest of the tree.
+     *
+     * @param order    Traversal order.
+     * @param maxDepth Maximal depth of returned nodes. Direct children have depth 1.
+     * @param prune    Nodes matching this predicate are skipped together with their whole subtree. May be null.
+     * @return Iterator over descendants.
+     */
+    default Iterator<INode> descendantsIterator(final TraversalOrder order, final int maxDepth, final Predicate<INode> prune) {
+        return Spliterators.iterator(new DescendantSpliterator(this, order, maxDepth, null, prune));
+    }
+
+    /**
+     * Lazy stream of descendants, see {@link #descendantsIterator}. The stream is splittable, so its parallel version
+     * lists sibling directories concurrently.
+     *
+     * @param order    Traversal order.
+     * @param maxDepth Maximal depth of returned nodes. Direct children have depth 1.
+     * @param prune    Nodes matching this predicate are skipped together with their whole subtree. May be null.
+     * @return Stream of descendants.
+     */
+    default Stream<INode> streamDescendants(final TraversalOrder order, final int maxDepth, final Predicate<INode> prune) {
+        return streamDescendants(order, maxDepth, null, prune);
+    }
+
+    /**
+     * Lazy stream of descendants, see {@link #descendantsIterator}. Directories are listed with
+     * {@link #getChildren(Predicate)}, so entries which names don't match the filter are skipped together with their
+     * whole subtree, without creating nodes for them.
+     *
+     * @param order      Traversal order.
+     * @param maxDepth   Maximal depth of returned nodes. Direct children have depth 1.
+     * @param nameFilter Predicate of names of returned and traversed nodes. May be null.
+     * @param prune      Nodes matching this predicate are skipped together with their whole subtree. May be null.
+     * @return Stream of descendants.
+     */
+    default Stream<INode> streamDescendants(final TraversalOrder order, final int maxDepth, final Predicate<String> nameFilter,
+                                            final Predicate<INode> prune) {
+        return StreamSupport.stream(new DescendantSpliterator(this, order, maxDepth, nameFilter, prune), false);
+    }
+
+    /**
+     * All directories are traversed, the filter selects only returned nodes. To skip whole subtrees, pass a name
+     * filter to {@link #streamDescendants(TraversalOrder, int, Predicate, Predicate)}.
+     *
+     * @param nameFilter Predicate of names of returned nodes.
+     * @return Descendants which names match the filter, in the same order as {@link #getDescendants()}.
+     */
+    default List<INode> getDescendants(final Predicate<String> nameFilter) {
+        return streamDescendants().filter(node -> nameFilter.test(node.getName())).collect(Collectors.toList());
+    }
+
+    /**
+     * @return Lazy stream of all descendants in the same order as {@link #getDescendants()}.
+     */
+    default Stream<INode> streamDescendants() {
+        return streamDescendants(TraversalOrder.DEPTH_FIRST, Integer.MAX_VALUE, null);
+    }
+
+    /**
+     * @return Lazy stream of all descendants which are files, in the same order as {@link #getFileDescendants()}.
+     */
+    default Stream<INode> streamFileDescendants() {
+        return streamDescendants().filter(INode::isFile);
+    }
+
+    /**
+     * Collects file descendants listing sibling directories concurrently.
+     *
+     * @param traversal Parallel traversal settings.
+     * @return All child nodes which are files, including nested files, in no particular order.
+     */
+    default List<INode> getFileDescendants(final ParallelTraversal traversal) {
+        return traversal.getFileDescendants(this);
+    }
+
+    /**
+     * Collects descendants listing sibling directories concurrently.
+     *
+     * @param traversal Parallel traversal settings.
+     * @return All child nodes including directories and other nested files, in no particular order.
+     */
+    default List<INode> getDescendants(final ParallelTraversal traversal) {
+        return traversal.getDescendants(this);
+    }
+
+    /**
+     * Copies this file or whole directory tree to the target node. Existing target files are overwritten, existing
+     * target directories are merged.
+     *
+     * @param target Destination node.
+     * @return Target node.
+     * @throws RuntimeException when reading or writing fails.
+     */
+    default INode copyTo(final INode target) {
+        if (this.isDirectory()) {
+            target.mkdirs();
+            for (final INode child : this.getChildren()) {
+                child.copyTo(target.getChild(child.getName()));
+            }
+            return target;
+        }
+        try (final InputStream in = getInputStream(); final OutputStream out = target.getOutputStream()) {
+            NodeIo.copy(in, out);
+        } catch (final IOException e) {
+            throw new RuntimeException("Failed to copy: [" + getPath() + "] to [" + target.getPath() + "].", e);
+        }
+        return target;
+    }
+
+    /**
+     * Copies this file or whole directory tree to the target node, copying files concurrently. Directories are
+     * created by the calling thread before their files are copied.
+     *
+     * @param target   Destination node.
+     * @param executor Executor running the file copies, limiting concurrent operations per backing store.
+     * @return Target node.
+     * @throws RuntimeException when reading or writing fails.
+     */
+    default INode copyTo(final INode target, final BulkExecutor executor) {
+        if (!this.isDirectory()) {
+            return copyTo(target);
+        }
+        final List<CompletableFuture<INode>> copies = new ArrayList<>();
+        final Deque<INode[]> directories = new ArrayDeque<>();
+        directories.push(new INode[]{this, target});
+        while (!directories.isEmpty()) {
+            final INode[] pair = directories.pop();
+            pair[1].mkdirs();
+            for (final INode child : pair[0].getChildren()) {
+                final INode childTarget = pair[1].getChild(child.getName());
+                if (child.isDirectory()) {
+                    directories.push(new INode[]{child, childTarget});
+                } else {
+                    copies.add(executor.submit(child, () -> child.copyTo(childTarget)));
+                }
+            }
+        }
+        BulkExecutor.joinAll(copies);
+        return target;
+    }
+
+    /**
+     * Moves this file or whole directory tree to the target node. By default, copies and removes this node.
+     *
+     * @param target Destination node.
+     * @return Target node.
+     * @throws RuntimeException when reading, writing or removing fails.
+     */
+    default INode moveTo(final INode target) {
+        copyTo(target);
+        remove();
+        return target;
+    }
+
+    /**
+     * Asynchronous version of {@link #readBytes()}. By default, runs on {@link NodeExecutors#getDefault()}.
+     *
+     * @return Future completed with the file content.
+     */
+    default CompletableFuture<byte[]> readBytesAsync() {
+        return CompletableFuture.supplyAsync(this::readBytes, NodeExecutors.getDefault());
+    }
+
+    /**
+     * Asynchronous version of {@link #write(byte[])}. By default, runs on {@link NodeExecutors#getDefault()}.
+     *
+     * @param what Data to write. Must not be modified until the future is completed.
+     * @return Future completed with this reference when the data is written.
+     */
+    default CompletableFuture<INode> writeAsync(final byte[] what) {
+        return CompletableFuture.supplyAsync(() -> write(what), NodeExecutors.getDefault());
+    }
+
+    /**
+     * Asynchronous version of {@link #exists()}. By default, runs on {@link NodeExecutors#getDefault()}.
+     *
+     * @return Future completed with true if this node exists.
+     */
+    default CompletableFuture<Boolean> existsAsync() {
+        return CompletableFuture.supplyAsync(this::exists, NodeExecutors.getDefault());
+    }
+
+    /**
+     * Asynchronous version of {@link #getChildren()}. By default, runs on {@link NodeExecutors#getDefault()}.
+     *
+     * @return Future completed with direct children nodes.
+     */
+    default CompletableFuture<List<INode>> getChildrenAsync() {
+        return CompletableFuture.supplyAsync(this::getChildren, NodeExecutors.getDefault());
+    }
+
+    /**
+     * Asynchronous version of {@link #copyTo(INode)}. By default, runs on {@link NodeExecutors#getDefault()}.
+     *
+     * @param target Destination node.
+     * @return Future completed with the target node.
+     */
+    default CompletableFuture<INode> copyToAsync(final INode target) {
+        return CompletableFuture.supplyAsync(() -> copyTo(target), NodeExecutors.getDefault());
+    }
+
     /**
      * Removes all children but not this node.
      *
@@ -0,0 +1,209 @@
+package pl.mjaron.datanode;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Read-only view of node content, split into segments of at most {@link #SEGMENT_SIZE} bytes, so content larger than
+ * 2 GB can be accessed too.
+ * <p>
+ * For local files segments are {@link MappedByteBuffer}s, released by {@link #close()} without waiting for garbage
+ * collection. In-memory nodes provide their content directly, other nodes provide heap buffers with the content read
+ * from their input streams. Buffers obtained from this object, and their views, must not be used after it is closed:
+ * a mapping is released regardless of segments still referenced, and accessing it afterwards may crash the JVM.
+ */
+public class MappedData implements Closeable {
+
+    /**
+     * Maximal size of a single segment.
+     */
+    public static final int SEGMENT_SIZE = 1 << 30;
+
+    /**
+     * Initial array size when reading content of unknown size.
+     */
+    private static final int INITIAL_READ_CAPACITY = 64 * 1024;
+
+    private final int segmentSize;
+    private final long size;
+    private final boolean mapped;
+    private ByteBuffer[] segments;
+
+    private MappedData(final ByteBuffer[] segments, final int segmentSize, final long size, final boolean mapped) {
+        this.segments = segments;
+        this.segmentSize = segmentSize;
+        this.size = size;
+        this.mapped = mapped;
+    }
+
+    /**
+     * Maps a region of a local file.
+     *
+     * @param offset Offset of the region in the file.
+     * @param length Length of the region, it is limited to the end of the file.
+     */
+    static MappedData map(final Path path, final long offset, final long length, final int segmentSize) {
+        checkRegion(offset, length);
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long available = Math.max(0, channel.size() - offset);
+            final long size = Math.min(length, available);
+            final ByteBuffer[] segments = new ByteBuffer[segmentCount(size, segmentSize)];
+            for (int i = 0; i < segments.length; ++i) {
+                final long segmentOffset = (long) i * segmentSize;
+                final long segmentLength = Math.min(segmentSize, size - segmentOffset);
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset + segmentOffset, segmentLength);
+            }
+            return new MappedData(segments, segmentSize, size, true);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to map file: [" + path + "].", e);
+        }
+    }
+
+    /**
+     * Reads a region of a stream to heap buffers. Each segment is read to an array allocated once with its expected
+     * size, only a segment cut short by the end of the stream is copied to a smaller array. When the length is
+     * {@link Long#MAX_VALUE}, i.e. the whole remaining content of unknown size is requested, arrays start small and
+     * grow by doubling, so short content doesn't allocate a whole segment.
+     *
+     * @param in     Stream positioned at the beginning of the content.
+     * @param offset Count of bytes to skip.
+     * @param length Length of the region, it is limited to the end of the stream.
+     */
+    static MappedData read(final InputStream in, final long offset, final long length, final int segmentSize) throws IOException {
+        checkRegion(offset, length);
+        if (!NodeIo.skipFully(in, offset)) {
+            return new MappedData(new ByteBuffer[0], segmentSize, 0, false);
+        }
+        final boolean sized = length != Long.MAX_VALUE;
+        final List<ByteBuffer> segments = new ArrayList<>();
+        long size = 0;
+        while (size < length) {
+            final int segmentLimit = (int) Math.min(segmentSize, length - size);
+            byte[] segment = new byte[sized ? segmentLimit : Math.min(segmentLimit, INITIAL_READ_CAPACITY)];
+            int segmentLength = 0;
+            while (true) {
+                segmentLength += NodeIo.readFully(in, segment, segmentLength, segment.length - segmentLength);
+                if (segmentLength < segment.length || segment.length == segmentLimit) {
+                    break;
+                }
+                segment = Arrays.copyOf(segment, (int) Math.min(segmentLimit, 2L * segment.length));
+            }
+            if (segmentLength > 0) {
+                if (segmentLength < segment.length) {
+                    segment = Arrays.copyOf(segment, segmentLength);
+                }
+                segments.add(ByteBuffer.wrap(segment).asReadOnlyBuffer());
+                size += segmentLength;
+            }
+            if (segmentLength < segmentLimit) {
+                break;
+            }
+        }
+        return new MappedData(segments.toArray(new ByteBuffer[0]), segmentSize, size, false);
+    }
+
+    /**
+     * Provides in-memory content without copying.
+     *
+     * @param content Content from its position to its limit.
+     */
+    static MappedData wrap(final ByteBuffer content, final int segmentSize) {
+        final long size = content.remaining();
+        final ByteBuffer[] segments = new ByteBuffer[segmentCount(size, segmentSize)];
+        for (int i = 0; i < segments.length; ++i) {
+            final ByteBuffer segment = content.duplicate();
+            segment.position((int) (content.position() + (long) i * segmentSize));
+            segment.limit((int) Math.min(segment.position() + (long) segmentSize, content.limit()));
+            segments[i] = segment.slice().asReadOnlyBuffer();
+        }
+        return new MappedData(segments, segmentSize, size, false);
+    }
+
+    /**
+     * @throws IllegalArgumentException when the offset or length of a requested region is negative.
+     */
+    static void checkRegion(final long offset, final long length) {
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("Region offset and length must not be negative, offset: [" + offset
+                    + "], length: [" + length + "].");
+        }
+    }
+
+    private static int segmentCount(final long size, final int segmentSize) {
+        return (int) ((size + segmentSize - 1) / segmentSize);
+    }
+
+    private ByteBuffer[] segments() {
+        final ByteBuffer[] result = segments;
+        if (result == null) {
+            throw new IllegalStateException("Mapped data is closed.");
+        }
+        return result;
+    }
+
+    /**
+     * @return Size of the content in bytes.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return True if the segments are memory-mapped file regions, false if they are in-memory content.
+     */
+    public boolean isMapped() {
+        return mapped;
+    }
+
+    /**
+     * @return Count of segments.
+     */
+    public int getSegmentCount() {
+        return segments().length;
+    }
+
+    /**
+     * @param index Segment index.
+     * @return Read-only buffer with the content of given segment, positioned at its beginning. Valid only until this
+     * object is closed.
+     */
+    public ByteBuffer getSegment(final int index) {
+        return segments()[index].duplicate();
+    }
+
+    /**
+     * @param position Position relative to the beginning of the content.
+     * @return Byte at given position.
+     */
+    public byte get(final long position) {
+        if (position < 0 || position >= size) {
+            throw new IndexOutOfBoundsException("Position: [" + position + "], size: [" + size + "].");
+        }
+        return segments()[(int) (position / segmentSize)].get((int) (position % segmentSize));
+    }
+
+    /**
+     * Releases all segments. When the segments are memory-mapped, the mappings are unmapped at once if the runtime
+     * allows that, so segments obtained by {@link #getSegment(int)} must not be used anymore.
+     */
+    @Override
+    public void close() {
+        final ByteBuffer[] released = segments;
+        segments = null;
+        if (released == null || !mapped) {
+            return;
+        }
+        for (final ByteBuffer segment : released) {
+            BufferCleaner.clean(segment);
+        }
+    }
+}
@@ -0,0 +1,524 @@
+package pl.mjaron.datanode;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * In-memory node implementation. File contents are stored in direct (off-heap) buffers.
+ * <p>
+ * Every {@code new MemoryNode()} is a root of a separate, empty tree. Nodes obtained from the root by
+ * {@link #getChild(String)} refer to paths in this tree, which don't need to exist, like with {@link FileNode}.
+ * Directories keep children in hash maps, so each path element is found in constant time.
+ * <p>
+ * Content written through {@link #getOutputStream()} becomes visible when the stream is flushed or closed, until then
+ * readers see the previous content. Published content is never modified, so readers don't lock and always see a
+ * complete version of the file.
+ */
+public class MemoryNode implements INode {
+
+    private static final int INITIAL_CAPACITY = 8 * 1024;
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocateDirect(0).asReadOnlyBuffer();
+
+    private abstract static class Entry {
+        volatile long lastModified = System.currentTimeMillis();
+
+        void modified() {
+            lastModified = System.currentTimeMillis();
+        }
+    }
+
+    private static final class DirectoryEntry extends Entry {
+        final ConcurrentHashMap<String, Entry> children = new ConcurrentHashMap<>();
+    }
+
+    private static final class FileEntry extends Entry {
+        volatile ByteBuffer content = EMPTY;
+    }
+
+    private final DirectoryEntry root;
+    private final MemoryNode parent;
+    private final String name;
+
+    /**
+     * Creates a root of a new, empty tree.
+     */
+    public MemoryNode() {
+        this.root = new DirectoryEntry();
+        this.parent = null;
+        this.name = "";
+    }
+
+    private MemoryNode(final MemoryNode parent, final String name) {
+        this.root = parent.root;
+        this.parent = parent;
+        this.name = name;
+    }
+
+    /**
+     * @return Entry of this node, or null when it doesn't exist.
+     */
+    private Entry resolve() {
+        if (parent == null) {
+            return root;
+        }
+        final Entry parentEntry = parent.resolve();
+        if (!(parentEntry instanceof DirectoryEntry)) {
+            return null;
+        }
+        return ((DirectoryEntry) parentEntry).children.get(name);
+    }
+
+    private DirectoryEntry resolveParentDirectory() {
+        final Entry parentEntry = (parent == null) ? null : parent.resolve();
+        if (!(parentEntry instanceof DirectoryEntry)) {
+            throw new RuntimeException("Parent directory doesn't exist: [" + getPath() + "].");
+        }
+        return (DirectoryEntry) parentEntry;
+    }
+
+    /**
+     * @return Existing child entry, or the created one, in which case modification time of the directory is updated.
+     */
+    private static Entry getOrCreate(final DirectoryEntry directory, final String name, final Supplier<Entry> factory) {
+        final Entry existing = directory.children.get(name);
+        if (existing != null) {
+            return existing;
+        }
+        final Entry created = factory.get();
+        final Entry concurrent = directory.children.putIfAbsent(name, created);
+        if (concurrent != null) {
+            return concurrent;
+        }
+        directory.modified();
+        return created;
+    }
+
+    private DirectoryEntry createDirectories() {
+        if (parent == null) {
+            return root;
+        }
+        final Entry entry = getOrCreate(parent.createDirectories(), name, DirectoryEntry::new);
+        if (!(entry instanceof DirectoryEntry)) {
+            throw new RuntimeException("Failed to create directory, file exists: [" + getPath() + "].");
+        }
+        return (DirectoryEntry) entry;
+    }
+
+    private FileEntry createFile() {
+        final Entry entry = getOrCreate(resolveParentDirectory(), name, FileEntry::new);
+        if (!(entry instanceof FileEntry)) {
+            throw new RuntimeException("Failed to create file, directory exists: [" + getPath() + "].");
+        }
+        return (FileEntry) entry;
+    }
+
+    private FileEntry resolveFile() {
+        final Entry entry = resolve();
+        if (!(entry instanceof FileEntry)) {
+            throw new RuntimeException("Not a file: [" + getPath() + "].");
+        }
+        return (FileEntry) entry;
+    }
+
+    /**
+     * @return Current content of this file, read-only and positioned at its beginning.
+     */
+    ByteBuffer content() {
+        return resolveFile().content.duplicate();
+    }
+
+    @Override
+    public String toString() {
+        return this.getPath();
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getPath() {
+        if (parent == null) {
+            return "/";
+        }
+        if (parent.parent == null) {
+            return "/" + name;
+        }
+        return parent.getPath() + "/" + name;
+    }
+
+    @Override
+    public boolean isFile() {
+        return resolve() instanceof FileEntry;
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return resolve() instanceof DirectoryEntry;
+    }
+
+    @Override
+    public boolean exists() {
+        return resolve() != null;
+    }
+
+    @Override
+    public INode mkdirs() {
+        createDirectories();
+        return this;
+    }
+
+    @Override
+    public INode touch() {
+        createFile();
+        return this;
+    }
+
+    @Override
+    public INode remove() {
+        if (parent == null) {
+            root.children.clear();
+            root.modified();
+            return this;
+        }
+        final Entry parentEntry = parent.resolve();
+        if (parentEntry instanceof DirectoryEntry && ((DirectoryEntry) parentEntry).children.remove(name) != null) {
+            parentEntry.modified();
+        }
+        return this;
+    }
+
+    @Override
+    public long getSize() {
+        final Entry entry = resolve();
+        if (entry instanceof FileEntry) {
+            return ((FileEntry) entry).content.remaining();
+        }
+        return 0;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new ByteBufferInputStream(content());
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return new MemoryOutputStream(createFile());
+    }
+
+    /**
+     * Publishes a copy of the bytes at once, without the growing buffer of {@link #getOutputStream()}.
+     */
+    @Override
+    public INode write(final byte[] what) {
+        return write(ByteBuffer.wrap(what));
+    }
+
+    /**
+     * Copies the buffers to a single direct buffer, published as the new content.
+     */
+    @Override
+    public INode write(final ByteBuffer... data) {
+        final FileEntry entry = createFile();
+        synchronized (entry) {
+            entry.content = concat(EMPTY, data);
+            entry.modified();
+        }
+        return this;
+    }
+
+    /**
+     * Copies the current content and the buffers to a single direct buffer, published as the new content. Appends to
+     * the same file are serialized.
+     */
+    @Override
+    public INode append(final ByteBuffer... data) {
+        final FileEntry entry = createFile();
+        synchronized (entry) {
+            entry.content = concat(entry.content.duplicate(), data);
+            entry.modified();
+        }
+        return this;
+    }
+
+    private static ByteBuffer concat(final ByteBuffer head, final ByteBuffer[] data) {
+        long size = head.remaining();
+        for (final ByteBuffer buffer : data) {
+            size += buffer.remaining();
+        }
+        if (size > MAX_CAPACITY) {
+            throw new RuntimeException("Memory node content cannot exceed " + MAX_CAPACITY + " bytes.");
+        }
+        final ByteBuffer result = ByteBuffer.allocateDirect((int) size);
+        result.put(head);
+        for (final ByteBuffer buffer : data) {
+            result.put(buffer);
+        }
+        result.flip();
+        return result.asReadOnlyBuffer();
+    }
+
+    @Override
+    public List<String> getChildrenNames() {
+        final Entry entry = resolve();
+        if (!(entry instanceof DirectoryEntry)) {
+            return new ArrayList<>(0);
+        }
+        return new ArrayList<>(((DirectoryEntry) entry).children.keySet());
+    }
+
+    @Override
+    public List<INode> getChildren() {
+        final List<String> childNames = getChildrenNames();
+        final List<INode> result = new ArrayList<>(childNames.size());
+        for (final String childName : childNames) {
+            result.add(new MemoryNode(this, childName));
+        }
+        return result;
+    }
+
+    @Override
+    public List<INode> getChildren(final Predicate<String> nameFilter) {
+        final Entry entry = resolve();
+        final List<INode> result = new ArrayList<>();
+        if (entry instanceof DirectoryEntry) {
+            for (final String childName : ((DirectoryEntry) entry).children.keySet()) {
+                if (nameFilter.test(childName)) {
+                    result.add(new MemoryNode(this, childName));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param name Name of child node. May contain several path elements separated with '/'.
+     * @return Child node.
+     */
+    @Override
+    public INode getChild(String name) {
+        MemoryNode result = this;
+        for (final String element : name.split("/")) {
+            if (!element.isEmpty()) {
+                result = new MemoryNode(result, element);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return Null, memory nodes have no Java file.
+     */
+    @Override
+    public File asJavaFile() {
+        return null;
+    }
+
+    @Override
+    public int getChildrenCount() {
+        final Entry entry = resolve();
+        if (!(entry instanceof DirectoryEntry)) {
+            return 0;
+        }
+        return ((DirectoryEntry) entry).children.size();
+    }
+
+    @Override
+    public long getLastModified() {
+        final Entry entry = resolve();
+        return (entry == null) ? 0 : entry.lastModified;
+    }
+
+    /**
+     * Reads the attributes straight from directory entries.
+     */
+    @Override
+    public void visitChildren(final ChildVisitor visitor) {
+        final Entry entry = resolve();
+        if (!(entry instanceof DirectoryEntry)) {
+            return;
+        }
+        for (final Map.Entry<String, Entry> child : ((DirectoryEntry) entry).children.entrySet()) {
+            final Entry childEntry = child.getValue();
+            if (childEntry instanceof FileEntry) {
+                visitor.visit(child.getKey(), NodeAttributes.Type.FILE, ((FileEntry) childEntry).content.remaining(), childEntry.lastModified);
+            } else {
+                visitor.visit(child.getKey(), NodeAttributes.Type.DIRECTORY, 0, childEntry.lastModified);
+            }
+        }
+    }
+
+    /**
+     * Hashes the stored content without copying it.
+     */
+    @Override
+    public byte[] hash(final String algorithm) {
+        final MessageDigest digest = NodeIo.digest(algorithm);
+        digest.update(content());
+        return digest.digest();
+    }
+
+    @Override
+    public byte[] readBytes() {
+        final ByteBuffer content = content();
+        final byte[] result = new byte[content.remaining()];
+        content.get(result);
+        return result;
+    }
+
+    @Override
+    public int read(final byte[] buffer, final int offset, final int length) {
+        final ByteBuffer content = content();
+        final int count = Math.min(length, content.remaining());
+        content.get(buffer, offset, count);
+        return count;
+    }
+
+    @Override
+    public int readInto(final ByteBuffer buffer) {
+        final ByteBuffer content = content();
+        final int count = Math.min(buffer.remaining(), content.remaining());
+        content.limit(count);
+        buffer.put(content);
+        return count;
+    }
+
+    /**
+     * Provides the stored content itself, without copying.
+     */
+    @Override
+    public MappedData map(final long offset, final long length) {
+        MappedData.checkRegion(offset, length);
+        final ByteBuffer content = content();
+        final int start = (int) Math.min(offset, content.limit());
+        final int end = (int) Math.min(start + Math.min(length, (long) MAX_CAPACITY), content.limit());
+        content.position(start);
+        content.limit(end);
+        return MappedData.wrap(content.slice(), MappedData.SEGMENT_SIZE);
+    }
+
+    /**
+     * Runs the operation at once, memory nodes don't block.
+     */
+    private static <T> CompletableFuture<T> completed(final Supplier<T> operation) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            result.complete(operation.get());
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<byte[]> readBytesAsync() {
+        return completed(this::readBytes);
+    }
+
+    @Override
+    public CompletableFuture<INode> writeAsync(final byte[] what) {
+        return completed(() -> write(what));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> existsAsync() {
+        return completed(this::exists);
+    }
+
+    @Override
+    public CompletableFuture<List<INode>> getChildrenAsync() {
+        return completed(this::getChildren);
+    }
+
+    /**
+     * Collects written bytes in a direct buffer and publishes them as the file content on flush and close.
+     */
+    private static final class MemoryOutputStream extends OutputStream {
+
+        private final FileEntry entry;
+        private ByteBuffer buffer = null;
+        private boolean closed = false;
+
+        MemoryOutputStream(final FileEntry entry) {
+            this.entry = entry;
+        }
+
+        private void ensureCapacity(final int additional) {
+            if (closed) {
+                throw new IllegalStateException("Stream is closed.");
+            }
+            final int size = (buffer == null) ? 0 : buffer.position();
+            if ((long) size + additional > MAX_CAPACITY) {
+                throw new RuntimeException("Memory node content cannot exceed " + MAX_CAPACITY + " bytes.");
+            }
+            if (buffer != null && buffer.remaining() >= additional) {
+                return;
+            }
+            long capacity = (buffer == null) ? INITIAL_CAPACITY : (long) buffer.capacity() * 2;
+            capacity = Math.min(Math.max(capacity, (long) size + additional), MAX_CAPACITY);
+            final ByteBuffer grown = ByteBuffer.allocateDirect((int) capacity);
+            if (buffer != null) {
+                buffer.flip();
+                grown.put(buffer);
+            }
+            buffer = grown;
+        }
+
+        @Override
+        public void write(final int b) {
+            ensureCapacity(1);
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+            ensureCapacity(len);
+            buffer.put(b, off, len);
+        }
+
+        @Override
+        public void flush() {
+            if (closed) {
+                return;
+            }
+            if (buffer == null) {
+                entry.content = EMPTY;
+            } else {
+                final ByteBuffer published = buffer.duplicate();
+                published.flip();
+                entry.content = published.slice().asReadOnlyBuffer();
+            }
+            entry.modified();
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            if (buffer != null && buffer.capacity() - buffer.position() > buffer.position() / 4) {
+                // Don't keep unused capacity of the growing buffer.
+                final ByteBuffer trimmed = ByteBuffer.allocateDirect(buffer.position());
+                buffer.flip();
+                trimmed.put(buffer);
+                buffer = trimmed;
+            }
+            flush();
+            closed = true;
+            buffer = null;
+        }
+    }
+}
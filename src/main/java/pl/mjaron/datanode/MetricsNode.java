@@ -0,0 +1,353 @@
+package pl.mjaron.datanode;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Decorator recording statistics of operations called on any node to a {@link NodeMetrics} registry.
+ * <p>
+ * Children obtained from this node are wrapped too and record to the same registry. Bytes are counted also when they
+ * pass through streams returned by {@link #getInputStream()} and {@link #getOutputStream()}; time spent in these
+ * streams is not recorded, only opening them.
+ */
+public class MetricsNode implements INode {
+
+    private final INode delegate;
+    private final NodeMetrics metrics;
+
+    /**
+     * @param delegate Instrumented node.
+     * @param metrics  Registry shared with other decorators.
+     */
+    public MetricsNode(final INode delegate, final NodeMetrics metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param delegate Instrumented node, recording to a new registry.
+     */
+    public MetricsNode(final INode delegate) {
+        this(delegate, new NodeMetrics());
+    }
+
+    /**
+     * @return Instrumented node.
+     */
+    public INode getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * @return Registry used by this node.
+     */
+    public NodeMetrics getMetrics() {
+        return metrics;
+    }
+
+    private MetricsNode wrap(final INode node) {
+        return new MetricsNode(node, metrics);
+    }
+
+    private static INode unwrap(final INode node) {
+        if (node instanceof MetricsNode) {
+            return ((MetricsNode) node).delegate;
+        }
+        return node;
+    }
+
+    private <T> T timed(final NodeMetrics.Operation operation, final Supplier<T> action) {
+        final long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            final T result = action.get();
+            failed = false;
+            return result;
+        } finally {
+            metrics.record(operation, System.nanoTime() - start, failed);
+        }
+    }
+
+    private <T> CompletableFuture<T> timedAsync(final NodeMetrics.Operation operation, final Supplier<CompletableFuture<T>> action) {
+        final long start = System.nanoTime();
+        final CompletableFuture<T> future;
+        try {
+            future = action.get();
+        } catch (final RuntimeException | Error e) {
+            metrics.record(operation, System.nanoTime() - start, true);
+            throw e;
+        }
+        return future.whenComplete((result, e) -> metrics.record(operation, System.nanoTime() - start, e != null));
+    }
+
+    @Override
+    public String toString() {
+        return delegate.toString();
+    }
+
+    @Override
+    public String getName() {
+        return delegate.getName();
+    }
+
+    @Override
+    public String getPath() {
+        return delegate.getPath();
+    }
+
+    @Override
+    public boolean isFile() {
+        return timed(NodeMetrics.Operation.IS_FILE, delegate::isFile);
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return timed(NodeMetrics.Operation.IS_DIRECTORY, delegate::isDirectory);
+    }
+
+    @Override
+    public boolean exists() {
+        return timed(NodeMetrics.Operation.EXISTS, delegate::exists);
+    }
+
+    @Override
+    public INode mkdirs() {
+        timed(NodeMetrics.Operation.MKDIRS, delegate::mkdirs);
+        return this;
+    }
+
+    @Override
+    public INode touch() {
+        timed(NodeMetrics.Operation.TOUCH, delegate::touch);
+        return this;
+    }
+
+    @Override
+    public INode remove() {
+        timed(NodeMetrics.Operation.REMOVE, delegate::remove);
+        return this;
+    }
+
+    @Override
+    public long getSize() {
+        return timed(NodeMetrics.Operation.GET_SIZE, delegate::getSize);
+    }
+
+    @Override
+    public long getLastModified() {
+        return timed(NodeMetrics.Operation.GET_LAST_MODIFIED, delegate::getLastModified);
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new FilterInputStream(timed(NodeMetrics.Operation.OPEN_INPUT, delegate::getInputStream)) {
+            @Override
+            public int read() throws IOException {
+                final int result = in.read();
+                if (result != -1) {
+                    metrics.addBytesRead(1);
+                }
+                return result;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                final int count = in.read(b, off, len);
+                metrics.addBytesRead(count);
+                return count;
+            }
+        };
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return new FilterOutputStream(timed(NodeMetrics.Operation.OPEN_OUTPUT, delegate::getOutputStream)) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                metrics.addBytesWritten(1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                metrics.addBytesWritten(len);
+            }
+        };
+    }
+
+    @Override
+    public List<String> getChildrenNames() {
+        return timed(NodeMetrics.Operation.LIST, delegate::getChildrenNames);
+    }
+
+    @Override
+    public List<INode> getChildren() {
+        final List<INode> children = timed(NodeMetrics.Operation.LIST, delegate::getChildren);
+        final List<INode> result = new ArrayList<>(children.size());
+        for (final INode child : children) {
+            result.add(wrap(child));
+        }
+        return result;
+    }
+
+    @Override
+    public List<INode> getChildren(final Predicate<String> nameFilter) {
+        final List<INode> children = timed(NodeMetrics.Operation.LIST, () -> delegate.getChildren(nameFilter));
+        final List<INode> result = new ArrayList<>(children.size());
+        for (final INode child : children) {
+            result.add(wrap(child));
+        }
+        return result;
+    }
+
+    @Override
+    public NodeWatcher watch(final long intervalMillis, final Consumer<List<NodeEvent>> listener) {
+        return delegate.watch(intervalMillis, events -> {
+            final List<NodeEvent> wrapped = new ArrayList<>(events.size());
+            for (final NodeEvent event : events) {
+                wrapped.add(new NodeEvent(event.getKind(), event.getPath(), wrap(event.getNode())));
+            }
+            listener.accept(wrapped);
+        });
+    }
+
+    @Override
+    public INode getChild(String name) {
+        return wrap(delegate.getChild(name));
+    }
+
+    @Override
+    public File asJavaFile() {
+        return delegate.asJavaFile();
+    }
+
+    @Override
+    public int getChildrenCount() {
+        return timed(NodeMetrics.Operation.LIST, delegate::getChildrenCount);
+    }
+
+    @Override
+    public void visitChildren(final ChildVisitor visitor) {
+        timed(NodeMetrics.Operation.LIST, () -> {
+            delegate.visitChildren(visitor);
+            return null;
+        });
+    }
+
+    @Override
+    public List<NodeAttributes> getChildrenWithAttributes() {
+        return timed(NodeMetrics.Operation.LIST, delegate::getChildrenWithAttributes);
+    }
+
+    @Override
+    public INode write(final byte[] what) {
+        timed(NodeMetrics.Operation.WRITE, () -> delegate.write(what));
+        metrics.addBytesWritten(what.length);
+        return this;
+    }
+
+    @Override
+    public INode write(final ByteBuffer... data) {
+        final long size = remaining(data);
+        timed(NodeMetrics.Operation.WRITE, () -> delegate.write(data));
+        metrics.addBytesWritten(size);
+        return this;
+    }
+
+    @Override
+    public INode append(final ByteBuffer... data) {
+        final long size = remaining(data);
+        timed(NodeMetrics.Operation.WRITE, () -> delegate.append(data));
+        metrics.addBytesWritten(size);
+        return this;
+    }
+
+    private static long remaining(final ByteBuffer[] data) {
+        long result = 0;
+        for (final ByteBuffer buffer : data) {
+            result += buffer.remaining();
+        }
+        return result;
+    }
+
+    @Override
+    public INode writeAtomic(final byte[] what) {
+        timed(NodeMetrics.Operation.WRITE, () -> delegate.writeAtomic(what));
+        metrics.addBytesWritten(what.length);
+        return this;
+    }
+
+    @Override
+    public byte[] readBytes() {
+        final byte[] result = timed(NodeMetrics.Operation.READ, delegate::readBytes);
+        metrics.addBytesRead(result.length);
+        return result;
+    }
+
+    @Override
+    public int read(final byte[] buffer, final int offset, final int length) {
+        final int count = timed(NodeMetrics.Operation.READ, () -> delegate.read(buffer, offset, length));
+        metrics.addBytesRead(count);
+        return count;
+    }
+
+    @Override
+    public int readInto(final ByteBuffer buffer) {
+        final int count = timed(NodeMetrics.Operation.READ, () -> delegate.readInto(buffer));
+        metrics.addBytesRead(count);
+        return count;
+    }
+
+    @Override
+    public byte[] hash(final String algorithm) {
+        return timed(NodeMetrics.Operation.READ, () -> delegate.hash(algorithm));
+    }
+
+    /**
+     * Records only mapping, access to the mapped memory is not observable.
+     */
+    @Override
+    public MappedData map(final long offset, final long length) {
+        return timed(NodeMetrics.Operation.READ, () -> delegate.map(offset, length));
+    }
+
+    @Override
+    public CompletableFuture<byte[]> readBytesAsync() {
+        return timedAsync(NodeMetrics.Operation.READ, delegate::readBytesAsync).thenApply(result -> {
+            metrics.addBytesRead(result.length);
+            return result;
+        });
+    }
+
+    @Override
+    public CompletableFuture<INode> writeAsync(final byte[] what) {
+        return timedAsync(NodeMetrics.Operation.WRITE, () -> delegate.writeAsync(what)).thenApply(ignored -> {
+            metrics.addBytesWritten(what.length);
+            return this;
+        });
+    }
+
+    @Override
+    public INode copyTo(final INode target) {
+        timed(NodeMetrics.Operation.COPY, () -> delegate.copyTo(unwrap(target)));
+        return target;
+    }
+
+    @Override
+    public INode moveTo(final INode target) {
+        timed(NodeMetrics.Operation.MOVE, () -> delegate.moveTo(unwrap(target)));
+        return target;
+    }
+}
@@ -0,0 +1,67 @@
+package pl.mjaron.datanode;
+
+/**
+ * Basic attributes of a child node, read together with the directory listing.
+ */
+public final class NodeAttributes {
+
+    /**
+     * Type of the node.
+     */
+    public enum Type {
+        FILE,
+        DIRECTORY,
+
+        /**
+         * Other kind of entry, e.g. a device or a broken symbolic link.
+         */
+        OTHER
+    }
+
+    private final String name;
+    private final Type type;
+    private final long size;
+    private final long lastModified;
+
+    public NodeAttributes(final String name, final Type type, final long size, final long lastModified) {
+        this.name = name;
+        this.type = type;
+        this.size = size;
+        this.lastModified = lastModified;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public boolean isFile() {
+        return type == Type.FILE;
+    }
+
+    public boolean isDirectory() {
+        return type == Type.DIRECTORY;
+    }
+
+    /**
+     * @return Size of a file, 0 for other types.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return Time of the last modification in milliseconds since the epoch, 0 if unknown.
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + type + ", " + size + " B, modified " + lastModified + ")";
+    }
+}
@@ -0,0 +1,385 @@
+package pl.mjaron.datanode;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Cache shared by {@link CachingNode}s of one tree.
+ * <p>
+ * Metadata (attributes and children names) is kept for a fixed time. File contents are kept in a
+ * least-recently-used map limited by total count of bytes. A content is served for the same time as metadata, then it
+ * is checked against the current size and modification time of the file and dropped when they have changed. Both are
+ * keyed by node paths, in sorted maps, so invalidating a subtree doesn't scan the whole cache.
+ * <p>
+ * A value loaded while its path is invalidated is not cached, because it may have been read before the modification.
+ * This is detected per path: the metadata entry of the path, which every invalidation affecting the path removes,
+ * serves as a stamp taken before loading and compared when storing. Invalidations of unrelated paths don't prevent
+ * caching.
+ */
+public class NodeCache {
+
+    /**
+     * Kinds of cached metadata values.
+     */
+    enum Kind {
+        /**
+         * {@link NodeAttributes} of the node, null when it doesn't exist.
+         */
+        ATTRIBUTES,
+
+        /**
+         * Whether a node which doesn't exist reports itself as a directory.
+         */
+        DIRECTORY,
+        CHILDREN_NAMES
+    }
+
+    private static final class Timed {
+        final Object value;
+        final long expiresAt;
+
+        Timed(final Object value, final long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static final class Content {
+        final byte[] bytes;
+
+        /**
+         * Attributes of the file read before the content, null if unknown.
+         */
+        final NodeAttributes attributes;
+
+        /**
+         * Guarded by {@link #contents}.
+         */
+        long validUntil;
+
+        Content(final byte[] bytes, final NodeAttributes attributes, final long validUntil) {
+            this.bytes = bytes;
+            this.attributes = attributes;
+            this.validUntil = validUntil;
+        }
+    }
+
+    /**
+     * Count of metadata misses between removals of expired entries, power of two.
+     */
+    private static final int PURGE_INTERVAL = 4096;
+
+    private final long ttlNanos;
+    private final long maxContentBytes;
+
+    private final ConcurrentSkipListMap<String, AtomicReferenceArray<Timed>> metadata = new ConcurrentSkipListMap<>();
+
+    /**
+     * Guarded by itself.
+     */
+    private final LinkedHashMap<String, Content> contents = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Sorted keys of {@link #contents}, guarded by it.
+     */
+    private final TreeSet<String> contentPaths = new TreeSet<>();
+    private long contentBytes = 0;
+
+    private final LongAdder metadataHits = new LongAdder();
+    private final LongAdder metadataMisses = new LongAdder();
+    private final LongAdder contentHits = new LongAdder();
+    private final LongAdder contentMisses = new LongAdder();
+
+    /**
+     * @param ttlMillis       How long metadata and contents are valid without checking, in milliseconds.
+     * @param maxContentBytes Maximal total size of cached file contents.
+     */
+    public NodeCache(final long ttlMillis, final long maxContentBytes) {
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.maxContentBytes = maxContentBytes;
+    }
+
+    private AtomicReferenceArray<Timed> entry(final String path) {
+        return metadata.computeIfAbsent(path, k -> new AtomicReferenceArray<>(Kind.values().length));
+    }
+
+    /**
+     * @return Stamp of given path, to be passed to {@link #putContent} of a content loaded after this call. It stays
+     * valid until the path, one of its ancestors or one of its children is invalidated.
+     */
+    Object stamp(final String path) {
+        return entry(path);
+    }
+
+    private boolean isCurrent(final String path, final Object stamp) {
+        return metadata.get(path) == stamp;
+    }
+
+    /**
+     * Provides a metadata value, loading it when it is not cached or expired.
+     */
+    @SuppressWarnings("unchecked")
+    <T> T get(final String path, final Kind kind, final Supplier<T> loader) {
+        final AtomicReferenceArray<Timed> values = entry(path);
+        final long now = System.nanoTime();
+        final Timed cached = values.get(kind.ordinal());
+        if (cached != null && cached.expiresAt - now > 0) {
+            metadataHits.increment();
+            return (T) cached.value;
+        }
+        metadataMisses.increment();
+        if ((metadataMisses.sum() & (PURGE_INTERVAL - 1)) == 0) {
+            purgeExpired();
+        }
+        final T value = loader.get();
+        // A value stored after the stamp check to an entry removed in the meantime is dropped with the entry.
+        if (isCurrent(path, values)) {
+            values.set(kind.ordinal(), new Timed(value, now + ttlNanos));
+        }
+        return value;
+    }
+
+    /**
+     * Removes metadata entries which have no valid values, so the cache doesn't grow with every visited path.
+     */
+    public void purgeExpired() {
+        final long now = System.nanoTime();
+        metadata.values().removeIf(values -> {
+            for (int i = 0; i < values.length(); ++i) {
+                final Timed value = values.get(i);
+                if (value != null && value.expiresAt - now > 0) {
+                    return false;
+                }
+            }
+            return true;
+        });
+    }
+
+    /**
+     * Provides cached content of given file. When the content is older than the time to live, it is served only if
+     * the current attributes of the file match the attributes read when it was cached.
+     *
+     * @param attributes Provides current attributes of the file.
+     * @return Cached content, or null.
+     */
+    byte[] getContent(final String path, final Supplier<NodeAttributes> attributes) {
+        Content content;
+        synchronized (contents) {
+            content = contents.get(path);
+        }
+        if (content != null && !isValid(content, attributes)) {
+            synchronized (contents) {
+                if (contents.get(path) == content) {
+                    removeContent(path);
+                }
+            }
+            content = null;
+        }
+        if (content == null) {
+            contentMisses.increment();
+            return null;
+        }
+        contentHits.increment();
+        return content.bytes;
+    }
+
+    private boolean isValid(final Content content, final Supplier<NodeAttributes> attributes) {
+        final long now = System.nanoTime();
+        synchronized (contents) {
+            if (content.validUntil - now > 0) {
+                return true;
+            }
+        }
+        final NodeAttributes cached = content.attributes;
+        if (cached == null || cached.getLastModified() == 0) {
+            return false;
+        }
+        final NodeAttributes current = attributes.get();
+        if (current == null || current.getSize() != cached.getSize()
+                || current.getLastModified() != cached.getLastModified()) {
+            return false;
+        }
+        synchronized (contents) {
+            content.validUntil = now + ttlNanos;
+        }
+        return true;
+    }
+
+    /**
+     * Caches given content unless it is larger than the whole budget or the path has been invalidated since the
+     * content started loading. Least recently used contents are evicted to fit in the budget.
+     *
+     * @param attributes Attributes of the file read before the content, null if unknown.
+     * @param stamp      Value of {@link #stamp(String)} before the content started loading.
+     */
+    void putContent(final String path, final byte[] content, final NodeAttributes attributes, final Object stamp) {
+        if (content.length > maxContentBytes) {
+            return;
+        }
+        synchronized (contents) {
+            // Invalidation removes the stamp before taking this lock to remove contents, so a content stored after
+            // a successful check is removed by the invalidation.
+            if (!isCurrent(path, stamp)) {
+                return;
+            }
+            removeContent(path);
+            contents.put(path, new Content(content, attributes, System.nanoTime() + ttlNanos));
+            contentPaths.add(path);
+            contentBytes += content.length;
+            final Iterator<Map.Entry<String, Content>> eldest = contents.entrySet().iterator();
+            while (contentBytes > maxContentBytes && eldest.hasNext()) {
+                final Map.Entry<String, Content> entry = eldest.next();
+                contentBytes -= entry.getValue().bytes.length;
+                contentPaths.remove(entry.getKey());
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * Must be called with {@link #contents} locked.
+     */
+    private void removeContent(final String path) {
+        final Content previous = contents.remove(path);
+        if (previous != null) {
+            contentBytes -= previous.bytes.length;
+            contentPaths.remove(path);
+        }
+    }
+
+    /**
+     * Drops everything cached for given path and its descendants, and the children listing of its parent. Takes time
+     * proportional to the count of dropped entries, not to the cache size.
+     *
+     * @param path Path of a node modified or removed.
+     */
+    public void invalidate(final String path) {
+        metadata.remove(path);
+        final String parentPath = parentPath(path);
+        if (parentPath != null) {
+            metadata.remove(parentPath);
+        }
+        for (final String prefix : descendantPrefixes(path)) {
+            removeStartingWith(metadata.keySet(), prefix);
+        }
+        synchronized (contents) {
+            removeContent(path);
+            for (final String prefix : descendantPrefixes(path)) {
+                for (final String descendant : removeStartingWith(contentPaths, prefix)) {
+                    contentBytes -= contents.remove(descendant).bytes.length;
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops everything cached.
+     */
+    public void invalidateAll() {
+        metadata.clear();
+        synchronized (contents) {
+            contents.clear();
+            contentPaths.clear();
+            contentBytes = 0;
+        }
+    }
+
+    private static boolean isSeparator(final char c) {
+        return c == '/' || c == File.separatorChar;
+    }
+
+    /**
+     * @return Prefixes which paths of all descendants start with.
+     */
+    private static List<String> descendantPrefixes(final String path) {
+        if (!path.isEmpty() && isSeparator(path.charAt(path.length() - 1))) {
+            return Collections.singletonList(path);
+        }
+        if (File.separatorChar == '/') {
+            return Collections.singletonList(path + '/');
+        }
+        return Arrays.asList(path + '/', path + File.separatorChar);
+    }
+
+    /**
+     * Removes keys starting with the prefix, which are adjacent in the sorted set.
+     *
+     * @return Removed keys.
+     */
+    private static List<String> removeStartingWith(final NavigableSet<String> keys, final String prefix) {
+        final List<String> removed = new ArrayList<>();
+        final Iterator<String> it = keys.tailSet(prefix, false).iterator();
+        while (it.hasNext()) {
+            final String key = it.next();
+            if (!key.startsWith(prefix)) {
+                break;
+            }
+            removed.add(key);
+            it.remove();
+        }
+        return removed;
+    }
+
+    private static String parentPath(final String path) {
+        int end = path.length();
+        while (end > 0 && isSeparator(path.charAt(end - 1))) {
+            --end;
+        }
+        for (int i = end - 1; i >= 0; --i) {
+            if (isSeparator(path.charAt(i))) {
+                return path.substring(0, Math.max(i, 1));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return Count of metadata values served from the cache.
+     */
+    public long getMetadataHits() {
+        return metadataHits.sum();
+    }
+
+    /**
+     * @return Count of metadata values loaded from the backing nodes.
+     */
+    public long getMetadataMisses() {
+        return metadataMisses.sum();
+    }
+
+    /**
+     * @return Count of file contents served from the cache.
+     */
+    public long getContentHits() {
+        return contentHits.sum();
+    }
+
+    /**
+     * @return Count of file contents read from the backing nodes.
+     */
+    public long getContentMisses() {
+        return contentMisses.sum();
+    }
+
+    /**
+     * @return Total size of cached file contents.
+     */
+    public long getContentBytes() {
+        synchronized (contents) {
+            return contentBytes;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package pl.mjaron.datanode;
+
+/**
+ * Change of a node inside a watched subtree, see {@link INode#watch}.
+ */
+public final class NodeEvent {
+
+    /**
+     * Kind of the change.
+     */
+    public enum Kind {
+        CREATED,
+
+        /**
+         * Content of a file has changed, or a node was replaced with a node of other type.
+         */
+        MODIFIED,
+        DELETED
+    }
+
+    private final Kind kind;
+    private final String path;
+    private final INode node;
+
+    public NodeEvent(final Kind kind, final String path, final INode node) {
+        this.kind = kind;
+        this.path = path;
+        this.node = node;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return Path relative to the watched node, with elements separated with '/'.
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return Changed node, obtained from the watched node with {@link INode#getChild(String)}.
+     */
+    public INode getNode() {
+        return node;
+    }
+
+    @Override
+    public String toString() {
+        return kind + " " + path;
+    }
+}
@@ -0,0 +1,47 @@
+package pl.mjaron.datanode;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors running blocking node operations for the asynchronous API, e.g. {@link INode#readBytesAsync()}.
+ */
+public final class NodeExecutors {
+
+    private static volatile Executor defaultExecutor = null;
+
+    private NodeExecutors() {
+    }
+
+    /**
+     * @return Executor used by asynchronous node operations. By default, {@link BulkExecutor#getDefault()}, so
+     * blocking operations run on virtual threads when available and don't occupy the common fork-join pool.
+     */
+    public static Executor getDefault() {
+        final Executor result = defaultExecutor;
+        if (result == null) {
+            return BulkExecutor.getDefault();
+        }
+        return result;
+    }
+
+    /**
+     * @param executor Executor to be used by asynchronous node operations.
+     */
+    public static void setDefault(final Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor cannot be null.");
+        }
+        defaultExecutor = executor;
+    }
+
+    static ThreadFactory daemonThreadFactory(final String namePrefix) {
+        final AtomicInteger counter = new AtomicInteger(0);
+        return runnable -> {
+            final Thread thread = new Thread(runnable, namePrefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,563 @@
+package pl.mjaron.datanode;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+
+/**
+ * Data transfer helpers shared by node implementations.
+ */
+final class NodeIo {
+
+    /**
+     * Default size of the heap buffer used for stream copying.
+     */
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Maximal size of an array, some VMs reserve header words in arrays.
+     */
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    private NodeIo() {
+    }
+
+    /**
+     * Copies all remaining bytes of the input to the output.
+     *
+     * @return Count of copied bytes.
+     */
+    static long copy(final InputStream in, final OutputStream out) throws IOException {
+        final BufferPool pool = BufferPool.getDefault();
+        final byte[] buffer = pool.acquire();
+        try {
+            long total = 0;
+            for (int length; (length = in.read(buffer)) != -1; ) {
+                out.write(buffer, 0, length);
+                total += length;
+            }
+            return total;
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    /**
+     * Skips given count of bytes. {@link InputStream#skip} may skip nothing before the end of the stream, so in such
+     * case a single byte is read to tell whether the stream has ended.
+     *
+     * @return False when the stream ended before the bytes were skipped.
+     */
+    static boolean skipFully(final InputStream in, final long count) throws IOException {
+        long toSkip = count;
+        while (toSkip > 0) {
+            final long skipped = in.skip(toSkip);
+            if (skipped > 0) {
+                toSkip -= skipped;
+            } else if (in.read() == -1) {
+                return false;
+            } else {
+                --toSkip;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads until the array region is full or the end of the stream.
+     *
+     * @return Count of read bytes.
+     */
+    static int readFully(final InputStream in, final byte[] buffer, final int offset, final int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            final int count = in.read(buffer, offset + total, length - total);
+            if (count == -1) {
+                break;
+            }
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Reads all remaining bytes of the stream.
+     *
+     * @param sizeHint Expected count of bytes. When it is positive, the result array is allocated at once with this
+     *                 size, so no copy is needed if the hint is right.
+     * @return Read bytes.
+     */
+    static byte[] readAll(final InputStream in, final long sizeHint) throws IOException {
+        byte[] result = new byte[(sizeHint > 0) ? (int) Math.min(sizeHint, MAX_ARRAY_SIZE) : 0];
+        int size = readFully(in, result, 0, result.length);
+        if (size < result.length) {
+            return Arrays.copyOf(result, size);
+        }
+        final BufferPool pool = BufferPool.getDefault();
+        final byte[] buffer = pool.acquire();
+        try {
+            for (int length; (length = in.read(buffer)) != -1; ) {
+                if (size + length > result.length) {
+                    if (size + length > MAX_ARRAY_SIZE || size + length < 0) {
+                        throw new OutOfMemoryError("Content is too large for an array.");
+                    }
+                    final long grown = Math.max((long) result.length * 2, size + length);
+                    result = Arrays.copyOf(result, (int) Math.min(grown, MAX_ARRAY_SIZE));
+                }
+                System.arraycopy(buffer, 0, result, size, length);
+                size += length;
+            }
+        } finally {
+            pool.release(buffer);
+        }
+        return (size == result.length) ? result : Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Files at least this large are hashed through a memory mapping.
+     */
+    static final long HASH_MAP_THRESHOLD = 1024 * 1024;
+
+    static MessageDigest digest(final String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new RuntimeException("Unknown hash algorithm: [" + algorithm + "].", e);
+        }
+    }
+
+    /**
+     * Updates the digest with all remaining bytes of the stream.
+     */
+    static void digest(final InputStream in, final MessageDigest digest) throws IOException {
+        final BufferPool pool = BufferPool.getDefault();
+        final byte[] buffer = pool.acquire();
+        try {
+            for (int length; (length = in.read(buffer)) != -1; ) {
+                digest.update(buffer, 0, length);
+            }
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    /**
+     * Hashes a local file. Large files are mapped to memory, so their content is not copied to the Java heap at once.
+     */
+    static byte[] hash(final Path path, final String algorithm) {
+        final MessageDigest digest = digest(algorithm);
+        try {
+            if (Files.size(path) >= HASH_MAP_THRESHOLD) {
+                try (final MappedData data = MappedData.map(path, 0, Long.MAX_VALUE, MappedData.SEGMENT_SIZE)) {
+                    for (int i = 0; i < data.getSegmentCount(); ++i) {
+                        digest.update(data.getSegment(i));
+                    }
+                }
+            } else {
+                try (final InputStream in = Files.newInputStream(path)) {
+                    digest(in, digest);
+                }
+            }
+        } catch (final IOException e) {
+            throw new RuntimeException("Failed to hash file: [" + path + "].", e);
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Reads until the buffer is full or the end of the stream.
+     *
+     * @return Count of read bytes.
+     */
+    static int readInto(final InputStream in, final ByteBuffer destination) throws IOException {
+        if (destination.hasArray()) {
+            final int count = readFully(in, destination.array(), destination.arrayOffset() + destination.position(),
+                    destination.remaining());
+            destination.position(destination.position() + count);
+            return count;
+        }
+        final BufferPool pool = BufferPool.getDefault();
+        final byte[] buffer = pool.acquire();
+        try {
+            int total = 0;
+            while (destination.hasRemaining()) {
+                final int count = in.read(buffer, 0, Math.min(buffer.length, destination.remaining()));
+                if (count == -1) {
+                    break;
+                }
+                destination.put(buffer, 0, count);
+                total += count;
+            }
+            return total;
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    /**
+     * Reads from the beginning of a local file until the buffer is full or the end of the file. Direct buffers are
+     * filled by the channel without copying through the heap.
+     *
+     * @return Count of read bytes.
+     */
+    static int readInto(final Path path, final ByteBuffer destination) {
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            int total = 0;
+            while (destination.hasRemaining()) {
+                final int count = channel.read(destination);
+                if (count == -1) {
+                    break;
+                }
+                total += count;
+            }
+            return total;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read file: [" + path + "].", e);
+        }
+    }
+
+    /**
+     * @return Local filesystem path of given node, or null when the node is not backed by the local filesystem.
+     */
+    static Path localPath(final INode node) {
+        if (node instanceof FileNode) {
+            return node.asJavaFile().toPath();
+        }
+        if (node instanceof PathNode) {
+            return ((PathNode) node).asJavaPath();
+        }
+        return null;
+    }
+
+    /**
+     * Drops metadata cached by given node after it has been modified in other way than through its methods.
+     */
+    static void modified(final INode node) {
+        if (node instanceof PathNode) {
+            ((PathNode) node).refresh();
+        }
+    }
+
+    /**
+     * Counts entries of a local directory without creating objects for them.
+     *
+     * @return Count of entries, 0 if the path is not a directory.
+     */
+    static int countEntries(final Path directory) {
+        int count = 0;
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (final Iterator<Path> iterator = stream.iterator(); iterator.hasNext(); iterator.next()) {
+                ++count;
+            }
+        } catch (NoSuchFileException | NotDirectoryException ignored) {
+            // Same as File.listFiles() returning null.
+        } catch (IOException | DirectoryIteratorException e) {
+            throw new RuntimeException("Failed to list directory: [" + directory + "].", e);
+        }
+        return count;
+    }
+
+    /**
+     * @return Names of entries of a local directory, empty if the path is not a directory.
+     */
+    static List<String> listNames(final Path directory) {
+        final List<String> names = new ArrayList<>();
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (final Path child : stream) {
+                names.add(child.getFileName().toString());
+            }
+        } catch (NoSuchFileException | NotDirectoryException ignored) {
+            // Same as File.listFiles() returning null.
+        } catch (IOException | DirectoryIteratorException e) {
+            throw new RuntimeException("Failed to list directory: [" + directory + "].", e);
+        }
+        return names;
+    }
+
+    /**
+     * Lists entries of a local directory which names match the filter. The filter is applied by the directory stream,
+     * before entries are returned.
+     *
+     * @return Paths of matching entries, empty if the path is not a directory.
+     */
+    static List<Path> listMatching(final Path directory, final Predicate<String> nameFilter) {
+        final List<Path> result = new ArrayList<>();
+        final DirectoryStream.Filter<Path> filter = entry -> nameFilter.test(entry.getFileName().toString());
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(directory, filter)) {
+            for (final Path child : stream) {
+                result.add(child);
+            }
+        } catch (NoSuchFileException | NotDirectoryException ignored) {
+            // Same as File.listFiles() returning null.
+        } catch (IOException | DirectoryIteratorException e) {
+            throw new RuntimeException("Failed to list directory: [" + directory + "].", e);
+        }
+        return result;
+    }
+
+    /**
+     * Lists a local directory and reads attributes of each entry. Symbolic links are followed, broken links are
+     * reported as {@link NodeAttributes.Type#OTHER}. Entries removed during the listing are skipped.
+     */
+    static void visitChildren(final Path directory, final ChildVisitor visitor) {
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (final Path child : stream) {
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(child, BasicFileAttributes.class);
+                } catch (IOException e) {
+                    try {
+                        attributes = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch (IOException removed) {
+                        continue;
+                    }
+                }
+                final NodeAttributes.Type type = typeOf(attributes);
+                visitor.visit(child.getFileName().toString(), type,
+                        (type == NodeAttributes.Type.FILE) ? attributes.size() : 0,
+                        attributes.lastModifiedTime().toMillis());
+            }
+        } catch (NoSuchFileException | NotDirectoryException ignored) {
+            // Same as File.listFiles() returning null.
+        } catch (IOException | DirectoryIteratorException e) {
+            throw new RuntimeException("Failed to list directory: [" + directory + "].", e);
+        }
+    }
+
+    static NodeAttributes.Type typeOf(final BasicFileAttributes attributes) {
+        if (attributes.isRegularFile()) {
+            return NodeAttributes.Type.FILE;
+        }
+        if (attributes.isDirectory()) {
+            return NodeAttributes.Type.DIRECTORY;
+        }
+        return NodeAttributes.Type.OTHER;
+    }
+
+    /**
+     * Copies a file or a directory tree inside the local filesystem. File contents are copied with
+     * {@link FileChannel#transferTo}, so the data doesn't pass through the Java heap.
+     */
+    static void copyLocal(final Path source, final Path target) {
+        try {
+            if (Files.isDirectory(source)) {
+                Files.createDirectories(target);
+                try (final DirectoryStream<Path> stream = Files.newDirectoryStream(source)) {
+                    for (final Path child : stream) {
+                        copyLocal(child, target.resolve(child.getFileName().toString()));
+                    }
+                }
+            } else {
+                transfer(source, target);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to copy: [" + source + "] to [" + target + "].", e);
+        }
+    }
+
+    private static void transfer(final Path source, final Path target) throws IOException {
+        if (Files.exists(target) && Files.isSameFile(source, target)) {
+            return;
+        }
+        try (final FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             final FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final long size = in.size();
+            long position = 0;
+            while (position < size) {
+                final long transferred = in.transferTo(position, size - position, out);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+            }
+        }
+    }
+
+    /**
+     * Moves a file or a directory tree inside the local filesystem. Uses atomic rename when possible, otherwise
+     * copies and removes the source. A directory moved onto an existing directory is merged into it, child by child.
+     * Moving a file onto an existing directory fails, the directory is kept.
+     */
+    static void moveLocal(final Path source, final Path target) {
+        try {
+            if (Files.isDirectory(target, LinkOption.NOFOLLOW_LINKS)) {
+                if (Files.isDirectory(source)) {
+                    mergeLocal(source, target);
+                    return;
+                }
+                throw new RuntimeException("Cannot move file: [" + source + "] over directory: [" + target + "].");
+            }
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+            return;
+        } catch (AtomicMoveNotSupportedException ignored) {
+            // Different filesystems.
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to move: [" + source + "] to [" + target + "].", e);
+        }
+        copyLocal(source, target);
+        new PathNode(source).remove();
+    }
+
+    private static void mergeLocal(final Path source, final Path target) throws IOException {
+        if (Files.isSameFile(source, target)) {
+            return;
+        }
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(source)) {
+            for (final Path child : stream) {
+                moveLocal(child, target.resolve(child.getFileName().toString()));
+            }
+        }
+        Files.delete(source);
+    }
+
+    /**
+     * Writes remaining bytes of the buffer to the stream and advances its position. Array-backed buffers are written
+     * directly, others are copied in chunks through a pooled array.
+     */
+    static void write(final OutputStream out, final ByteBuffer buffer) throws IOException {
+        if (buffer.hasArray()) {
+            out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.limit());
+            return;
+        }
+        final BufferPool pool = BufferPool.getDefault();
+        final byte[] chunk = pool.acquire();
+        try {
+            while (buffer.hasRemaining()) {
+                final int count = Math.min(chunk.length, buffer.remaining());
+                buffer.get(chunk, 0, count);
+                out.write(chunk, 0, count);
+            }
+        } finally {
+            pool.release(chunk);
+        }
+    }
+
+    /**
+     * Writes or appends the buffers to a local file with gathering writes.
+     *
+     * @param append Whether the data is appended, otherwise the file is truncated.
+     */
+    static void write(final Path path, final boolean append, final ByteBuffer... data) {
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, data);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write file: [" + path + "].", e);
+        }
+    }
+
+    /**
+     * Creates a temporary file next to the target, so it can be renamed over the target atomically. The file gets
+     * POSIX permissions of the existing target, otherwise the default permissions of new files, unlike
+     * {@link Files#createTempFile}, which makes it readable only by the owner.
+     */
+    static Path createTempSibling(final Path target) throws IOException {
+        final Path parent = target.toAbsolutePath().getParent();
+        Path temp;
+        while (true) {
+            temp = parent.resolve("." + target.getFileName() + "."
+                    + Long.toUnsignedString(ThreadLocalRandom.current().nextLong(), 36) + ".tmp");
+            try {
+                Files.createFile(temp);
+                break;
+            } catch (FileAlreadyExistsException ignored) {
+                // Try another name.
+            }
+        }
+        try {
+            if (Files.getFileAttributeView(temp, PosixFileAttributeView.class) != null && Files.exists(target)) {
+                Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(target));
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        return temp;
+    }
+
+    /**
+     * Writes all remaining bytes of the buffers with gathering writes.
+     */
+    static void writeFully(final FileChannel channel, final ByteBuffer... data) throws IOException {
+        long remaining = 0;
+        for (final ByteBuffer buffer : data) {
+            remaining += buffer.remaining();
+        }
+        while (remaining > 0) {
+            remaining -= channel.write(data);
+        }
+    }
+
+    /**
+     * Renames the file over the target atomically, or replaces the target when the filesystem doesn't support atomic
+     * renames.
+     */
+    static void replace(final Path source, final Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Forces directory entries, e.g. a rename, to the storage device. Ignored on platforms which don't allow opening
+     * directories, e.g. Windows, where renames are durable without it.
+     */
+    static void syncDirectory(final Path directory) {
+        try (final FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ignored) {
+            // Directories can't be opened on this platform.
+        }
+    }
+
+    /**
+     * Writes the content to a temporary sibling and renames it over the target, so readers and crashes see either the
+     * previous or the new content.
+     *
+     * @param sync Whether the content and the rename are forced to the storage device before returning.
+     */
+    static void writeAtomic(final Path target, final boolean sync, final ByteBuffer... data) {
+        Path temp = null;
+        try {
+            temp = createTempSibling(target);
+            try (final FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                writeFully(channel, data);
+                if (sync) {
+                    channel.force(true);
+                }
+            }
+            replace(temp, target);
+            temp = null;
+            if (sync) {
+                syncDirectory(target.toAbsolutePath().getParent());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write atomically: [" + target + "].", e);
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                    // The write has failed anyway.
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package pl.mjaron.datanode;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Registry of statistics recorded by {@link MetricsNode} decorators: call counts, errors, latencies and transferred
+ * bytes.
+ * <p>
+ * Recording is lock-free, all counters are striped, so concurrent callers don't contend on a single memory location.
+ * Latencies are kept in a histogram with power-of-two buckets: bucket {@code i} counts calls which took from
+ * {@code 2^(i-1)} to {@code 2^i - 1} nanoseconds.
+ */
+public class NodeMetrics implements NodeMetricsMXBean {
+
+    /**
+     * Recorded operation kinds.
+     */
+    public enum Operation {
+        EXISTS,
+        IS_FILE,
+        IS_DIRECTORY,
+        GET_SIZE,
+        GET_LAST_MODIFIED,
+        MKDIRS,
+        TOUCH,
+        REMOVE,
+        OPEN_INPUT,
+        OPEN_OUTPUT,
+        LIST,
+        READ,
+        WRITE,
+        COPY,
+        MOVE
+    }
+
+    /**
+     * Count of latency histogram buckets, enough for any non-negative long value.
+     */
+    public static final int BUCKET_COUNT = 64;
+
+    private static final class Counters {
+        final LongAdder count = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+
+        Counters() {
+            for (int i = 0; i < BUCKET_COUNT; ++i) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void reset() {
+            count.reset();
+            errors.reset();
+            totalNanos.reset();
+            maxNanos.reset();
+            for (final LongAdder bucket : buckets) {
+                bucket.reset();
+            }
+        }
+    }
+
+    /**
+     * Statistics of a single operation at the time of the snapshot.
+     */
+    public static final class OperationSnapshot {
+        private final String operation;
+        private final long count;
+        private final long errors;
+        private final long totalNanos;
+        private final long maxNanos;
+        private final long[] histogram;
+
+        OperationSnapshot(final Operation operation, final Counters counters) {
+            this.operation = operation.name();
+            this.histogram = new long[BUCKET_COUNT];
+            long histogramCount = 0;
+            for (int i = 0; i < BUCKET_COUNT; ++i) {
+                histogram[i] = counters.buckets[i].sum();
+                histogramCount += histogram[i];
+            }
+            // Counters are not read atomically, so the count is taken from the histogram to keep percentiles valid.
+            this.count = histogramCount;
+            this.errors = counters.errors.sum();
+            this.totalNanos = counters.totalNanos.sum();
+            this.maxNanos = counters.maxNanos.get();
+        }
+
+        /**
+         * @return Name of the {@link Operation}.
+         */
+        public String getOperation() {
+            return operation;
+        }
+
+        /**
+         * @return Count of calls, including failed ones.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return Count of calls which threw an exception.
+         */
+        public long getErrors() {
+            return errors;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        public double getMeanNanos() {
+            return (count == 0) ? 0 : (double) totalNanos / count;
+        }
+
+        public long getP50Nanos() {
+            return percentileNanos(0.5);
+        }
+
+        public long getP90Nanos() {
+            return percentileNanos(0.9);
+        }
+
+        public long getP99Nanos() {
+            return percentileNanos(0.99);
+        }
+
+        /**
+         * @return Copy of latency histogram, see {@link NodeMetrics} for bucket bounds.
+         */
+        public long[] getHistogram() {
+            return histogram.clone();
+        }
+
+        /**
+         * @param quantile Value from 0 to 1.
+         * @return Upper bound of the histogram bucket containing given quantile, not greater than the maximal latency.
+         */
+        public long percentileNanos(final double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            final long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long cumulative = 0;
+            for (int i = 0; i < BUCKET_COUNT; ++i) {
+                cumulative += histogram[i];
+                if (cumulative >= rank) {
+                    final long upperBound = (i == BUCKET_COUNT - 1) ? Long.MAX_VALUE : (1L << i) - 1;
+                    return Math.min(upperBound, maxNanos);
+                }
+            }
+            return maxNanos;
+        }
+
+        @Override
+        public String toString() {
+            return operation + ": count=" + count + ", errors=" + errors + ", mean=" + (long) getMeanNanos() + "ns, p50="
+                    + getP50Nanos() + "ns, p99=" + getP99Nanos() + "ns, max=" + maxNanos + "ns";
+        }
+    }
+
+    /**
+     * Statistics of all operations at the time of the snapshot.
+     */
+    public static final class Snapshot {
+        private final long bytesRead;
+        private final long bytesWritten;
+        private final Map<Operation, OperationSnapshot> operations;
+
+        Snapshot(final long bytesRead, final long bytesWritten, final Map<Operation, OperationSnapshot> operations) {
+            this.bytesRead = bytesRead;
+            this.bytesWritten = bytesWritten;
+            this.operations = Collections.unmodifiableMap(operations);
+        }
+
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        /**
+         * @return Statistics of operations which were called at least once.
+         */
+        public Map<Operation, OperationSnapshot> getOperations() {
+            return operations;
+        }
+
+        /**
+         * @return Statistics of given operation, with zero counts if it was not called.
+         */
+        public OperationSnapshot get(final Operation operation) {
+            final OperationSnapshot result = operations.get(operation);
+            return (result != null) ? result : new OperationSnapshot(operation, new Counters());
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder builder = new StringBuilder();
+            builder.append("bytesRead=").append(bytesRead).append(", bytesWritten=").append(bytesWritten);
+            for (final OperationSnapshot operation : operations.values()) {
+                builder.append('\n').append(operation);
+            }
+            return builder.toString();
+        }
+    }
+
+    private final Counters[] counters = new Counters[Operation.values().length];
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private volatile ObjectName objectName = null;
+
+    public NodeMetrics() {
+        for (int i = 0; i < counters.length; ++i) {
+            counters[i] = new Counters();
+        }
+    }
+
+    /**
+     * Records a finished call.
+     *
+     * @param operation Kind of the call.
+     * @param nanos     Duration of the call.
+     * @param failed    Whether the call threw an exception.
+     */
+    public void record(final Operation operation, final long nanos, final boolean failed) {
+        final Counters c = counters[operation.ordinal()];
+        final long duration = Math.max(0, nanos);
+        c.buckets[BUCKET_COUNT - Long.numberOfLeadingZeros(duration)].increment();
+        c.count.increment();
+        c.totalNanos.add(duration);
+        c.maxNanos.accumulate(duration);
+        if (failed) {
+            c.errors.increment();
+        }
+    }
+
+    public void addBytesRead(final long count) {
+        if (count > 0) {
+            bytesRead.add(count);
+        }
+    }
+
+    public void addBytesWritten(final long count) {
+        if (count > 0) {
+            bytesWritten.add(count);
+        }
+    }
+
+    /**
+     * @return Current statistics. Counters are read without stopping writers, so values of different counters may
+     * come from slightly different moments.
+     */
+    public Snapshot snapshot() {
+        final Map<Operation, OperationSnapshot> operations = new EnumMap<>(Operation.class);
+        for (final Operation operation : Operation.values()) {
+            final Counters c = counters[operation.ordinal()];
+            if (c.count.sum() != 0) {
+                operations.put(operation, new OperationSnapshot(operation, c));
+            }
+        }
+        return new Snapshot(bytesRead.sum(), bytesWritten.sum(), operations);
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    @Override
+    public List<OperationSnapshot> getOperations() {
+        return new ArrayList<>(snapshot().getOperations().values());
+    }
+
+    @Override
+    public void reset() {
+        for (final Counters c : counters) {
+            c.reset();
+        }
+        bytesRead.reset();
+        bytesWritten.reset();
+    }
+
+    /**
+     * Registers this registry in the platform MBean server as
+     * {@code pl.mjaron.datanode:type=NodeMetrics,name=<name>}.
+     *
+     * @param name Name distinguishing this registry from other ones.
+     * @return This reference.
+     * @throws RuntimeException when the registration fails, e.g. when the name is already used.
+     */
+    public NodeMetrics register(final String name) {
+        try {
+            final ObjectName newName = new ObjectName("pl.mjaron.datanode:type=NodeMetrics,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, newName);
+            objectName = newName;
+        } catch (final JMException e) {
+            throw new RuntimeException("Failed to register metrics MBean: [" + name + "].", e);
+        }
+        return this;
+    }
+
+    /**
+     * Removes this registry from the platform MBean server, if registered.
+     *
+     * @return This reference.
+     */
+    public NodeMetrics unregister() {
+        final ObjectName name = objectName;
+        if (name == null) {
+            return this;
+        }
+        objectName = null;
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (final JMException e) {
+            throw new RuntimeException("Failed to unregister metrics MBean: [" + name + "].", e);
+        }
+        return this;
+    }
+
+    /**
+     * @return Name under which this registry is registered, or null.
+     */
+    public ObjectName getObjectName() {
+        return objectName;
+    }
+}
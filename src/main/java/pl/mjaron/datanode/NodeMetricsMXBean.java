@@ -0,0 +1,29 @@
+package pl.mjaron.datanode;
+
+import java.util.List;
+
+/**
+ * JMX view of {@link NodeMetrics}.
+ */
+public interface NodeMetricsMXBean {
+
+    /**
+     * @return Total count of bytes read through instrumented nodes.
+     */
+    long getBytesRead();
+
+    /**
+     * @return Total count of bytes written through instrumented nodes.
+     */
+    long getBytesWritten();
+
+    /**
+     * @return Statistics of operations which were called at least once.
+     */
+    List<NodeMetrics.OperationSnapshot> getOperations();
+
+    /**
+     * Clears all counters.
+     */
+    void reset();
+}
@@ -0,0 +1,314 @@
+package pl.mjaron.datanode;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Watches a subtree and delivers its changes to a listener, see {@link INode#watch}.
+ * <p>
+ * Watcher keeps a snapshot of the subtree: type, size and modification time of each node. Changes are detected by
+ * comparing rescanned parts of the subtree with the snapshot. Events noticed within the interval are coalesced per
+ * path, e.g. a file created and modified is reported only as created, a file created and deleted is not reported at
+ * all, and delivered as one batch. The listener is called from a single watcher thread.
+ * <p>
+ * When the listener throws, the watcher stops and the exception is available with {@link #getFailure()}.
+ */
+public abstract class NodeWatcher implements Closeable {
+
+    static final class Stamp {
+        final NodeAttributes.Type type;
+        final long size;
+        final long lastModified;
+
+        Stamp(final NodeAttributes.Type type, final long size, final long lastModified) {
+            this.type = type;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        boolean isModified(final Stamp other) {
+            // Modification time of a directory changes with its listing, which is reported by events of children.
+            return type == NodeAttributes.Type.FILE && (size != other.size || lastModified != other.lastModified);
+        }
+    }
+
+    final INode root;
+    final long intervalMillis;
+    private final Consumer<List<NodeEvent>> listener;
+
+    /**
+     * Known nodes, by path relative to the root.
+     */
+    private final NavigableMap<String, Stamp> snapshot = new TreeMap<>();
+
+    /**
+     * Coalesced events waiting for delivery, in order of first occurrence.
+     */
+    private final Map<String, NodeEvent.Kind> pending = new LinkedHashMap<>();
+
+    private final Thread thread;
+    volatile boolean closed = false;
+    private volatile Throwable failure = null;
+
+    NodeWatcher(final INode root, final long intervalMillis, final Consumer<List<NodeEvent>> listener) {
+        this.root = root;
+        this.intervalMillis = intervalMillis;
+        this.listener = listener;
+        this.thread = NodeExecutors.daemonThreadFactory("datanode-watch-").newThread(this::runLoop);
+    }
+
+    /**
+     * Starts the watcher thread. Changes made after this method returns are reported.
+     */
+    final NodeWatcher start() {
+        thread.start();
+        return this;
+    }
+
+    private void runLoop() {
+        try {
+            loop();
+        } catch (final InterruptedException ignored) {
+            // Closed.
+        } catch (final RuntimeException | Error e) {
+            if (!closed) {
+                failure = e;
+            }
+        } finally {
+            closed = true;
+        }
+    }
+
+    /**
+     * Detects changes and delivers them until the watcher is closed.
+     */
+    abstract void loop() throws InterruptedException;
+
+    /**
+     * Releases resources, called when the watcher is closed.
+     */
+    void release() {
+    }
+
+    /**
+     * Stops watching. Events not delivered yet are dropped.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        release();
+        if (thread != Thread.currentThread()) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * @return False when the watcher was closed or stopped because of a failure.
+     */
+    public boolean isRunning() {
+        return !closed;
+    }
+
+    /**
+     * @return Exception which stopped the watcher, or null.
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * @return Node which subtree is watched.
+     */
+    public INode getRoot() {
+        return root;
+    }
+
+    /**
+     * @return Relative path of a child with given name.
+     */
+    static String childPath(final String parentPath, final String name) {
+        return parentPath.isEmpty() ? name : parentPath + "/" + name;
+    }
+
+    /**
+     * @return Snapshot entries of the node with given relative path and of all its descendants. For the root, empty
+     * path, it is the whole snapshot.
+     */
+    private NavigableMap<String, Stamp> subtree(final String path) {
+        if (path.isEmpty()) {
+            return snapshot;
+        }
+        // '0' follows '/', so the range contains the path and all paths starting with "path/", among some siblings.
+        return snapshot.subMap(path, true, path + "0", false);
+    }
+
+    /**
+     * @return Known type of the node, or null.
+     */
+    final NodeAttributes.Type knownType(final String path) {
+        final Stamp stamp = snapshot.get(path);
+        return (stamp == null) ? null : stamp.type;
+    }
+
+    /**
+     * Replaces known state of a subtree with the scanned one, recording differences as events.
+     *
+     * @param path    Relative path of the scanned subtree root, empty for the whole tree.
+     * @param scanned State of the subtree, including its root unless it is the watched root.
+     */
+    final void update(final String path, final Map<String, Stamp> scanned) {
+        final NavigableMap<String, Stamp> known = subtree(path);
+        for (final Iterator<Map.Entry<String, Stamp>> it = known.entrySet().iterator(); it.hasNext(); ) {
+            final Map.Entry<String, Stamp> entry = it.next();
+            if (!entry.getKey().equals(path) && !isInSubtree(entry.getKey(), path)) {
+                continue;
+            }
+            if (!scanned.containsKey(entry.getKey())) {
+                event(NodeEvent.Kind.DELETED, entry.getKey());
+                it.remove();
+            }
+        }
+        for (final Map.Entry<String, Stamp> entry : scanned.entrySet()) {
+            final Stamp previous = snapshot.put(entry.getKey(), entry.getValue());
+            if (previous == null) {
+                event(NodeEvent.Kind.CREATED, entry.getKey());
+            } else if (previous.type != entry.getValue().type || previous.isModified(entry.getValue())) {
+                event(NodeEvent.Kind.MODIFIED, entry.getKey());
+            }
+        }
+    }
+
+    private static boolean isInSubtree(final String candidate, final String path) {
+        return path.isEmpty() || (candidate.length() > path.length() && candidate.startsWith(path)
+                && candidate.charAt(path.length()) == '/');
+    }
+
+    /**
+     * Records a single known change.
+     *
+     * @param stamp    New state of the node, or null when it was deleted together with its subtree.
+     * @param modified Whether the node is known to be modified, even if its size and modification time are the same.
+     */
+    final void changed(final String path, final Stamp stamp, final boolean modified) {
+        if (stamp == null) {
+            update(path, new TreeMap<>());
+            return;
+        }
+        final Stamp previous = snapshot.put(path, stamp);
+        if (previous == null) {
+            event(NodeEvent.Kind.CREATED, path);
+        } else if (modified || previous.type != stamp.type || previous.isModified(stamp)) {
+            event(NodeEvent.Kind.MODIFIED, path);
+        }
+    }
+
+    /**
+     * Sets initial state without reporting events.
+     */
+    final void baseline(final Map<String, Stamp> scanned) {
+        snapshot.clear();
+        snapshot.putAll(scanned);
+    }
+
+    private void event(final NodeEvent.Kind kind, final String path) {
+        final NodeEvent.Kind previous = pending.get(path);
+        final NodeEvent.Kind merged = coalesce(previous, kind);
+        if (merged == null) {
+            pending.remove(path);
+        } else {
+            pending.put(path, merged);
+        }
+    }
+
+    /**
+     * @return Kind describing both changes, or null when they cancel each other.
+     */
+    static NodeEvent.Kind coalesce(final NodeEvent.Kind previous, final NodeEvent.Kind next) {
+        if (previous == null) {
+            return next;
+        }
+        switch (previous) {
+            case CREATED:
+                return (next == NodeEvent.Kind.DELETED) ? null : NodeEvent.Kind.CREATED;
+            case DELETED:
+                return (next == NodeEvent.Kind.DELETED) ? NodeEvent.Kind.DELETED : NodeEvent.Kind.MODIFIED;
+            default:
+                return (next == NodeEvent.Kind.DELETED) ? NodeEvent.Kind.DELETED : NodeEvent.Kind.MODIFIED;
+        }
+    }
+
+    final boolean hasPending() {
+        return !pending.isEmpty();
+    }
+
+    /**
+     * Delivers pending events as one batch.
+     */
+    final void deliver() {
+        if (pending.isEmpty() || closed) {
+            pending.clear();
+            return;
+        }
+        final List<NodeEvent> batch = new ArrayList<>(pending.size());
+        for (final Map.Entry<String, NodeEvent.Kind> entry : pending.entrySet()) {
+            batch.add(new NodeEvent(entry.getValue(), entry.getKey(), root.getChild(entry.getKey())));
+        }
+        pending.clear();
+        listener.accept(batch);
+    }
+
+    /**
+     * Scans a subtree of any node with {@link INode#visitChildren}.
+     *
+     * @param node   Root of the scanned subtree.
+     * @param path   Relative path of the node.
+     * @param result Receives states of descendants.
+     */
+    static void scan(final INode node, final String path, final Map<String, Stamp> result) {
+        final List<String> directories = new ArrayList<>();
+        node.visitChildren((name, type, size, lastModified) -> {
+            final String childPath = childPath(path, name);
+            result.put(childPath, new Stamp(type, size, lastModified));
+            if (type == NodeAttributes.Type.DIRECTORY) {
+                directories.add(name);
+            }
+        });
+        for (final String name : directories) {
+            scan(node.getChild(name), childPath(path, name), result);
+        }
+    }
+
+    /**
+     * Watcher rescanning the whole subtree periodically, for any node implementation.
+     */
+    static final class Polling extends NodeWatcher {
+
+        Polling(final INode root, final long intervalMillis, final Consumer<List<NodeEvent>> listener) {
+            super(root, intervalMillis, listener);
+            final Map<String, Stamp> initial = new TreeMap<>();
+            scan(root, "", initial);
+            baseline(initial);
+        }
+
+        @Override
+        void loop() throws InterruptedException {
+            while (!closed) {
+                Thread.sleep(intervalMillis);
+                final Map<String, Stamp> scanned = new TreeMap<>();
+                scan(root, "", scanned);
+                update("", scanned);
+                deliver();
+            }
+        }
+    }
+}
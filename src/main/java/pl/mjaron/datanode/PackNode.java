@@ -0,0 +1,302 @@
+package pl.mjaron.datanode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Node of a tree stored in a {@link PackStore}.
+ * <p>
+ * Metadata and listings are served from the in-memory index. File contents are read with positional reads from
+ * segment files and written as single appended records when the output stream is closed. Missing parent directories
+ * are created by writes.
+ */
+public class PackNode implements INode {
+
+    private final PackStore store;
+    private final String path;
+
+    PackNode(final PackStore store, final String path) {
+        this.store = store;
+        this.path = path;
+    }
+
+    /**
+     * @return Store containing this node.
+     */
+    public PackStore getStore() {
+        return store;
+    }
+
+    /**
+     * Input stream reading the file with positional reads. It keeps the segment until it is closed, so it reads the
+     * content which was current when it was opened.
+     */
+    private static final class PackInputStream extends InputStream {
+        private final PackStore store;
+        private PackStore.Location location;
+        private long position = 0;
+
+        PackInputStream(final PackStore store, final PackStore.Location location) {
+            this.store = store;
+            this.location = location;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] single = new byte[1];
+            return (read(single, 0, 1) == -1) ? -1 : (single[0] & 0xFF);
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (location == null) {
+                throw new IOException("Stream is closed.");
+            }
+            if (len == 0) {
+                return 0;
+            }
+            final int count = store.read(location, position, ByteBuffer.wrap(b, off, len));
+            if (count > 0) {
+                position += count;
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(final long n) {
+            if (location == null || n <= 0) {
+                return 0;
+            }
+            final long skipped = Math.min(n, location.length - position);
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (location == null) ? 0 : (int) (location.length - position);
+        }
+
+        @Override
+        public void close() {
+            if (location != null) {
+                location.segment.release();
+                location = null;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getPath();
+    }
+
+    @Override
+    public String getName() {
+        if (path.isEmpty()) {
+            return store.getDirectory().getFileName().toString();
+        }
+        return PackStore.nameOf(path);
+    }
+
+    /**
+     * @return Path of the store directory followed by {@code !/} and the path of this node in the store.
+     */
+    @Override
+    public String getPath() {
+        if (path.isEmpty()) {
+            return store.getDirectory().toString();
+        }
+        return store.getDirectory() + "!/" + path;
+    }
+
+    @Override
+    public boolean isFile() {
+        return store.getFile(path) != null;
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return store.getDirectory(path) != null;
+    }
+
+    @Override
+    public boolean exists() {
+        return isFile() || isDirectory();
+    }
+
+    @Override
+    public INode mkdirs() {
+        store.mkdirs(path);
+        return this;
+    }
+
+    @Override
+    public INode touch() {
+        if (!exists()) {
+            store.put(path);
+        }
+        return this;
+    }
+
+    @Override
+    public INode remove() {
+        store.remove(path);
+        return this;
+    }
+
+    @Override
+    public long getSize() {
+        final PackStore.Location location = store.getFile(path);
+        return (location == null) ? 0 : location.length;
+    }
+
+    @Override
+    public long getLastModified() {
+        final PackStore.Location location = store.getFile(path);
+        if (location != null) {
+            return location.lastModified;
+        }
+        final PackStore.Directory directory = store.getDirectory(path);
+        return (directory == null) ? 0 : directory.lastModified;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        final PackStore.Location location = store.acquire(path);
+        if (location == null) {
+            throw new RuntimeException("File doesn't exist: [" + getPath() + "].");
+        }
+        return new PackInputStream(store, location);
+    }
+
+    /**
+     * Collects written data in memory and appends it to the store as a single record when the stream is closed.
+     */
+    @Override
+    public OutputStream getOutputStream() {
+        return new ByteArrayOutputStream() {
+            private boolean closed = false;
+
+            @Override
+            public void close() {
+                if (!closed) {
+                    closed = true;
+                    store.put(path, ByteBuffer.wrap(buf, 0, count));
+                }
+            }
+        };
+    }
+
+    @Override
+    public INode write(final byte[] what) {
+        store.put(path, ByteBuffer.wrap(what));
+        return this;
+    }
+
+    /**
+     * Appends the buffers to the segment with a single gathering write.
+     */
+    @Override
+    public INode write(final ByteBuffer... data) {
+        store.put(path, data);
+        return this;
+    }
+
+    @Override
+    public byte[] readBytes() {
+        final byte[] result = store.readBytes(path);
+        if (result == null) {
+            throw new RuntimeException("File doesn't exist: [" + getPath() + "].");
+        }
+        return result;
+    }
+
+    @Override
+    public int readInto(final ByteBuffer buffer) {
+        final PackStore.Location location = store.acquire(path);
+        if (location == null) {
+            throw new RuntimeException("File doesn't exist: [" + getPath() + "].");
+        }
+        try {
+            return Math.max(0, store.read(location, 0, buffer));
+        } finally {
+            location.segment.release();
+        }
+    }
+
+    @Override
+    public List<String> getChildrenNames() {
+        final PackStore.Directory directory = store.getDirectory(path);
+        if (directory == null) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(directory.children);
+    }
+
+    @Override
+    public List<INode> getChildren() {
+        final List<String> names = getChildrenNames();
+        final List<INode> result = new ArrayList<>(names.size());
+        for (final String name : names) {
+            result.add(getChild(name));
+        }
+        return result;
+    }
+
+    @Override
+    public INode getChild(final String name) {
+        final StringBuilder childPath = new StringBuilder(path);
+        for (final String part : name.split("/")) {
+            if (part.isEmpty()) {
+                continue;
+            }
+            if (childPath.length() > 0) {
+                childPath.append('/');
+            }
+            childPath.append(part);
+        }
+        return new PackNode(store, childPath.toString());
+    }
+
+    @Override
+    public File asJavaFile() {
+        return null;
+    }
+
+    @Override
+    public int getChildrenCount() {
+        final PackStore.Directory directory = store.getDirectory(path);
+        return (directory == null) ? 0 : directory.children.size();
+    }
+
+    /**
+     * Reads attributes from the in-memory index.
+     */
+    @Override
+    public void visitChildren(final ChildVisitor visitor) {
+        final PackStore.Directory directory = store.getDirectory(path);
+        if (directory == null) {
+            return;
+        }
+        for (final String name : directory.children) {
+            final String childPath = path.isEmpty() ? name : path + "/" + name;
+            final PackStore.Location location = store.getFile(childPath);
+            if (location != null) {
+                visitor.visit(name, NodeAttributes.Type.FILE, location.length, location.lastModified);
+                continue;
+            }
+            final PackStore.Directory child = store.getDirectory(childPath);
+            if (child != null) {
+                visitor.visit(name, NodeAttributes.Type.DIRECTORY, 0, child.lastModified);
+            }
+        }
+    }
+}
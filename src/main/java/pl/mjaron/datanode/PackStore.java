@@ -0,0 +1,765 @@
+package pl.mjaron.datanode;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * Container storing a whole tree of files in a few append-only segment files of a local directory.
+ * <p>
+ * Every modification appends one record to the active segment, so writing many small files costs sequential writes
+ * instead of creating a filesystem entry per file. The index of the tree (path to segment, offset and length) is kept
+ * in memory and rebuilt by replaying the segments when the store is opened. A record torn by a crash is detected with
+ * its checksum and truncated.
+ * <p>
+ * Overwritten and removed files leave garbage in their segments. When garbage exceeds given ratio of the store size,
+ * live files are copied to new segments in the background and old segments are deleted. Reads in progress keep
+ * a segment until they complete.
+ * <p>
+ * The tree is accessed with {@link #getRoot()}. Records are not forced to the storage device until {@link #sync()}
+ * or {@link #close()} is called.
+ */
+public class PackStore implements Closeable {
+
+    /**
+     * Default size above which a new segment is started.
+     */
+    public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * Default minimal amount of garbage, in bytes, which triggers compaction.
+     */
+    public static final long DEFAULT_MIN_GARBAGE = 16L * 1024 * 1024;
+
+    /**
+     * Default ratio of garbage to the store size, which triggers compaction.
+     */
+    public static final double DEFAULT_GARBAGE_RATIO = 0.5;
+
+    private static final String SEGMENT_SUFFIX = ".pack";
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final byte MKDIR = 3;
+
+    /**
+     * Kind (1), path length (4), data length (4), modification time (8).
+     */
+    private static final int HEADER_SIZE = 17;
+    private static final int CRC_SIZE = 4;
+
+    /**
+     * Segment files are named with 16 hexadecimal digits of their id, so they are replayed in the order of ids.
+     * Segments created by writes have ids with zero lower 16 bits, compaction outputs are numbered right after the
+     * newest compacted segment.
+     */
+    private static final int SUB_BITS = 16;
+
+    /**
+     * Set in the reference count of a segment, which is being deleted.
+     */
+    private static final int RETIRED = 1 << 30;
+
+    static final class Segment {
+        final long id;
+        final Path path;
+        final FileChannel channel;
+        final AtomicLong size = new AtomicLong();
+        final AtomicLong garbage = new AtomicLong();
+        private final AtomicInteger references = new AtomicInteger();
+
+        Segment(final long id, final Path path, final FileChannel channel, final long size) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.size.set(size);
+        }
+
+        /**
+         * @return False when the segment is being deleted.
+         */
+        boolean acquire() {
+            while (true) {
+                final int count = references.get();
+                if ((count & RETIRED) != 0) {
+                    return false;
+                }
+                if (references.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void release() {
+            if (references.decrementAndGet() == RETIRED) {
+                delete();
+            }
+        }
+
+        /**
+         * Deletes the segment when the last reader releases it.
+         */
+        void retire() {
+            while (true) {
+                final int count = references.get();
+                if (references.compareAndSet(count, count | RETIRED)) {
+                    if (count == 0) {
+                        delete();
+                    }
+                    return;
+                }
+            }
+        }
+
+        private void delete() {
+            try {
+                channel.close();
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to delete pack segment: [" + path + "].", e);
+            }
+        }
+    }
+
+    /**
+     * Position of file data in a segment.
+     */
+    static final class Location {
+        final Segment segment;
+        final long offset;
+        final int length;
+        final long lastModified;
+        final int recordSize;
+
+        Location(final Segment segment, final long offset, final int length, final long lastModified, final int recordSize) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.recordSize = recordSize;
+        }
+    }
+
+    static final class Directory {
+        final NavigableSet<String> children = new ConcurrentSkipListSet<>();
+        volatile long lastModified;
+
+        Directory(final long lastModified) {
+            this.lastModified = lastModified;
+        }
+    }
+
+    private final Path directory;
+    private final long segmentSize;
+    private final long minGarbage;
+    private final double garbageRatio;
+
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final Map<String, Location> files = new ConcurrentHashMap<>();
+    private final Map<String, Directory> directories = new ConcurrentHashMap<>();
+
+    /**
+     * Guards appending and modifications of the index.
+     */
+    private final Object writeLock = new Object();
+    private final Object compactionLock = new Object();
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean(false);
+    private final ExecutorService compactor;
+    private Segment active = null;
+    private volatile boolean closed = false;
+
+    /**
+     * Opens the store with default segment size and compaction thresholds.
+     *
+     * @param directory Local directory of segment files, created when it doesn't exist.
+     */
+    public PackStore(final Path directory) {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_MIN_GARBAGE, DEFAULT_GARBAGE_RATIO);
+    }
+
+    /**
+     * @param directory    Local directory of segment files, created when it doesn't exist.
+     * @param segmentSize  Size above which a new segment is started.
+     * @param minGarbage   Minimal amount of garbage, in bytes, which triggers background compaction.
+     * @param garbageRatio Ratio of garbage to the store size, which triggers background compaction. Values above 1
+     *                     disable it.
+     * @throws RuntimeException when existing segments can't be read.
+     */
+    public PackStore(final Path directory, final long segmentSize, final long minGarbage, final double garbageRatio) {
+        this.directory = directory.toAbsolutePath();
+        this.segmentSize = segmentSize;
+        this.minGarbage = minGarbage;
+        this.garbageRatio = garbageRatio;
+        this.directories.put("", new Directory(0));
+        try {
+            Files.createDirectories(this.directory);
+            final List<Path> paths = new ArrayList<>();
+            try (final DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory, "*" + SEGMENT_SUFFIX)) {
+                for (final Path path : stream) {
+                    paths.add(path);
+                }
+            }
+            paths.sort(null);
+            for (final Path path : paths) {
+                final String name = path.getFileName().toString();
+                final long id = Long.parseUnsignedLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()), 16);
+                replay(openSegment(id, path));
+            }
+        } catch (IOException | RuntimeException e) {
+            closeSegments();
+            throw new RuntimeException("Failed to open pack store: [" + this.directory + "].", e);
+        }
+        this.compactor = Executors.newSingleThreadExecutor(NodeExecutors.daemonThreadFactory("datanode-pack-compaction-"));
+    }
+
+    /**
+     * @return Root directory of the stored tree.
+     */
+    public PackNode getRoot() {
+        return new PackNode(this, "");
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    public int getFileCount() {
+        return files.size();
+    }
+
+    /**
+     * @return Total size of all segments.
+     */
+    public long getSize() {
+        long result = 0;
+        for (final Segment segment : segments.values()) {
+            result += segment.size.get();
+        }
+        return result;
+    }
+
+    /**
+     * @return Size of overwritten and removed records.
+     */
+    public long getGarbage() {
+        long result = 0;
+        for (final Segment segment : segments.values()) {
+            result += segment.garbage.get();
+        }
+        return result;
+    }
+
+    private Segment openSegment(final long id, final Path path) throws IOException {
+        final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        final Segment segment = new Segment(id, path, channel, channel.size());
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private Segment newSegment(final long id) throws IOException {
+        return openSegment(id, directory.resolve(String.format("%016x", id) + SEGMENT_SUFFIX));
+    }
+
+    private long nextBaseId() {
+        final Long last = segments.isEmpty() ? null : segments.lastKey();
+        return (last == null) ? (1L << SUB_BITS) : ((last >>> SUB_BITS) + 1) << SUB_BITS;
+    }
+
+    // Replay.
+
+    /**
+     * Applies all records of the segment to the index, truncates the segment after the last valid record.
+     */
+    private void replay(final Segment segment) throws IOException {
+        final long size = segment.channel.size();
+        long position = 0;
+        final CRC32 crc = new CRC32();
+        final BufferedInputStream buffered = new BufferedInputStream(Channels.newInputStream(segment.channel.position(0)), NodeIo.BUFFER_SIZE);
+        final DataInputStream checked = new DataInputStream(new CheckedInputStream(buffered, crc));
+        final DataInputStream raw = new DataInputStream(buffered);
+        final byte[] skipBuffer = new byte[8192];
+        while (position < size) {
+            crc.reset();
+            try {
+                final byte kind = checked.readByte();
+                final int pathLength = checked.readInt();
+                final int dataLength = checked.readInt();
+                final long lastModified = checked.readLong();
+                if (kind < PUT || kind > MKDIR || pathLength < 0 || dataLength < 0
+                        || position + HEADER_SIZE + (long) pathLength + dataLength + CRC_SIZE > size) {
+                    break;
+                }
+                final byte[] pathBytes = new byte[pathLength];
+                checked.readFully(pathBytes);
+                for (int remaining = dataLength; remaining > 0; ) {
+                    final int count = checked.read(skipBuffer, 0, Math.min(remaining, skipBuffer.length));
+                    if (count < 0) {
+                        throw new EOFException();
+                    }
+                    remaining -= count;
+                }
+                if (raw.readInt() != (int) crc.getValue()) {
+                    break;
+                }
+                final String path = new String(pathBytes, StandardCharsets.UTF_8);
+                final int recordSize = HEADER_SIZE + pathLength + dataLength + CRC_SIZE;
+                apply(kind, path, new Location(segment, position + HEADER_SIZE + pathLength, dataLength, lastModified, recordSize));
+                position += recordSize;
+            } catch (EOFException e) {
+                break;
+            }
+        }
+        if (position < size) {
+            segment.channel.truncate(position);
+            segment.size.set(position);
+        }
+        segment.channel.position(position);
+    }
+
+    private void apply(final byte kind, final String path, final Location location) {
+        if (kind == PUT) {
+            putFile(path, location);
+        } else if (kind == DELETE) {
+            location.segment.garbage.addAndGet(location.recordSize);
+            removePath(path);
+        } else {
+            ensureDirectory(path, location.lastModified);
+        }
+    }
+
+    // Index, modified under the write lock or during replay.
+
+    static String parentOf(final String path) {
+        final int slash = path.lastIndexOf('/');
+        return (slash < 0) ? "" : path.substring(0, slash);
+    }
+
+    static String nameOf(final String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    private Directory ensureDirectory(final String path, final long lastModified) {
+        Directory result = directories.get(path);
+        if (result != null) {
+            return result;
+        }
+        final Directory parent = ensureDirectory(parentOf(path), lastModified);
+        result = new Directory(lastModified);
+        directories.put(path, result);
+        parent.children.add(nameOf(path));
+        parent.lastModified = lastModified;
+        return result;
+    }
+
+    private void putFile(final String path, final Location location) {
+        final Location previous = files.put(path, location);
+        if (previous != null) {
+            previous.segment.garbage.addAndGet(previous.recordSize);
+        } else {
+            final Directory parent = ensureDirectory(parentOf(path), location.lastModified);
+            parent.children.add(nameOf(path));
+            parent.lastModified = location.lastModified;
+        }
+    }
+
+    private void removePath(final String path) {
+        final Location location = files.remove(path);
+        if (location != null) {
+            location.segment.garbage.addAndGet(location.recordSize);
+        } else {
+            final Directory removed = path.isEmpty() ? directories.get(path) : directories.remove(path);
+            if (removed == null) {
+                return;
+            }
+            for (final String child : removed.children) {
+                removePath(path.isEmpty() ? child : path + "/" + child);
+            }
+            removed.children.clear();
+        }
+        if (!path.isEmpty()) {
+            final Directory parent = directories.get(parentOf(path));
+            if (parent != null) {
+                parent.children.remove(nameOf(path));
+            }
+        }
+    }
+
+    /**
+     * Checks that no ancestor of the path is a file.
+     */
+    private void checkParents(final String path) {
+        for (String parent = parentOf(path); !parent.isEmpty(); parent = parentOf(parent)) {
+            if (files.containsKey(parent)) {
+                throw new RuntimeException("Parent is a file: [" + directory + "!/" + parent + "].");
+            }
+        }
+    }
+
+    // Appending.
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Pack store is closed: [" + directory + "].");
+        }
+    }
+
+    /**
+     * Appends a record with a gathering write. Positions of the data buffers are advanced to their limits.
+     *
+     * @return Location of the record data.
+     */
+    private Location append(final Segment segment, final byte kind, final String path, final long lastModified,
+                            final ByteBuffer... data) throws IOException {
+        final byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+        long length = 0;
+        for (final ByteBuffer buffer : data) {
+            length += buffer.remaining();
+        }
+        if (length > Integer.MAX_VALUE - HEADER_SIZE - CRC_SIZE - pathBytes.length) {
+            throw new IOException("Pack store file cannot exceed " + Integer.MAX_VALUE + " bytes.");
+        }
+        final int dataLength = (int) length;
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + pathBytes.length);
+        header.put(kind).putInt(pathBytes.length).putInt(dataLength).putLong(lastModified).put(pathBytes).flip();
+        final CRC32 crc = new CRC32();
+        crc.update(header.array(), 0, header.limit());
+        final ByteBuffer[] buffers = new ByteBuffer[data.length + 2];
+        buffers[0] = header;
+        for (int i = 0; i < data.length; ++i) {
+            crc.update(data[i].duplicate());
+            buffers[i + 1] = data[i];
+        }
+        final ByteBuffer checksum = ByteBuffer.allocate(CRC_SIZE).putInt((int) crc.getValue());
+        checksum.flip();
+        buffers[buffers.length - 1] = checksum;
+        final long position = segment.size.get();
+        final int recordSize = header.remaining() + dataLength + CRC_SIZE;
+        try {
+            NodeIo.writeFully(segment.channel, buffers);
+        } catch (IOException e) {
+            // Drops the torn record, so next records start where locations and replay expect them.
+            try {
+                segment.channel.truncate(position);
+                segment.channel.position(position);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+                // The torn record stays at the end of this segment, where replay drops it.
+                if (segment == active) {
+                    active = null;
+                }
+            }
+            throw e;
+        }
+        segment.size.addAndGet(recordSize);
+        return new Location(segment, position + header.limit(), dataLength, lastModified, recordSize);
+    }
+
+    /**
+     * @return Active segment, a new one when it is full or there is none.
+     */
+    private Segment activeSegment() throws IOException {
+        if (active == null || active.size.get() >= segmentSize) {
+            active = newSegment(nextBaseId());
+        }
+        return active;
+    }
+
+    void put(final String path, final ByteBuffer... data) {
+        synchronized (writeLock) {
+            checkOpen();
+            if (directories.containsKey(path)) {
+                throw new RuntimeException("Cannot write a directory: [" + directory + "!/" + path + "].");
+            }
+            checkParents(path);
+            try {
+                putFile(path, append(activeSegment(), PUT, path, System.currentTimeMillis(), data));
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to write pack store: [" + directory + "!/" + path + "].", e);
+            }
+        }
+        maybeCompact();
+    }
+
+    void mkdirs(final String path) {
+        synchronized (writeLock) {
+            checkOpen();
+            if (directories.containsKey(path) || files.containsKey(path)) {
+                return;
+            }
+            checkParents(path);
+            try {
+                final Location location = append(activeSegment(), MKDIR, path, System.currentTimeMillis());
+                ensureDirectory(path, location.lastModified);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to write pack store: [" + directory + "!/" + path + "].", e);
+            }
+        }
+    }
+
+    void remove(final String path) {
+        synchronized (writeLock) {
+            checkOpen();
+            if (!files.containsKey(path) && !directories.containsKey(path)) {
+                return;
+            }
+            try {
+                final Location location = append(activeSegment(), DELETE, path, System.currentTimeMillis());
+                location.segment.garbage.addAndGet(location.recordSize);
+                removePath(path);
+                if (!path.isEmpty()) {
+                    final Directory parent = directories.get(parentOf(path));
+                    if (parent != null) {
+                        parent.lastModified = location.lastModified;
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to write pack store: [" + directory + "!/" + path + "].", e);
+            }
+        }
+        maybeCompact();
+    }
+
+    // Reading.
+
+    Location getFile(final String path) {
+        return files.get(path);
+    }
+
+    Directory getDirectory(final String path) {
+        return directories.get(path);
+    }
+
+    /**
+     * @return Location of the file with its segment acquired, which must be released, or null when there is no such
+     * file.
+     */
+    Location acquire(final String path) {
+        while (true) {
+            final Location location = files.get(path);
+            if (location == null || location.segment.acquire()) {
+                return location;
+            }
+            // Segment has been compacted, the index already points to the new location.
+        }
+    }
+
+    /**
+     * Reads with positional reads, so concurrent readers don't interfere.
+     *
+     * @param location Location acquired with {@link #acquire(String)}.
+     * @param position Position in the file data.
+     * @return Count of read bytes, -1 at the end of the file.
+     */
+    int read(final Location location, final long position, final ByteBuffer destination) {
+        if (position >= location.length) {
+            return -1;
+        }
+        final int limit = destination.limit();
+        destination.limit((int) Math.min(limit, destination.position() + (location.length - position)));
+        try {
+            int total = 0;
+            while (destination.hasRemaining()) {
+                final int count = location.segment.channel.read(destination, location.offset + position + total);
+                if (count < 0) {
+                    throw new EOFException("Pack segment is shorter than its index: [" + location.segment.path + "].");
+                }
+                total += count;
+            }
+            return total;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read pack segment: [" + location.segment.path + "].", e);
+        } finally {
+            destination.limit(limit);
+        }
+    }
+
+    /**
+     * @return Content of the file, null when there is no such file.
+     */
+    byte[] readBytes(final String path) {
+        final Location location = acquire(path);
+        if (location == null) {
+            return null;
+        }
+        try {
+            final byte[] result = new byte[location.length];
+            read(location, 0, ByteBuffer.wrap(result));
+            return result;
+        } finally {
+            location.segment.release();
+        }
+    }
+
+    // Compaction.
+
+    private void maybeCompact() {
+        if (garbageRatio > 1 || compactionScheduled.get()) {
+            return;
+        }
+        final long garbage = getGarbage();
+        if (garbage < minGarbage || garbage < garbageRatio * getSize()) {
+            return;
+        }
+        if (compactionScheduled.compareAndSet(false, true)) {
+            try {
+                compactor.execute(this::compactInBackground);
+            } catch (RejectedExecutionException e) {
+                // Store is being closed.
+                compactionScheduled.set(false);
+            }
+        }
+    }
+
+    private void compactInBackground() {
+        try {
+            if (!closed) {
+                compact();
+            }
+        } catch (IllegalStateException e) {
+            // Store has been closed meanwhile.
+        } finally {
+            compactionScheduled.set(false);
+        }
+        if (!closed) {
+            // Garbage made during the compaction.
+            maybeCompact();
+        }
+    }
+
+    /**
+     * Copies live files of all segments to new segments and deletes the old ones. Writes made concurrently go to
+     * a new active segment. Normally called in the background, when garbage exceeds the configured ratio.
+     */
+    public void compact() {
+        synchronized (compactionLock) {
+            final List<Segment> compacted;
+            final long firstOutputId;
+            synchronized (writeLock) {
+                checkOpen();
+                compacted = new ArrayList<>(segments.values());
+                if (compacted.isEmpty()) {
+                    return;
+                }
+                firstOutputId = compacted.get(compacted.size() - 1).id + 1;
+                active = null;
+            }
+            final List<Segment> outputs = new ArrayList<>();
+            try {
+                Segment output = null;
+                for (final String path : new ArrayList<>(files.keySet())) {
+                    synchronized (writeLock) {
+                        checkOpen();
+                        final Location location = files.get(path);
+                        if (location == null || !compacted.contains(location.segment)) {
+                            continue;
+                        }
+                        final ByteBuffer data = ByteBuffer.allocate(location.length);
+                        read(location, 0, data);
+                        data.flip();
+                        if (output == null || output.size.get() >= segmentSize) {
+                            output = newSegment(firstOutputId + outputs.size());
+                            outputs.add(output);
+                        }
+                        files.put(path, append(output, PUT, path, location.lastModified, data));
+                    }
+                }
+                synchronized (writeLock) {
+                    checkOpen();
+                    for (final Map.Entry<String, Directory> entry : directories.entrySet()) {
+                        if (entry.getKey().isEmpty() || !entry.getValue().children.isEmpty()) {
+                            continue;
+                        }
+                        if (output == null) {
+                            output = newSegment(firstOutputId + outputs.size());
+                            outputs.add(output);
+                        }
+                        append(output, MKDIR, entry.getKey(), entry.getValue().lastModified);
+                    }
+                }
+                for (final Segment segment : outputs) {
+                    segment.channel.force(true);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to compact pack store: [" + directory + "].", e);
+            }
+            synchronized (writeLock) {
+                for (final Segment segment : compacted) {
+                    segments.remove(segment.id);
+                    segment.retire();
+                }
+            }
+        }
+    }
+
+    /**
+     * Forces written records to the storage device.
+     */
+    public void sync() {
+        for (final Segment segment : segments.values()) {
+            try {
+                segment.channel.force(false);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to sync pack segment: [" + segment.path + "].", e);
+            }
+        }
+    }
+
+    private void closeSegments() {
+        for (final Segment segment : segments.values()) {
+            try {
+                segment.channel.close();
+            } catch (IOException ignored) {
+                // Closing anyway.
+            }
+        }
+    }
+
+    /**
+     * Syncs and closes all segments. Nodes of this store can't be used anymore.
+     */
+    @Override
+    public void close() {
+        compactor.shutdown();
+        synchronized (compactionLock) {
+            synchronized (writeLock) {
+                if (closed) {
+                    return;
+                }
+                try {
+                    sync();
+                } finally {
+                    closed = true;
+                    closeSegments();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package pl.mjaron.datanode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Compresses blocks of written data independently and concurrently, and writes them in order, so the output is
+ * a concatenation of compressed streams, like pigz does with gzip members. Count of blocks being compressed is
+ * limited, so memory use doesn't depend on the written size.
+ */
+final class ParallelCompressionOutputStream extends OutputStream {
+
+    private final OutputStream out;
+    private final CompressionCodec codec;
+    private final int blockSize;
+    private final int maxPending;
+    private final Executor executor;
+    private final Deque<CompletableFuture<byte[]>> pending = new ArrayDeque<>();
+    private byte[] block;
+    private int count = 0;
+    private boolean written = false;
+    private boolean closed = false;
+
+    /**
+     * @param out        Stream receiving the compressed blocks.
+     * @param codec      Codec with {@link CompressionCodec#isConcatenable()}.
+     * @param blockSize  Count of uncompressed bytes in a block.
+     * @param maxPending Maximal count of blocks being compressed.
+     * @param executor   Executor compressing the blocks.
+     */
+    ParallelCompressionOutputStream(final OutputStream out, final CompressionCodec codec, final int blockSize,
+                                    final int maxPending, final Executor executor) {
+        this.out = out;
+        this.codec = codec;
+        this.blockSize = blockSize;
+        this.maxPending = maxPending;
+        this.executor = executor;
+        // Grown when needed, so small contents don't allocate whole blocks.
+        this.block = new byte[Math.min(blockSize, NodeIo.BUFFER_SIZE)];
+    }
+
+    private byte[] compress(final byte[] data, final int length) {
+        final ByteArrayOutputStream result = new ByteArrayOutputStream(length / 2 + 64);
+        try (final OutputStream compressing = codec.compress(result)) {
+            compressing.write(data, 0, length);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to compress a block with " + codec + ".", e);
+        }
+        return result.toByteArray();
+    }
+
+    private void writeHead() throws IOException {
+        final byte[] compressed;
+        try {
+            compressed = pending.removeFirst().join();
+        } catch (CompletionException e) {
+            throw new IOException("Block compression failed.", e.getCause());
+        }
+        out.write(compressed);
+    }
+
+    private void submitBlock() throws IOException {
+        final byte[] data = block;
+        final int length = count;
+        pending.addLast(CompletableFuture.supplyAsync(() -> compress(data, length), executor));
+        written = true;
+        block = new byte[blockSize];
+        count = 0;
+        while (pending.size() > maxPending) {
+            writeHead();
+        }
+    }
+
+    /**
+     * Grows the block buffer, or submits the block when it is full.
+     */
+    private void blockFilled() throws IOException {
+        if (block.length < blockSize) {
+            block = Arrays.copyOf(block, (int) Math.min((long) block.length * 2, blockSize));
+        } else {
+            submitBlock();
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream is closed.");
+        }
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        ensureOpen();
+        block[count++] = (byte) b;
+        if (count == block.length) {
+            blockFilled();
+        }
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        ensureOpen();
+        int offset = off;
+        int remaining = len;
+        while (remaining > 0) {
+            final int chunk = Math.min(remaining, block.length - count);
+            System.arraycopy(b, offset, block, count, chunk);
+            count += chunk;
+            offset += chunk;
+            remaining -= chunk;
+            if (count == block.length) {
+                blockFilled();
+            }
+        }
+    }
+
+    /**
+     * Writes blocks which are already compressed. The incomplete block is kept, so flushing doesn't make the
+     * compression worse.
+     */
+    @Override
+    public void flush() throws IOException {
+        while (!pending.isEmpty() && pending.peekFirst().isDone()) {
+            writeHead();
+        }
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (count > 0 || !written) {
+                // Empty content is written as one empty compressed stream, so it can be decompressed.
+                pending.addLast(CompletableFuture.completedFuture(compress(block, count)));
+            }
+            while (!pending.isEmpty()) {
+                writeHead();
+            }
+        } finally {
+            block = null;
+            out.close();
+        }
+    }
+}
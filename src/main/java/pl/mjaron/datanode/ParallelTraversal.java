@@ -0,0 +1,169 @@
+package pl.mjaron.datanode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lists sibling directories concurrently while collecting descendants of a node.
+ * <p>
+ * Directories found during the walk are queued and listed by up to {@code parallelism} workers running on given
+ * executor, e.g. a {@link java.util.concurrent.ForkJoinPool} or a {@link BulkExecutor}. The calling thread is one of
+ * the workers. It waits for the others with {@link ForkJoinPool#managedBlock}, so a traversal started inside a
+ * {@link ForkJoinPool}, e.g. the common pool, doesn't starve workers queued in the same pool. When the calling thread
+ * is interrupted, the workers stop listing further directories. Result contains the same nodes as the sequential
+ * {@link INode#getDescendants()} or {@link INode#getFileDescendants()}, but in no particular order.
+ */
+public class ParallelTraversal {
+
+    private final Executor executor;
+    private final int parallelism;
+
+    /**
+     * @param executor    Executor running the workers.
+     * @param parallelism Maximal count of directories listed at the same time.
+     */
+    public ParallelTraversal(final Executor executor, final int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive: [" + parallelism + "].");
+        }
+        this.executor = executor;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Uses {@link BulkExecutor#getDefault()}.
+     *
+     * @param parallelism Maximal count of directories listed at the same time.
+     */
+    public ParallelTraversal(final int parallelism) {
+        this(BulkExecutor.getDefault(), parallelism);
+    }
+
+    /**
+     * Uses {@link BulkExecutor#getDefault()} with its per-store limit as the parallelism.
+     */
+    public ParallelTraversal() {
+        this(BulkExecutor.getDefault().getPerStoreLimit());
+    }
+
+    /**
+     * @param root Node which descendants are collected.
+     * @return All nodes found under the root, including directories.
+     */
+    public List<INode> getDescendants(final INode root) {
+        return new Walk(true).run(root);
+    }
+
+    /**
+     * @param root Node which descendants are collected.
+     * @return All nodes found under the root which are files.
+     */
+    public List<INode> getFileDescendants(final INode root) {
+        return new Walk(false).run(root);
+    }
+
+    private class Walk implements Runnable, ForkJoinPool.ManagedBlocker {
+
+        private final boolean withDirectories;
+        private final Queue<INode> directories = new ConcurrentLinkedQueue<>();
+        private final Queue<INode> result = new ConcurrentLinkedQueue<>();
+
+        /**
+         * Count of queued directories which are not listed yet.
+         */
+        private final AtomicInteger pending = new AtomicInteger(0);
+        private final AtomicInteger workers = new AtomicInteger(0);
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile RuntimeException failure = null;
+        private volatile boolean cancelled = false;
+
+        Walk(final boolean withDirectories) {
+            this.withDirectories = withDirectories;
+        }
+
+        List<INode> run(final INode root) {
+            pending.incrementAndGet();
+            directories.add(root);
+            workers.incrementAndGet();
+            this.run();
+            try {
+                ForkJoinPool.managedBlock(this);
+            } catch (InterruptedException e) {
+                cancelled = true;
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for the traversal.", e);
+            }
+            if (failure != null) {
+                throw new RuntimeException("Parallel traversal failed.", failure);
+            }
+            return new ArrayList<>(result);
+        }
+
+        @Override
+        public boolean block() throws InterruptedException {
+            done.await();
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return done.getCount() == 0;
+        }
+
+        private void spawnIfIdle() {
+            if (cancelled) {
+                return;
+            }
+            while (true) {
+                final int current = workers.get();
+                if (current >= parallelism) {
+                    return;
+                }
+                if (workers.compareAndSet(current, current + 1)) {
+                    break;
+                }
+            }
+            try {
+                executor.execute(this);
+            } catch (RuntimeException e) {
+                workers.decrementAndGet();
+                throw e;
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                INode directory;
+                while (failure == null && !cancelled && (directory = directories.poll()) != null) {
+                    for (final INode child : directory.getChildren()) {
+                        if (child.isFile()) {
+                            result.add(child);
+                            continue;
+                        }
+                        if (withDirectories) {
+                            result.add(child);
+                        }
+                        pending.incrementAndGet();
+                        directories.add(child);
+                        spawnIfIdle();
+                    }
+                    if (pending.decrementAndGet() == 0) {
+                        done.countDown();
+                    }
+                }
+            } catch (RuntimeException e) {
+                failure = e;
+                done.countDown();
+            } finally {
+                workers.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,459 @@
+package pl.mjaron.datanode;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Node implementation based on {@link java.nio.file.Path}.
+ * <p>
+ * Children listed by {@link #getChildren()} or found by {@link #getDescendants()} carry the {@link BasicFileAttributes}
+ * read during the listing, so {@link #isFile()}, {@link #isDirectory()}, {@link #exists()} and {@link #getSize()}
+ * called on them don't touch the filesystem again. Cached attributes are a snapshot taken at listing time, they are
+ * dropped by every modifying operation made through this node or explicitly by {@link #refresh()}. Nodes created
+ * directly, e.g. by the constructors or {@link #getChild(String)}, read attributes from the filesystem on every call.
+ */
+public class PathNode implements INode {
+
+    private final Path path;
+
+    /**
+     * Snapshot taken by a listing, or null when attributes are read on every call.
+     */
+    private volatile BasicFileAttributes attributes;
+
+    public PathNode(final Path path) {
+        this(path, null);
+    }
+
+    public PathNode(final String path) {
+        this(Paths.get(path));
+    }
+
+    PathNode(final Path path, final BasicFileAttributes attributes) {
+        this.path = path;
+        this.attributes = attributes;
+    }
+
+    /**
+     * @return Path which this node is based on.
+     */
+    public Path asJavaPath() {
+        return path;
+    }
+
+    /**
+     * Drops attributes cached by a listing, so next metadata call reads the filesystem again.
+     *
+     * @return This reference.
+     */
+    public PathNode refresh() {
+        attributes = null;
+        return this;
+    }
+
+    /**
+     * @return Attributes of this node, or null if this node doesn't exist. Nodes which were not created by a listing
+     * read the filesystem every time.
+     */
+    private BasicFileAttributes attributes() {
+        final BasicFileAttributes snapshot = attributes;
+        if (snapshot != null) {
+            return snapshot;
+        }
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (final NoSuchFileException e) {
+            return null;
+        } catch (final IOException e) {
+            throw new RuntimeException("Failed to read attributes: [" + path + "].", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.getPath();
+    }
+
+    @Override
+    public String getName() {
+        final Path fileName = path.getFileName();
+        if (fileName == null) {
+            return "";
+        }
+        return fileName.toString();
+    }
+
+    @Override
+    public String getPath() {
+        return path.toAbsolutePath().toString();
+    }
+
+    @Override
+    public boolean isFile() {
+        final BasicFileAttributes a = attributes();
+        return a != null && a.isRegularFile();
+    }
+
+    @Override
+    public boolean isDirectory() {
+        final BasicFileAttributes a = attributes();
+        return a != null && a.isDirectory();
+    }
+
+    @Override
+    public boolean exists() {
+        return attributes() != null;
+    }
+
+    @Override
+    public INode mkdirs() {
+        refresh();
+        try {
+            Files.createDirectories(path);
+            return this;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to create directories.", e);
+        }
+    }
+
+    @Override
+    public INode touch() {
+        refresh();
+        try {
+            Files.createFile(path);
+        } catch (final FileAlreadyExistsException ignored) {
+            // Same behavior as File.createNewFile().
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to create a new file.", e);
+        }
+        return this;
+    }
+
+    @Override
+    public INode remove() {
+        refresh();
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            return this;
+        }
+        try {
+            Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    Files.delete(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                    if (exc != null) {
+                        throw exc;
+                    }
+                    Files.delete(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to remove: [" + path + "].", e);
+        }
+        return this;
+    }
+
+    @Override
+    public long getSize() {
+        final BasicFileAttributes a = attributes();
+        if (a == null) {
+            return 0;
+        }
+        return a.size();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        try {
+            return Files.newInputStream(path);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to create input stream.", e);
+        }
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        refresh();
+        try {
+            return Files.newOutputStream(path);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to create output stream.", e);
+        }
+    }
+
+    @Override
+    public List<String> getChildrenNames() {
+        return NodeIo.listNames(path);
+    }
+
+    @Override
+    public List<INode> getChildren() {
+        final List<INode> result = new ArrayList<>();
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+            for (final Path childPath : stream) {
+                result.add(listedChild(childPath));
+            }
+        } catch (NoSuchFileException | NotDirectoryException ignored) {
+            // Same as File.listFiles() returning null.
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to list directory: [" + path + "].", e);
+        }
+        return result;
+    }
+
+    /**
+     * Filters names with {@link DirectoryStream.Filter}, so nodes and attributes are read only for matching children.
+     */
+    @Override
+    public List<INode> getChildren(final Predicate<String> nameFilter) {
+        final List<INode> result = new ArrayList<>();
+        for (final Path childPath : NodeIo.listMatching(path, nameFilter)) {
+            result.add(listedChild(childPath));
+        }
+        return result;
+    }
+
+    /**
+     * Creates child node for a path found in a directory listing, reading its attributes at once.
+     */
+    private static PathNode listedChild(final Path childPath) {
+        try {
+            return new PathNode(childPath, Files.readAttributes(childPath, BasicFileAttributes.class));
+        } catch (IOException e) {
+            // Removed in the meantime or broken link, attributes will be read on demand.
+            return new PathNode(childPath);
+        }
+    }
+
+    @Override
+    public INode getChild(String name) {
+        return new PathNode(path.resolve(name));
+    }
+
+    @Override
+    public File asJavaFile() {
+        return path.toFile();
+    }
+
+    @Override
+    public int getChildrenCount() {
+        return NodeIo.countEntries(path);
+    }
+
+    @Override
+    public long getLastModified() {
+        final BasicFileAttributes a = attributes();
+        if (a == null) {
+            return 0;
+        }
+        return a.lastModifiedTime().toMillis();
+    }
+
+    /**
+     * Reads all attributes with a single filesystem call.
+     */
+    @Override
+    public NodeAttributes getAttributes() {
+        final BasicFileAttributes a = attributes();
+        if (a == null) {
+            return null;
+        }
+        final NodeAttributes.Type type = NodeIo.typeOf(a);
+        return new NodeAttributes(getName(), type, (type == NodeAttributes.Type.FILE) ? a.size() : 0,
+                a.lastModifiedTime().toMillis());
+    }
+
+    @Override
+    public void visitChildren(final ChildVisitor visitor) {
+        NodeIo.visitChildren(path, visitor);
+    }
+
+    @Override
+    public void getFileDescendants(final List<INode> result) {
+        walk(result, false);
+    }
+
+    @Override
+    public void getDescendants(final List<INode> result) {
+        walk(result, true);
+    }
+
+    /**
+     * Walks the tree with {@link Files#walkFileTree}, which provides attributes of each visited entry. Symbolic links
+     * are followed, like by {@link #getChildren()}, so linked files are found and linked directories are descended
+     * into. A link to an ancestor directory is reported, but not descended into again.
+     *
+     * @param result          Found nodes.
+     * @param withDirectories Whether to add directories to the result.
+     */
+    private void walk(final List<INode> result, final boolean withDirectories) {
+        if (!isDirectory()) {
+            return;
+        }
+        try {
+            Files.walkFileTree(path, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    if (withDirectories && !dir.equals(path)) {
+                        result.add(new PathNode(dir, attrs));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (withDirectories || attrs.isRegularFile()) {
+                        result.add(new PathNode(file, attrs));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    if (withDirectories && exc instanceof FileSystemLoopException) {
+                        result.add(new PathNode(file));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to walk directory: [" + path + "].", e);
+        }
+    }
+
+    /**
+     * Watches with the {@link java.nio.file.WatchService} of the filesystem, falls back to polling when it is not
+     * available.
+     */
+    @Override
+    public NodeWatcher watch(final long intervalMillis, final Consumer<List<NodeEvent>> listener) {
+        return FileSystemWatcher.create(this, path, intervalMillis, listener);
+    }
+
+    /**
+     * When the target is on the local filesystem, copies with {@link java.nio.channels.FileChannel#transferTo}, which
+     * lets the operating system copy the data without passing it through the Java heap.
+     */
+    @Override
+    public INode copyTo(final INode target) {
+        final Path targetPath = NodeIo.localPath(target);
+        if (targetPath == null) {
+            return INode.super.copyTo(target);
+        }
+        NodeIo.copyLocal(path, targetPath);
+        NodeIo.modified(target);
+        return target;
+    }
+
+    /**
+     * When the target is on the local filesystem, renames atomically if possible.
+     */
+    @Override
+    public INode moveTo(final INode target) {
+        final Path targetPath = NodeIo.localPath(target);
+        if (targetPath == null) {
+            return INode.super.moveTo(target);
+        }
+        refresh();
+        NodeIo.moveLocal(path, targetPath);
+        NodeIo.modified(target);
+        return target;
+    }
+
+    /**
+     * Writes with a single gathering write of a file channel.
+     */
+    @Override
+    public INode write(final ByteBuffer... data) {
+        try {
+            NodeIo.write(path, false, data);
+        } finally {
+            refresh();
+        }
+        return this;
+    }
+
+    /**
+     * Appends with a single gathering write of a file channel.
+     */
+    @Override
+    public INode append(final ByteBuffer... data) {
+        try {
+            NodeIo.write(path, true, data);
+        } finally {
+            refresh();
+        }
+        return this;
+    }
+
+    /**
+     * Writes a temporary sibling, forces it to the storage device, renames it over this file and forces the
+     * directory.
+     */
+    @Override
+    public INode writeAtomic(final byte[] what) {
+        try {
+            NodeIo.writeAtomic(path, true, ByteBuffer.wrap(what));
+        } finally {
+            refresh();
+        }
+        return this;
+    }
+
+    /**
+     * Maps large files to memory, so they are hashed without copying their content to the Java heap.
+     */
+    @Override
+    public byte[] hash(final String algorithm) {
+        return NodeIo.hash(path, algorithm);
+    }
+
+    /**
+     * Memory-maps the region, so it is read by the operating system on demand, without copying to the Java heap.
+     */
+    @Override
+    public MappedData map(final long offset, final long length) {
+        return MappedData.map(path, offset, length, MappedData.SEGMENT_SIZE);
+    }
+
+    /**
+     * Reads with a file channel, so direct buffers are filled without copying through the Java heap.
+     */
+    @Override
+    public int readInto(final ByteBuffer buffer) {
+        return NodeIo.readInto(path, buffer);
+    }
+
+    /**
+     * Reads with {@link java.nio.channels.AsynchronousFileChannel}, without occupying a thread while waiting.
+     */
+    @Override
+    public CompletableFuture<byte[]> readBytesAsync() {
+        return AsyncFileIo.readAll(path);
+    }
+
+    /**
+     * Writes with {@link java.nio.channels.AsynchronousFileChannel}, without occupying a thread while waiting.
+     */
+    @Override
+    public CompletableFuture<INode> writeAsync(final byte[] what) {
+        refresh();
+        return AsyncFileIo.writeAll(path, ByteBuffer.wrap(what)).thenApply(ignored -> refresh());
+    }
+}
@@ -0,0 +1,266 @@
+package pl.mjaron.datanode;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Downloads an HTTP resource in chunks fetched concurrently with Range requests.
+ * <p>
+ * Local targets are written with positional writes as chunks arrive. Progress is stored next to the target in a
+ * {@code .download} state file, so an interrupted download is resumed by fetching only missing chunks, as long as
+ * the resource has the same length and validator (ETag or Last-Modified). Completed chunks are recorded in batches,
+ * after the written data is forced to the storage device. Other targets get chunks written to their output stream in
+ * order, with at most {@code parallelism} chunks held in memory.
+ */
+class RangedDownload {
+
+    private static final int STATE_MAGIC = 0x444E444C;
+    static final String STATE_SUFFIX = ".download";
+
+    private final HttpNode source;
+    private final int parallelism;
+    private final long chunkSize;
+    private final Executor executor;
+
+    /**
+     * @param parallelism Maximal count of chunks fetched at the same time.
+     * @param chunkSize   Size of a chunk fetched by one request.
+     * @param executor    Executor fetching the chunks.
+     */
+    RangedDownload(final HttpNode source, final int parallelism, final long chunkSize, final Executor executor) {
+        if (parallelism < 1 || chunkSize < 1 || chunkSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid parallelism: [" + parallelism + "] or chunk size: [" + chunkSize + "].");
+        }
+        this.source = source;
+        this.parallelism = parallelism;
+        this.chunkSize = chunkSize;
+        this.executor = executor;
+    }
+
+    /**
+     * Download progress: resource identity and completed chunks.
+     */
+    static final class State {
+        final String validator;
+        final long length;
+        final long chunkSize;
+        final BitSet completed;
+
+        State(final String validator, final long length, final long chunkSize, final BitSet completed) {
+            this.validator = validator;
+            this.length = length;
+            this.chunkSize = chunkSize;
+            this.completed = completed;
+        }
+
+        boolean matches(final State other) {
+            return validator.equals(other.validator) && length == other.length && chunkSize == other.chunkSize;
+        }
+
+        void save(final Path path) throws IOException {
+            try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+                out.writeInt(STATE_MAGIC);
+                out.writeUTF(validator);
+                out.writeLong(length);
+                out.writeLong(chunkSize);
+                final byte[] bits = completed.toByteArray();
+                out.writeInt(bits.length);
+                out.write(bits);
+            }
+        }
+
+        /**
+         * @return Saved state, or null when there is no valid state file.
+         */
+        static State load(final Path path) {
+            if (!Files.isRegularFile(path)) {
+                return null;
+            }
+            try (final DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+                if (in.readInt() != STATE_MAGIC) {
+                    return null;
+                }
+                final String validator = in.readUTF();
+                final long length = in.readLong();
+                final long chunkSize = in.readLong();
+                final byte[] bits = new byte[in.readInt()];
+                in.readFully(bits);
+                return new State(validator, length, chunkSize, BitSet.valueOf(bits));
+            } catch (IOException e) {
+                return null;
+            }
+        }
+    }
+
+    static Path statePath(final Path target) {
+        return target.resolveSibling(target.getFileName().toString() + STATE_SUFFIX);
+    }
+
+    void run(final INode target) {
+        final HttpNode.Head head = source.head();
+        if (head.responseCode != HttpURLConnection.HTTP_OK) {
+            throw new RuntimeException("HTTP request failed with status " + head.responseCode + ": [" + source + "].");
+        }
+        if (!head.acceptsRanges || head.contentLength < 0) {
+            try (final InputStream in = source.getInputStream(); final OutputStream out = target.getOutputStream()) {
+                NodeIo.copy(in, out);
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to download: [" + source + "].", e);
+            }
+            return;
+        }
+        final Path targetPath = NodeIo.localPath(target);
+        if (targetPath != null) {
+            downloadToFile(head, targetPath);
+            NodeIo.modified(target);
+        } else {
+            downloadInOrder(head, target);
+        }
+    }
+
+    private int chunkCount(final long length) {
+        return (int) ((length + chunkSize - 1) / chunkSize);
+    }
+
+    private long chunkLength(final int index, final long length) {
+        return Math.min(chunkSize, length - index * chunkSize);
+    }
+
+    private void downloadToFile(final HttpNode.Head head, final Path targetPath) {
+        final Path statePath = statePath(targetPath);
+        final State fresh = new State(head.validator, head.contentLength, chunkSize, new BitSet());
+        final State saved = (head.validator.isEmpty()) ? null : State.load(statePath);
+        final State state = (saved != null && saved.matches(fresh) && Files.isRegularFile(targetPath)) ? saved : fresh;
+        final boolean resumed = state == saved;
+        final StandardOpenOption[] options = resumed
+                ? new StandardOpenOption[]{StandardOpenOption.WRITE}
+                : new StandardOpenOption[]{StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING};
+        try (final FileChannel channel = FileChannel.open(targetPath, options)) {
+            final int count = chunkCount(head.contentLength);
+            final CompletionService<Integer> completion = new ExecutorCompletionService<>(executor);
+            final List<Future<Integer>> running = new ArrayList<>(parallelism);
+            int next = 0;
+            int unsaved = 0;
+            boolean finished = false;
+            try {
+                while (true) {
+                    while (running.size() < parallelism && (next = state.completed.nextClearBit(next)) < count) {
+                        final int index = next++;
+                        running.add(completion.submit(() -> {
+                            writeChunk(channel, head.validator, index, head.contentLength);
+                            return index;
+                        }));
+                    }
+                    if (running.isEmpty()) {
+                        break;
+                    }
+                    final Future<Integer> done = completion.take();
+                    running.remove(done);
+                    state.completed.set(await(done));
+                    // Chunks are recorded only after they are forced, so a resume never skips lost data.
+                    if (!state.validator.isEmpty() && ++unsaved >= parallelism) {
+                        channel.force(false);
+                        state.save(statePath);
+                        unsaved = 0;
+                    }
+                }
+                finished = true;
+            } finally {
+                if (!finished) {
+                    for (final Future<Integer> pending : running) {
+                        pending.cancel(true);
+                    }
+                }
+            }
+            channel.truncate(head.contentLength);
+            channel.force(false);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to download: [" + source + "] to [" + targetPath + "].", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Download interrupted: [" + source + "].", e);
+        }
+        try {
+            Files.deleteIfExists(statePath);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to remove download state: [" + statePath + "].", e);
+        }
+    }
+
+    private void writeChunk(final FileChannel channel, final String validator, final int index, final long length) throws IOException {
+        final long offset = index * chunkSize;
+        final BufferPool pool = BufferPool.getDefault();
+        final byte[] buffer = pool.acquire();
+        try (final InputStream in = source.openRange(offset, chunkLength(index, length), validator)) {
+            long position = offset;
+            for (int count; (count = in.read(buffer)) != -1; ) {
+                final ByteBuffer data = ByteBuffer.wrap(buffer, 0, count);
+                while (data.hasRemaining()) {
+                    position += channel.write(data, position);
+                }
+            }
+            if (position != offset + chunkLength(index, length)) {
+                throw new IOException("Incomplete chunk " + index + " of [" + source + "].");
+            }
+        } finally {
+            pool.release(buffer);
+        }
+    }
+
+    private void downloadInOrder(final HttpNode.Head head, final INode target) {
+        final int count = chunkCount(head.contentLength);
+        final ArrayDeque<Future<byte[]>> window = new ArrayDeque<>(parallelism);
+        int next = 0;
+        try (final OutputStream out = target.getOutputStream()) {
+            while (next < count || !window.isEmpty()) {
+                while (next < count && window.size() < parallelism) {
+                    final long offset = next * chunkSize;
+                    final long length = chunkLength(next, head.contentLength);
+                    final FutureTask<byte[]> task = new FutureTask<>(() -> {
+                        try (final InputStream in = source.openRange(offset, length, head.validator)) {
+                            final byte[] chunk = new byte[(int) length];
+                            if (NodeIo.readFully(in, chunk, 0, chunk.length) != chunk.length) {
+                                throw new IOException("Incomplete chunk at " + offset + " of [" + source + "].");
+                            }
+                            return chunk;
+                        }
+                    });
+                    executor.execute(task);
+                    window.addLast(task);
+                    ++next;
+                }
+                out.write(await(window.removeFirst()));
+            }
+        } catch (IOException e) {
+            for (final Future<byte[]> pending : window) {
+                pending.cancel(true);
+            }
+            throw new RuntimeException("Failed to download: [" + source + "] to [" + target + "].", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Download interrupted: [" + source + "].", e);
+        }
+    }
+
+    private static <T> T await(final Future<T> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+}
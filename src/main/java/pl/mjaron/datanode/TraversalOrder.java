@@ -0,0 +1,18 @@
+package pl.mjaron.datanode;
+
+/**
+ * Order in which descendants of a node are visited.
+ */
+public enum TraversalOrder {
+
+    /**
+     * Each directory is followed by its whole subtree, before its next sibling. Same order as
+     * {@link INode#getDescendants()}.
+     */
+    DEPTH_FIRST,
+
+    /**
+     * All nodes of given depth are visited before any node of the next depth.
+     */
+    BREADTH_FIRST
+}
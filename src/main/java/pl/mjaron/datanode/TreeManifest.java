@@ -0,0 +1,520 @@
+package pl.mjaron.datanode;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Binary snapshot of a directory tree: paths, types, sizes, modification times and optionally content hashes.
+ * <p>
+ * The manifest is a sequence of directory records in depth-first order, children sorted by name. Each record holds
+ * the directory path, its modification time and attributes of its direct children. Records are written and read one
+ * by one, so neither writing nor diffing holds the whole tree in memory, and local manifests are read through a
+ * memory mapping.
+ * <p>
+ * Diffing relies on the fact that listing changes of a directory update its modification time: directories which
+ * modification time is the same as in the manifest are not listed again, their children are taken from the manifest.
+ * Optionally also files of such directories are not checked, so only directories are read from the filesystem.
+ */
+public final class TreeManifest {
+
+    private static final int MAGIC = 0x444E4D46;
+    private static final int VERSION = 1;
+    private static final byte RECORD_END = 0;
+    private static final byte RECORD_DIRECTORY = 1;
+    private static final byte[] NO_HASH = new byte[0];
+
+    /**
+     * Coarsest modification time resolution of common filesystems. Directories modified so shortly before the
+     * manifest was written could be modified again without a visible change of their modification time.
+     */
+    private static final long TIME_RESOLUTION_MILLIS = 2000;
+
+    private TreeManifest() {
+    }
+
+    /**
+     * Single node of the manifest.
+     */
+    public static final class Entry {
+        private final String path;
+        private final NodeAttributes.Type type;
+        private final long size;
+        private final long lastModified;
+        private final byte[] hash;
+
+        Entry(final String path, final NodeAttributes.Type type, final long size, final long lastModified, final byte[] hash) {
+            this.path = path;
+            this.type = type;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+
+        /**
+         * @return Path relative to the tree root, with elements separated with '/'.
+         */
+        public String getPath() {
+            return path;
+        }
+
+        public NodeAttributes.Type getType() {
+            return type;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * @return Content hash of a file, empty if the manifest has no hashes.
+         */
+        public byte[] getHash() {
+            return hash.clone();
+        }
+
+        @Override
+        public String toString() {
+            return path + " (" + type + ", " + size + " B, modified " + lastModified + ")";
+        }
+    }
+
+    /**
+     * Child of a directory record.
+     */
+    private static final class Child {
+        final String name;
+        final NodeAttributes.Type type;
+        final long size;
+        final long lastModified;
+        byte[] hash;
+
+        Child(final String name, final NodeAttributes.Type type, final long size, final long lastModified, final byte[] hash) {
+            this.name = name;
+            this.type = type;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+
+        boolean isDirectory() {
+            return type == NodeAttributes.Type.DIRECTORY;
+        }
+    }
+
+    private static final Comparator<Child> BY_NAME = Comparator.comparing(child -> child.name);
+
+    private static final class DirectoryRecord {
+        final String path;
+        final long lastModified;
+        final List<Child> children;
+
+        DirectoryRecord(final String path, final long lastModified, final List<Child> children) {
+            this.path = path;
+            this.lastModified = lastModified;
+            this.children = children;
+        }
+    }
+
+    private static final class Writer implements AutoCloseable {
+        private final DataOutputStream out;
+
+        Writer(final INode target, final String hashAlgorithm) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(target.getOutputStream(), NodeIo.BUFFER_SIZE));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF((hashAlgorithm == null) ? "" : hashAlgorithm);
+            out.writeLong(System.currentTimeMillis());
+        }
+
+        void write(final String path, final long lastModified, final List<Child> children) throws IOException {
+            out.writeByte(RECORD_DIRECTORY);
+            out.writeUTF(path);
+            out.writeLong(lastModified);
+            out.writeInt(children.size());
+            for (final Child child : children) {
+                out.writeUTF(child.name);
+                out.writeByte(child.type.ordinal());
+                out.writeLong(child.size);
+                out.writeLong(child.lastModified);
+                out.writeShort(child.hash.length);
+                out.write(child.hash);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.writeByte(RECORD_END);
+            out.close();
+        }
+    }
+
+    private static final class Reader implements AutoCloseable {
+        private final MappedData data;
+        private final DataInputStream in;
+        final String hashAlgorithm;
+
+        /**
+         * Time when writing of the manifest started.
+         */
+        final long created;
+        private DirectoryRecord next;
+
+        Reader(final INode manifest) throws IOException {
+            this.data = manifest.map();
+            final List<InputStream> segments = new ArrayList<>(data.getSegmentCount());
+            for (int i = 0; i < data.getSegmentCount(); ++i) {
+                segments.add(new ByteBufferInputStream(data.getSegment(i)));
+            }
+            this.in = new DataInputStream(new SequenceInputStream(Collections.enumeration(segments)));
+            try {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("Not a tree manifest: [" + manifest.getPath() + "].");
+                }
+                final int version = in.readInt();
+                if (version != VERSION) {
+                    throw new IOException("Unsupported tree manifest version " + version + ": [" + manifest.getPath() + "].");
+                }
+                final String algorithm = in.readUTF();
+                this.hashAlgorithm = algorithm.isEmpty() ? null : algorithm;
+                this.created = in.readLong();
+                this.next = readRecord();
+            } catch (IOException | RuntimeException e) {
+                data.close();
+                throw e;
+            }
+        }
+
+        private DirectoryRecord readRecord() throws IOException {
+            final byte kind = in.readByte();
+            if (kind == RECORD_END) {
+                return null;
+            }
+            if (kind != RECORD_DIRECTORY) {
+                throw new IOException("Corrupted tree manifest, unknown record: " + kind + ".");
+            }
+            final String path = in.readUTF();
+            final long lastModified = in.readLong();
+            final int count = in.readInt();
+            final NodeAttributes.Type[] types = NodeAttributes.Type.values();
+            final List<Child> children = new ArrayList<>(count);
+            for (int i = 0; i < count; ++i) {
+                final String name = in.readUTF();
+                final NodeAttributes.Type type = types[in.readByte()];
+                final long size = in.readLong();
+                final long childLastModified = in.readLong();
+                final byte[] hash = new byte[in.readUnsignedShort()];
+                in.readFully(hash);
+                children.add(new Child(name, type, size, childLastModified, (hash.length == 0) ? NO_HASH : hash));
+            }
+            return new DirectoryRecord(path, lastModified, children);
+        }
+
+        DirectoryRecord peek() {
+            return next;
+        }
+
+        DirectoryRecord take() throws IOException {
+            final DirectoryRecord result = next;
+            if (result != null) {
+                try {
+                    next = readRecord();
+                } catch (EOFException e) {
+                    throw new IOException("Truncated tree manifest.", e);
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public void close() {
+            data.close();
+        }
+    }
+
+    /**
+     * Writes manifest of the whole tree.
+     *
+     * @param root          Root directory of the tree.
+     * @param target        Manifest file.
+     * @param hashAlgorithm {@link java.security.MessageDigest} algorithm of content hashes, e.g. {@code SHA-256}, or null to skip
+     *                      hashing.
+     * @return Count of entries written, without the root.
+     */
+    public static long write(final INode root, final INode target, final String hashAlgorithm) {
+        final Diff diff = new Diff(root, false, hashAlgorithm, null);
+        try (final Writer writer = new Writer(target, hashAlgorithm)) {
+            diff.writer = writer;
+            diff.added(diff.traversalRoot, "", diff.traversalRoot.getLastModified(), false);
+        } catch (final IOException e) {
+            throw new RuntimeException("Failed to write tree manifest: [" + target.getPath() + "].", e);
+        }
+        return diff.entries;
+    }
+
+    /**
+     * Reads all entries of the manifest, directories before their children.
+     *
+     * @param manifest Manifest file.
+     * @param consumer Receives entries.
+     */
+    public static void read(final INode manifest, final Consumer<Entry> consumer) {
+        try (final Reader reader = new Reader(manifest)) {
+            for (DirectoryRecord record; (record = reader.take()) != null; ) {
+                for (final Child child : record.children) {
+                    consumer.accept(new Entry(NodeWatcher.childPath(record.path, child.name), child.type, child.size,
+                            child.lastModified, child.hash));
+                }
+            }
+        } catch (final IOException e) {
+            throw new RuntimeException("Failed to read tree manifest: [" + manifest.getPath() + "].", e);
+        }
+    }
+
+    /**
+     * Compares the tree with its manifest.
+     *
+     * @param root      Root directory of the tree.
+     * @param manifest  Manifest written by {@link #write} or {@link #update}.
+     * @param statFiles When false, files in directories which modification time didn't change are assumed unchanged,
+     *                  so in-place modifications of such files are not detected. When true, attributes of every file
+     *                  are read, listings of unchanged directories are still skipped.
+     * @param listener  Receives changes. Nodes in events are obtained from the root with {@link INode#getChild}.
+     * @return Count of changes.
+     */
+    public static long diff(final INode root, final INode manifest, final boolean statFiles, final Consumer<NodeEvent> listener) {
+        return update(root, manifest, null, statFiles, listener);
+    }
+
+    /**
+     * Compares the tree with its manifest and writes a new manifest of the current tree, reusing attributes and hashes
+     * from the old one where the tree didn't change. See {@link #diff}.
+     *
+     * @param root            Root directory of the tree.
+     * @param manifest        Manifest written by {@link #write} or {@link #update}.
+     * @param updatedManifest Receives the new manifest, must be other file than the read manifest. May be null.
+     * @param statFiles       See {@link #diff}.
+     * @param listener        Receives changes.
+     * @return Count of changes.
+     */
+    public static long update(final INode root, final INode manifest, final INode updatedManifest, final boolean statFiles,
+                              final Consumer<NodeEvent> listener) {
+        try (final Reader reader = new Reader(manifest)) {
+            final Diff diff = new Diff(root, statFiles, reader.hashAlgorithm, listener);
+            diff.trustedBefore = reader.created - TIME_RESOLUTION_MILLIS;
+            final DirectoryRecord rootRecord = reader.take();
+            if (updatedManifest == null) {
+                diff.directory(reader, diff.traversalRoot, "", rootRecord);
+            } else {
+                try (final Writer writer = new Writer(updatedManifest, reader.hashAlgorithm)) {
+                    diff.writer = writer;
+                    diff.directory(reader, diff.traversalRoot, "", rootRecord);
+                }
+            }
+            return diff.changes;
+        } catch (final IOException e) {
+            throw new RuntimeException("Failed to diff tree manifest: [" + manifest.getPath() + "].", e);
+        }
+    }
+
+    /**
+     * State of a single diff or write.
+     */
+    private static final class Diff {
+        final INode root;
+        final INode traversalRoot;
+        final boolean statFiles;
+        final String hashAlgorithm;
+        final Consumer<NodeEvent> listener;
+        Writer writer = null;
+
+        /**
+         * Listings of directories modified before this time are taken from the manifest, when unchanged.
+         */
+        long trustedBefore = Long.MIN_VALUE;
+        long changes = 0;
+        long entries = 0;
+
+        Diff(final INode root, final boolean statFiles, final String hashAlgorithm, final Consumer<NodeEvent> listener) {
+            this.root = root;
+            // Local trees are traversed with PathNode, which reads all attributes of a child at once.
+            final Path localPath = NodeIo.localPath(root);
+            this.traversalRoot = (localPath != null) ? new PathNode(localPath) : root;
+            this.statFiles = statFiles;
+            this.hashAlgorithm = hashAlgorithm;
+            this.listener = listener;
+        }
+
+        private void event(final NodeEvent.Kind kind, final String path) {
+            ++changes;
+            if (listener != null) {
+                listener.accept(new NodeEvent(kind, path, root.getChild(path)));
+            }
+        }
+
+        private void write(final String path, final long lastModified, final List<Child> children) throws IOException {
+            entries += children.size();
+            if (writer != null) {
+                writer.write(path, lastModified, children);
+            }
+        }
+
+        private byte[] hash(final INode parent, final Child child) {
+            if (hashAlgorithm == null || child.type != NodeAttributes.Type.FILE) {
+                return NO_HASH;
+            }
+            return parent.getChild(child.name).hash(hashAlgorithm);
+        }
+
+        private List<Child> list(final INode directory) {
+            final List<Child> children = new ArrayList<>();
+            directory.visitChildren((name, type, size, lastModified) -> children.add(new Child(name, type, size, lastModified, NO_HASH)));
+            children.sort(BY_NAME);
+            return children;
+        }
+
+        /**
+         * @return Current attributes of the child, or null if it doesn't exist.
+         */
+        private static Child stat(final INode parent, final Child known) {
+            final INode node = parent.getChild(known.name);
+            if (!node.exists()) {
+                return null;
+            }
+            final NodeAttributes.Type type = node.isFile() ? NodeAttributes.Type.FILE
+                    : (node.isDirectory() ? NodeAttributes.Type.DIRECTORY : NodeAttributes.Type.OTHER);
+            return new Child(known.name, type, (type == NodeAttributes.Type.FILE) ? node.getSize() : 0,
+                    node.getLastModified(), NO_HASH);
+        }
+
+        /**
+         * Lists a subtree which is not in the manifest, reporting all its nodes as created.
+         */
+        void added(final INode directory, final String path, final long lastModified, final boolean report) throws IOException {
+            final List<Child> children = list(directory);
+            for (final Child child : children) {
+                child.hash = hash(directory, child);
+                if (report) {
+                    event(NodeEvent.Kind.CREATED, NodeWatcher.childPath(path, child.name));
+                }
+            }
+            write(path, lastModified, children);
+            for (final Child child : children) {
+                if (child.isDirectory()) {
+                    added(directory.getChild(child.name), NodeWatcher.childPath(path, child.name), child.lastModified, report);
+                }
+            }
+        }
+
+        /**
+         * Skips manifest records of a removed subtree, reporting all its nodes as deleted.
+         */
+        private void removed(final Reader reader, final String path) throws IOException {
+            final String prefix = path + "/";
+            for (DirectoryRecord record = reader.peek();
+                 record != null && (record.path.equals(path) || record.path.startsWith(prefix));
+                 record = reader.peek()) {
+                reader.take();
+                for (final Child child : record.children) {
+                    event(NodeEvent.Kind.DELETED, NodeWatcher.childPath(record.path, child.name));
+                }
+            }
+        }
+
+        /**
+         * Compares a directory existing in the tree with its manifest record.
+         *
+         * @param record Manifest record of the directory, or null when it is missing.
+         */
+        void directory(final Reader reader, final INode directory, final String path, final DirectoryRecord record) throws IOException {
+            final long lastModified = directory.getLastModified();
+            final List<Child> known = (record != null) ? record.children : Collections.emptyList();
+            final List<Child> current;
+            if (record != null && lastModified != 0 && record.lastModified == lastModified && lastModified < trustedBefore) {
+                current = new ArrayList<>(known.size());
+                for (final Child child : known) {
+                    final Child stated = (child.isDirectory() || statFiles) ? stat(directory, child) : child;
+                    if (stated != null) {
+                        current.add(stated);
+                    }
+                }
+            } else {
+                current = list(directory);
+            }
+
+            // Carry over hashes of unchanged files, so only changed content is hashed.
+            int k = 0;
+            for (final Child child : current) {
+                while (k < known.size() && known.get(k).name.compareTo(child.name) < 0) {
+                    ++k;
+                }
+                final Child previous = (k < known.size() && known.get(k).name.equals(child.name)) ? known.get(k) : null;
+                if (child.hash.length == 0 && child.type == NodeAttributes.Type.FILE) {
+                    child.hash = (previous != null && !isModified(previous, child)) ? previous.hash : hash(directory, child);
+                }
+            }
+            write(path, lastModified, current);
+
+            int i = 0;
+            int j = 0;
+            while (i < known.size() || j < current.size()) {
+                final Child before = (i < known.size()) ? known.get(i) : null;
+                final Child after = (j < current.size()) ? current.get(j) : null;
+                final int order = (before == null) ? 1 : ((after == null) ? -1 : before.name.compareTo(after.name));
+                if (order < 0) {
+                    final String childPath = NodeWatcher.childPath(path, before.name);
+                    event(NodeEvent.Kind.DELETED, childPath);
+                    if (before.isDirectory()) {
+                        removed(reader, childPath);
+                    }
+                    ++i;
+                } else if (order > 0) {
+                    final String childPath = NodeWatcher.childPath(path, after.name);
+                    event(NodeEvent.Kind.CREATED, childPath);
+                    if (after.isDirectory()) {
+                        added(directory.getChild(after.name), childPath, after.lastModified, true);
+                    }
+                    ++j;
+                } else {
+                    final String childPath = NodeWatcher.childPath(path, after.name);
+                    if (before.type != after.type) {
+                        event(NodeEvent.Kind.MODIFIED, childPath);
+                        if (before.isDirectory()) {
+                            removed(reader, childPath);
+                        }
+                        if (after.isDirectory()) {
+                            added(directory.getChild(after.name), childPath, after.lastModified, true);
+                        }
+                    } else if (after.isDirectory()) {
+                        final DirectoryRecord next = reader.peek();
+                        final DirectoryRecord childRecord = (next != null && next.path.equals(childPath)) ? reader.take() : null;
+                        directory(reader, directory.getChild(after.name), childPath, childRecord);
+                    } else if (isModified(before, after) && (before.hash.length == 0 || !Arrays.equals(before.hash, after.hash))) {
+                        event(NodeEvent.Kind.MODIFIED, childPath);
+                    }
+                    ++i;
+                    ++j;
+                }
+            }
+        }
+
+        private static boolean isModified(final Child before, final Child after) {
+            return before.size != after.size || before.lastModified != after.lastModified;
+        }
+    }
+}
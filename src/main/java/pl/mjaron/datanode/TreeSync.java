@@ -0,0 +1,398 @@
+package pl.mjaron.datanode;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Mirrors a file or directory tree to another node, copying only files which differ.
+ * <p>
+ * Both trees are listed with {@link INode#visitChildren(ChildVisitor)}, so attributes of local files are read together
+ * with the listing. Changed files are copied concurrently with {@link INode#copyTo(INode)}, which copies local files
+ * without passing their content through the Java heap. Copies to local targets get the modification time of the
+ * source, so unchanged files are recognized by next runs.
+ *
+ * <pre>{@code
+ * final TreeSync.Report report = new TreeSync(new HttpNode(url), new FileNode("mirror/file.bin"))
+ *         .setComparison(TreeSync.Comparison.CONTENT)
+ *         .run();
+ * }</pre>
+ */
+public class TreeSync {
+
+    /**
+     * How files existing in both trees are compared.
+     */
+    public enum Comparison {
+        /**
+         * Files of equal size are considered equal.
+         */
+        SIZE,
+
+        /**
+         * Files are equal when their sizes and modification times are equal, so also targets modified after the
+         * source or sources restored to an older version are copied. Copied local files get the source time, times of
+         * other targets can't be set, so they are equal when they are not older than the source. When a modification
+         * time is unknown, contents are compared.
+         */
+        SIZE_AND_TIME,
+
+        /**
+         * Files are equal when their sizes and content hashes are equal.
+         */
+        CONTENT
+    }
+
+    /**
+     * Counters of the synchronization. Totals grow while the trees are compared, so during the run they describe work
+     * found so far.
+     */
+    public static final class Report {
+        private final long filesCompared;
+        private final long filesToCopy;
+        private final long filesCopied;
+        private final long bytesToCopy;
+        private final long bytesCopied;
+        private final long directoriesCreated;
+        private final long removed;
+        private final long elapsedNanos;
+
+        Report(final long filesCompared, final long filesToCopy, final long filesCopied, final long bytesToCopy,
+               final long bytesCopied, final long directoriesCreated, final long removed, final long elapsedNanos) {
+            this.filesCompared = filesCompared;
+            this.filesToCopy = filesToCopy;
+            this.filesCopied = filesCopied;
+            this.bytesToCopy = bytesToCopy;
+            this.bytesCopied = bytesCopied;
+            this.directoriesCreated = directoriesCreated;
+            this.removed = removed;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * @return Count of source files which were checked.
+         */
+        public long getFilesCompared() {
+            return filesCompared;
+        }
+
+        /**
+         * @return Count of files which are missing or different in the target.
+         */
+        public long getFilesToCopy() {
+            return filesToCopy;
+        }
+
+        public long getFilesCopied() {
+            return filesCopied;
+        }
+
+        /**
+         * @return Total size of files which are missing or different in the target, when it is known before copying.
+         */
+        public long getBytesToCopy() {
+            return bytesToCopy;
+        }
+
+        public long getBytesCopied() {
+            return bytesCopied;
+        }
+
+        public long getDirectoriesCreated() {
+            return directoriesCreated;
+        }
+
+        /**
+         * @return Count of removed target files and directories, which didn't exist in the source or had other type.
+         */
+        public long getRemoved() {
+            return removed;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * @return Average copying throughput since the start.
+         */
+        public double getBytesPerSecond() {
+            return (elapsedNanos == 0) ? 0 : bytesCopied * 1_000_000_000.0 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "compared: " + filesCompared + ", copied: " + filesCopied + "/" + filesToCopy + " files, "
+                    + bytesCopied + "/" + bytesToCopy + " bytes, directories created: " + directoriesCreated
+                    + ", removed: " + removed + ", " + String.format("%.1f", getBytesPerSecond() / (1024 * 1024)) + " MiB/s";
+        }
+    }
+
+    private final INode source;
+    private final INode target;
+    private Comparison comparison = Comparison.SIZE_AND_TIME;
+    private boolean deleteExtraneous = false;
+    private long timeToleranceMillis = 0;
+    private BulkExecutor executor = null;
+    private ContentHasher hasher = null;
+    private Consumer<Report> progressListener = null;
+
+    private final LongAdder filesCompared = new LongAdder();
+    private final LongAdder filesToCopy = new LongAdder();
+    private final LongAdder filesCopied = new LongAdder();
+    private final LongAdder bytesToCopy = new LongAdder();
+    private final LongAdder bytesCopied = new LongAdder();
+    private final LongAdder directoriesCreated = new LongAdder();
+    private final LongAdder removed = new LongAdder();
+    private long startNanos = 0;
+
+    /**
+     * @param source File or directory to mirror.
+     * @param target Destination, created when it doesn't exist.
+     */
+    public TreeSync(final INode source, final INode target) {
+        this.source = source;
+        this.target = target;
+    }
+
+    /**
+     * @param comparison How files existing in both trees are compared. Default is {@link Comparison#SIZE_AND_TIME}.
+     * @return This reference.
+     */
+    public TreeSync setComparison(final Comparison comparison) {
+        this.comparison = comparison;
+        return this;
+    }
+
+    /**
+     * @param timeToleranceMillis Maximal difference of modification times still considered equal by
+     *                            {@link Comparison#SIZE_AND_TIME}, e.g. 2000 for targets on FAT filesystems, which
+     *                            store times with 2 second resolution. Default is 0.
+     * @return This reference.
+     */
+    public TreeSync setTimeTolerance(final long timeToleranceMillis) {
+        this.timeToleranceMillis = timeToleranceMillis;
+        return this;
+    }
+
+    /**
+     * @param deleteExtraneous Whether target files and directories which don't exist in the source are removed.
+     *                         Disabled by default.
+     * @return This reference.
+     */
+    public TreeSync setDeleteExtraneous(final boolean deleteExtraneous) {
+        this.deleteExtraneous = deleteExtraneous;
+        return this;
+    }
+
+    /**
+     * @param executor Executor running the copies and comparisons, limiting concurrent operations per backing store.
+     *                 Default is {@link BulkExecutor#getDefault()}.
+     * @return This reference.
+     */
+    public TreeSync setExecutor(final BulkExecutor executor) {
+        this.executor = executor;
+        return this;
+    }
+
+    /**
+     * @param hasher Hasher used for content comparison, e.g. with a {@link HashCache}. Default hashes with SHA-256
+     *               without a cache.
+     * @return This reference.
+     */
+    public TreeSync setHasher(final ContentHasher hasher) {
+        this.hasher = hasher;
+        return this;
+    }
+
+    /**
+     * @param progressListener Receiver of the counters, called after each copied or removed node. It may be called
+     *                         concurrently from threads of the executor.
+     * @return This reference.
+     */
+    public TreeSync setProgressListener(final Consumer<Report> progressListener) {
+        this.progressListener = progressListener;
+        return this;
+    }
+
+    /**
+     * @return Current counters.
+     */
+    public Report getReport() {
+        return new Report(filesCompared.sum(), filesToCopy.sum(), filesCopied.sum(), bytesToCopy.sum(), bytesCopied.sum(),
+                directoriesCreated.sum(), removed.sum(), (startNanos == 0) ? 0 : System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Synchronizes the target with the source. Directories are compared by the calling thread, files are compared
+     * and copied concurrently.
+     *
+     * @return Final counters.
+     * @throws RuntimeException when the source doesn't exist or when any copy fails. Other copies are completed
+     *                          before the exception is thrown.
+     */
+    public Report run() {
+        if (executor == null) {
+            executor = BulkExecutor.getDefault();
+        }
+        if (hasher == null) {
+            hasher = new ContentHasher("SHA-256", executor, null);
+        }
+        startNanos = System.nanoTime();
+        if (!source.exists()) {
+            throw new RuntimeException("Sync source doesn't exist: [" + source.getPath() + "].");
+        }
+        final List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        if (source.isDirectory()) {
+            if (target.isFile()) {
+                remove(target);
+            }
+            syncDirectories(tasks);
+        } else {
+            if (target.isDirectory()) {
+                remove(target);
+            }
+            final NodeAttributes sourceAttributes = new NodeAttributes(source.getName(), NodeAttributes.Type.FILE,
+                    source.getSize(), source.getLastModified());
+            final NodeAttributes targetAttributes = target.isFile()
+                    ? new NodeAttributes(target.getName(), NodeAttributes.Type.FILE, target.getSize(), target.getLastModified())
+                    : null;
+            syncFile(source, target, sourceAttributes, targetAttributes, tasks);
+        }
+        BulkExecutor.joinAll(tasks);
+        return getReport();
+    }
+
+    private void syncDirectories(final List<CompletableFuture<Void>> tasks) {
+        final Deque<INode[]> directories = new ArrayDeque<>();
+        directories.push(new INode[]{source, target});
+        while (!directories.isEmpty()) {
+            final INode[] pair = directories.pop();
+            final INode sourceDirectory = pair[0];
+            final INode targetDirectory = pair[1];
+            final Map<String, NodeAttributes> targetChildren = new HashMap<>();
+            if (targetDirectory.isDirectory()) {
+                for (final NodeAttributes attributes : targetDirectory.getChildrenWithAttributes()) {
+                    targetChildren.put(attributes.getName(), attributes);
+                }
+            } else {
+                targetDirectory.mkdirs();
+                directoriesCreated.increment();
+            }
+            for (final NodeAttributes attributes : sourceDirectory.getChildrenWithAttributes()) {
+                final String name = attributes.getName();
+                final NodeAttributes existing = targetChildren.remove(name);
+                if (attributes.getType() == NodeAttributes.Type.OTHER) {
+                    continue;
+                }
+                final INode targetChild = targetDirectory.getChild(name);
+                if (existing != null && existing.getType() != attributes.getType()) {
+                    remove(targetChild);
+                }
+                final boolean sameType = existing != null && existing.getType() == attributes.getType();
+                if (attributes.isDirectory()) {
+                    directories.push(new INode[]{sourceDirectory.getChild(name), targetChild});
+                } else {
+                    syncFile(sourceDirectory.getChild(name), targetChild, attributes, sameType ? existing : null, tasks);
+                }
+            }
+            if (deleteExtraneous) {
+                for (final String name : targetChildren.keySet()) {
+                    final INode extraneous = targetDirectory.getChild(name);
+                    tasks.add(executor.submit(extraneous, () -> {
+                        remove(extraneous);
+                        return null;
+                    }));
+                }
+            }
+        }
+    }
+
+    /**
+     * Compares the files and schedules the copy when they differ.
+     *
+     * @param targetAttributes Attributes of the target file, null if it doesn't exist.
+     */
+    private void syncFile(final INode sourceFile, final INode targetFile, final NodeAttributes sourceAttributes,
+                          final NodeAttributes targetAttributes, final List<CompletableFuture<Void>> tasks) {
+        filesCompared.increment();
+        if (targetAttributes == null || targetAttributes.getSize() != sourceAttributes.getSize()) {
+            scheduleCopy(sourceFile, targetFile, sourceAttributes, tasks);
+            return;
+        }
+        switch (comparison) {
+            case SIZE:
+                return;
+            case SIZE_AND_TIME:
+                if (sourceAttributes.getLastModified() != 0 && targetAttributes.getLastModified() != 0) {
+                    final long difference = sourceAttributes.getLastModified() - targetAttributes.getLastModified();
+                    final boolean preservesTime = NodeIo.localPath(targetFile) != null;
+                    if ((preservesTime ? Math.abs(difference) : difference) > timeToleranceMillis) {
+                        scheduleCopy(sourceFile, targetFile, sourceAttributes, tasks);
+                    }
+                    return;
+                }
+                break;
+            default:
+                break;
+        }
+        tasks.add(executor.submit(sourceFile, () -> {
+            if (!Arrays.equals(hasher.hash(sourceFile), hasher.hash(targetFile))) {
+                filesToCopy.increment();
+                bytesToCopy.add(sourceAttributes.getSize());
+                copy(sourceFile, targetFile, sourceAttributes);
+            }
+            return null;
+        }));
+    }
+
+    private void scheduleCopy(final INode sourceFile, final INode targetFile, final NodeAttributes sourceAttributes,
+                              final List<CompletableFuture<Void>> tasks) {
+        filesToCopy.increment();
+        bytesToCopy.add(sourceAttributes.getSize());
+        tasks.add(executor.submit(sourceFile, () -> {
+            copy(sourceFile, targetFile, sourceAttributes);
+            return null;
+        }));
+    }
+
+    private void copy(final INode sourceFile, final INode targetFile, final NodeAttributes sourceAttributes) {
+        sourceFile.copyTo(targetFile);
+        final Path targetPath = NodeIo.localPath(targetFile);
+        if (targetPath != null && sourceAttributes.getLastModified() > 0) {
+            try {
+                Files.setLastModifiedTime(targetPath, FileTime.fromMillis(sourceAttributes.getLastModified()));
+            } catch (final IOException e) {
+                throw new RuntimeException("Failed to set modification time: [" + targetPath + "].", e);
+            }
+            NodeIo.modified(targetFile);
+        }
+        filesCopied.increment();
+        bytesCopied.add(sourceAttributes.getSize());
+        progress();
+    }
+
+    private void remove(final INode node) {
+        node.remove();
+        removed.increment();
+        progress();
+    }
+
+    private void progress() {
+        final Consumer<Report> listener = progressListener;
+        if (listener != null) {
+            listener.accept(getReport());
+        }
+    }
+}
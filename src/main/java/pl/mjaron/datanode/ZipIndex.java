@@ -0,0 +1,443 @@
+package pl.mjaron.datanode;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Entries of a zip archive, read from its central directory, including Zip64 extensions.
+ * <p>
+ * Indexes are cached per archive path and reused as long as size and modification time of the archive are the same.
+ */
+final class ZipIndex {
+
+    static final int STORED = 0;
+    static final int DEFLATED = 8;
+
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int END_SIZE = 22;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int ZIP64_EXTRA = 0x0001;
+    private static final int TIMESTAMP_EXTRA = 0x5455;
+    private static final long MAX_COMMENT = 0xFFFF;
+
+    private static final Map<Path, SoftReference<ZipIndex>> cache = new ConcurrentHashMap<>();
+
+    /**
+     * File or directory of the archive.
+     */
+    static final class Entry {
+        final String name;
+        final boolean directory;
+        final int flags;
+        final int method;
+        final long compressedSize;
+        final long size;
+        final long localHeaderOffset;
+        final long lastModified;
+
+        /**
+         * Children by name, null for files.
+         */
+        final TreeMap<String, Entry> children;
+
+        /**
+         * Offset of the entry data, read from the local header on first access.
+         */
+        volatile long dataOffset = -1;
+
+        Entry(final String name, final boolean directory, final int flags, final int method, final long compressedSize,
+              final long size, final long localHeaderOffset, final long lastModified) {
+            this.name = name;
+            this.directory = directory;
+            this.flags = flags;
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+            this.lastModified = lastModified;
+            this.children = directory ? new TreeMap<>() : null;
+        }
+
+        static Entry directory(final String name, final long lastModified) {
+            return new Entry(name, true, 0, STORED, 0, 0, -1, lastModified);
+        }
+    }
+
+    final Path archive;
+    private final long archiveSize;
+    private final long archiveModified;
+    private final Entry root;
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    private ZipIndex(final Path archive, final BasicFileAttributes attributes) {
+        this.archive = archive;
+        this.archiveSize = attributes.size();
+        this.archiveModified = attributes.lastModifiedTime().toMillis();
+        this.root = Entry.directory(archive.getFileName() == null ? "" : archive.getFileName().toString(), archiveModified);
+        entries.put("", root);
+    }
+
+    /**
+     * @return Cached index of the archive, or a new one when the archive has changed since it was indexed.
+     */
+    static ZipIndex of(final Path path) {
+        final Path archive = path.toAbsolutePath().normalize();
+        final BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(archive, BasicFileAttributes.class);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read zip archive: [" + archive + "].", e);
+        }
+        final SoftReference<ZipIndex> cached = cache.get(archive);
+        final ZipIndex cachedIndex = (cached == null) ? null : cached.get();
+        if (cachedIndex != null && cachedIndex.archiveSize == attributes.size()
+                && cachedIndex.archiveModified == attributes.lastModifiedTime().toMillis()) {
+            return cachedIndex;
+        }
+        final ZipIndex index = new ZipIndex(archive, attributes);
+        index.read();
+        cache.put(archive, new SoftReference<>(index));
+        return index;
+    }
+
+    /**
+     * Drops all cached indexes.
+     */
+    static void clearCache() {
+        cache.clear();
+    }
+
+    Entry getRoot() {
+        return root;
+    }
+
+    /**
+     * @param path Path of the entry inside the archive, separated with '/', empty for the root.
+     * @return Entry or null when the archive doesn't contain it.
+     */
+    Entry get(final String path) {
+        return entries.get(path);
+    }
+
+    private static int u16(final ByteBuffer buffer, final int position) {
+        return buffer.getShort(position) & 0xFFFF;
+    }
+
+    private static long u32(final ByteBuffer buffer, final int position) {
+        return buffer.getInt(position) & 0xFFFFFFFFL;
+    }
+
+    private static ByteBuffer readFully(final FileChannel channel, final long position, final int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+                throw new EOFException("Unexpected end of archive at " + (position + buffer.position()) + ".");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private void read() {
+        try (final FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            final int tailLength = (int) Math.min(size, END_SIZE + MAX_COMMENT);
+            final ByteBuffer tail = readFully(channel, size - tailLength, tailLength);
+            int end = -1;
+            for (int i = tailLength - END_SIZE; i >= 0; --i) {
+                if (tail.getInt(i) == END_SIGNATURE && i + END_SIZE + u16(tail, i + 20) <= tailLength) {
+                    end = i;
+                    break;
+                }
+            }
+            if (end < 0) {
+                throw new IOException("End of central directory not found.");
+            }
+            long count = u16(tail, end + 10);
+            long directorySize = u32(tail, end + 12);
+            long directoryOffset = u32(tail, end + 16);
+            final long endPosition = size - tailLength + end;
+            if ((count == 0xFFFF || directorySize == 0xFFFFFFFFL || directoryOffset == 0xFFFFFFFFL)
+                    && endPosition >= ZIP64_LOCATOR_SIZE) {
+                final ByteBuffer locator = readFully(channel, endPosition - ZIP64_LOCATOR_SIZE, ZIP64_LOCATOR_SIZE);
+                if (locator.getInt(0) == ZIP64_LOCATOR_SIGNATURE) {
+                    final ByteBuffer zip64End = readFully(channel, locator.getLong(8), 56);
+                    if (zip64End.getInt(0) != ZIP64_END_SIGNATURE) {
+                        throw new IOException("Invalid Zip64 end of central directory.");
+                    }
+                    count = zip64End.getLong(32);
+                    directorySize = zip64End.getLong(40);
+                    directoryOffset = zip64End.getLong(48);
+                }
+            }
+            if (directoryOffset + directorySize > size || directorySize > Integer.MAX_VALUE) {
+                throw new IOException("Invalid central directory size or offset.");
+            }
+            final ByteBuffer directory = channel.map(FileChannel.MapMode.READ_ONLY, directoryOffset, directorySize)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            int position = 0;
+            for (long i = 0; i < count; ++i) {
+                position = readEntry(directory, position);
+            }
+        } catch (IOException | RuntimeException e) {
+            throw new RuntimeException("Failed to read zip archive: [" + archive + "].", e);
+        }
+    }
+
+    /**
+     * Adds the central directory record at given position.
+     *
+     * @return Position of the next record.
+     */
+    private int readEntry(final ByteBuffer directory, final int position) throws IOException {
+        if (directory.getInt(position) != CENTRAL_SIGNATURE) {
+            throw new IOException("Invalid central directory record at " + position + ".");
+        }
+        final int flags = u16(directory, position + 8);
+        final int method = u16(directory, position + 10);
+        final int dosTime = u16(directory, position + 12);
+        final int dosDate = u16(directory, position + 14);
+        long compressedSize = u32(directory, position + 20);
+        long size = u32(directory, position + 24);
+        final int nameLength = u16(directory, position + 28);
+        final int extraLength = u16(directory, position + 30);
+        final int commentLength = u16(directory, position + 32);
+        long localHeaderOffset = u32(directory, position + 42);
+        final byte[] nameBytes = new byte[nameLength];
+        final ByteBuffer record = directory.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        record.position(position + 46);
+        record.get(nameBytes);
+        long lastModified = dosTimeToMillis(dosDate, dosTime);
+
+        final int extraEnd = position + 46 + nameLength + extraLength;
+        int extra = position + 46 + nameLength;
+        while (extra + 4 <= extraEnd) {
+            final int id = u16(directory, extra);
+            final int length = u16(directory, extra + 2);
+            int field = extra + 4;
+            if (id == ZIP64_EXTRA) {
+                if (size == 0xFFFFFFFFL && field + 8 <= extraEnd) {
+                    size = directory.getLong(field);
+                    field += 8;
+                }
+                if (compressedSize == 0xFFFFFFFFL && field + 8 <= extraEnd) {
+                    compressedSize = directory.getLong(field);
+                    field += 8;
+                }
+                if (localHeaderOffset == 0xFFFFFFFFL && field + 8 <= extraEnd) {
+                    localHeaderOffset = directory.getLong(field);
+                }
+            } else if (id == TIMESTAMP_EXTRA && length >= 5 && (directory.get(field) & 1) != 0) {
+                lastModified = u32(directory, field + 1) * 1000;
+            }
+            extra += 4 + length;
+        }
+        add(new String(nameBytes, StandardCharsets.UTF_8), flags, method, compressedSize, size, localHeaderOffset,
+                lastModified);
+        return extraEnd + commentLength;
+    }
+
+    private static long dosTimeToMillis(final int date, final int time) {
+        try {
+            return LocalDateTime.of(((date >> 9) & 0x7F) + 1980, (date >> 5) & 0x0F, date & 0x1F,
+                    (time >> 11) & 0x1F, (time >> 5) & 0x3F, Math.min(59, (time & 0x1F) * 2))
+                    .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Adds an entry and its parent directories, which are not always stored in archives.
+     */
+    private void add(final String rawName, final int flags, final int method, final long compressedSize,
+                     final long size, final long localHeaderOffset, final long lastModified) {
+        final boolean directory = rawName.endsWith("/");
+        final StringBuilder path = new StringBuilder();
+        Entry parent = root;
+        final String[] names = rawName.split("/");
+        int last = names.length - 1;
+        while (last >= 0 && (names[last].isEmpty() || names[last].equals("."))) {
+            --last;
+        }
+        for (int i = 0; i <= last; ++i) {
+            final String name = names[i];
+            if (name.isEmpty() || name.equals(".")) {
+                continue;
+            }
+            if (path.length() > 0) {
+                path.append('/');
+            }
+            path.append(name);
+            final String entryPath = path.toString();
+            final Entry existing = entries.get(entryPath);
+            if (i < last) {
+                if (existing != null && existing.directory) {
+                    parent = existing;
+                    continue;
+                }
+                final Entry implied = Entry.directory(name, 0);
+                entries.put(entryPath, implied);
+                parent.children.put(name, implied);
+                parent = implied;
+                continue;
+            }
+            final Entry entry;
+            if (directory) {
+                if (existing != null && existing.directory) {
+                    return;
+                }
+                entry = Entry.directory(name, lastModified);
+            } else {
+                entry = new Entry(name, false, flags, method, compressedSize, size, localHeaderOffset, lastModified);
+            }
+            entries.put(entryPath, entry);
+            parent.children.put(name, entry);
+        }
+    }
+
+    /**
+     * @return Offset of the entry data, after its local header.
+     */
+    long dataOffset(final Entry entry) {
+        long result = entry.dataOffset;
+        if (result >= 0) {
+            return result;
+        }
+        try (final FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ)) {
+            final ByteBuffer header = readFully(channel, entry.localHeaderOffset, LOCAL_HEADER_SIZE);
+            if (header.getInt(0) != LOCAL_SIGNATURE) {
+                throw new IOException("Invalid local header at " + entry.localHeaderOffset + ".");
+            }
+            result = entry.localHeaderOffset + LOCAL_HEADER_SIZE + u16(header, 26) + u16(header, 28);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read zip entry: [" + archive + "!/" + entry.name + "].", e);
+        }
+        entry.dataOffset = result;
+        return result;
+    }
+
+    /**
+     * @throws RuntimeException when the entry is encrypted or compressed with unsupported method.
+     */
+    static void checkReadable(final Entry entry, final String path) {
+        if ((entry.flags & 1) != 0) {
+            throw new RuntimeException("Encrypted zip entries are not supported: [" + path + "].");
+        }
+        if (entry.method != STORED && entry.method != DEFLATED) {
+            throw new RuntimeException("Unsupported zip compression method " + entry.method + ": [" + path + "].");
+        }
+    }
+
+    /**
+     * Opens the uncompressed content of a file entry.
+     */
+    InputStream open(final Entry entry, final String path) {
+        checkReadable(entry, path);
+        final long offset = dataOffset(entry);
+        final FileChannel channel;
+        try {
+            channel = FileChannel.open(archive, StandardOpenOption.READ);
+            channel.position(offset);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open zip entry: [" + path + "].", e);
+        }
+        final InputStream compressed = new LimitedInputStream(Channels.newInputStream(channel), entry.compressedSize);
+        if (entry.method == STORED) {
+            return compressed;
+        }
+        return new EntryInflaterInputStream(new BufferedInputStream(compressed, NodeIo.BUFFER_SIZE));
+    }
+
+    /**
+     * Reads a range of a stored entry with positional reads.
+     *
+     * @return Count of read bytes.
+     */
+    int read(final Entry entry, final long position, final ByteBuffer destination, final String path) {
+        final long offset = dataOffset(entry);
+        try (final FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ)) {
+            int total = 0;
+            final int limit = destination.limit();
+            destination.limit((int) Math.min(limit, destination.position() + Math.max(0, entry.size - position)));
+            try {
+                while (destination.hasRemaining()) {
+                    final int count = channel.read(destination, offset + position + total);
+                    if (count == -1) {
+                        break;
+                    }
+                    total += count;
+                }
+            } finally {
+                destination.limit(limit);
+            }
+            return total;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read zip entry: [" + path + "].", e);
+        }
+    }
+
+    /**
+     * Inflates raw deflate data, releasing the native inflater when closed.
+     */
+    private static final class EntryInflaterInputStream extends InflaterInputStream {
+        private boolean eof = false;
+        private boolean closed = false;
+
+        EntryInflaterInputStream(final InputStream in) {
+            super(in, new Inflater(true), NodeIo.BUFFER_SIZE);
+        }
+
+        /**
+         * Provides an extra dummy byte at the end of input, which is needed by the inflater in "nowrap" mode.
+         */
+        @Override
+        protected void fill() throws IOException {
+            if (eof) {
+                throw new EOFException("Unexpected end of zip entry data.");
+            }
+            len = in.read(buf, 0, buf.length);
+            if (len == -1) {
+                buf[0] = 0;
+                len = 1;
+                eof = true;
+            }
+            inf.setInput(buf, 0, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                inf.end();
+                super.close();
+            }
+        }
+    }
+}
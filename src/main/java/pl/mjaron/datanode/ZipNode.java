@@ -0,0 +1,262 @@
+package pl.mjaron.datanode;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Read-only view of a zip archive (e.g. a jar) as a directory tree, without extracting it.
+ * <p>
+ * The tree is built from the central directory of the archive, which is read once and cached per archive as long as
+ * its size and modification time don't change. Entries are read directly from the archive: stored (uncompressed)
+ * entries with positional reads or memory-mapping, deflated entries by streaming through an inflater. Nodes see the
+ * archive as it was when they were created. Modifying operations throw {@link UnsupportedOperationException}.
+ */
+public class ZipNode implements INode {
+
+    private final ZipIndex index;
+    private final String entryPath;
+
+    /**
+     * Null when the archive doesn't contain the entry.
+     */
+    private final ZipIndex.Entry entry;
+
+    /**
+     * @param archive Path of the zip archive. The node represents root directory of the archive.
+     * @throws RuntimeException when the archive can't be read.
+     */
+    public ZipNode(final Path archive) {
+        this(ZipIndex.of(archive), "");
+    }
+
+    public ZipNode(final File archive) {
+        this(archive.toPath());
+    }
+
+    public ZipNode(final String archivePath) {
+        this(Paths.get(archivePath));
+    }
+
+    private ZipNode(final ZipIndex index, final String entryPath) {
+        this.index = index;
+        this.entryPath = entryPath;
+        this.entry = index.get(entryPath);
+    }
+
+    /**
+     * Drops cached central directories of all archives, so they are read again by next created nodes.
+     */
+    public static void clearIndexCache() {
+        ZipIndex.clearCache();
+    }
+
+    /**
+     * @return Path of the archive.
+     */
+    public Path getArchivePath() {
+        return index.archive;
+    }
+
+    /**
+     * @return Path of this entry inside the archive, separated with '/', empty for the root.
+     */
+    public String getEntryPath() {
+        return entryPath;
+    }
+
+    /**
+     * @return Compressed size of the file, 0 for directories.
+     */
+    public long getCompressedSize() {
+        return (entry == null || entry.directory) ? 0 : entry.compressedSize;
+    }
+
+    private boolean isStored() {
+        return entry != null && !entry.directory && entry.method == ZipIndex.STORED && (entry.flags & 1) == 0;
+    }
+
+    private ZipIndex.Entry file() {
+        if (entry == null || entry.directory) {
+            throw new RuntimeException("Not a file in the zip archive: [" + getPath() + "].");
+        }
+        return entry;
+    }
+
+    private UnsupportedOperationException readOnly() {
+        return new UnsupportedOperationException("Zip archive is read-only: [" + getPath() + "].");
+    }
+
+    @Override
+    public String toString() {
+        return getPath();
+    }
+
+    @Override
+    public String getName() {
+        if (entryPath.isEmpty()) {
+            return index.getRoot().name;
+        }
+        return entryPath.substring(entryPath.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * @return Path of the archive followed by {@code !/} and the entry path, like in jar URLs.
+     */
+    @Override
+    public String getPath() {
+        if (entryPath.isEmpty()) {
+            return index.archive.toString();
+        }
+        return index.archive + "!/" + entryPath;
+    }
+
+    @Override
+    public boolean isFile() {
+        return entry != null && !entry.directory;
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return entry != null && entry.directory;
+    }
+
+    @Override
+    public boolean exists() {
+        return entry != null;
+    }
+
+    @Override
+    public INode mkdirs() {
+        throw readOnly();
+    }
+
+    @Override
+    public INode touch() {
+        throw readOnly();
+    }
+
+    @Override
+    public INode remove() {
+        throw readOnly();
+    }
+
+    /**
+     * @return Uncompressed size of the file.
+     */
+    @Override
+    public long getSize() {
+        return isFile() ? entry.size : 0;
+    }
+
+    @Override
+    public long getLastModified() {
+        return (entry == null) ? 0 : entry.lastModified;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return index.open(file(), getPath());
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        throw readOnly();
+    }
+
+    @Override
+    public INode moveTo(final INode target) {
+        throw readOnly();
+    }
+
+    @Override
+    public List<String> getChildrenNames() {
+        if (!isDirectory()) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(entry.children.keySet());
+    }
+
+    @Override
+    public List<INode> getChildren() {
+        if (!isDirectory()) {
+            return Collections.emptyList();
+        }
+        final List<INode> result = new ArrayList<>(entry.children.size());
+        for (final String name : entry.children.keySet()) {
+            result.add(getChild(name));
+        }
+        return result;
+    }
+
+    @Override
+    public INode getChild(final String name) {
+        String childName = name;
+        while (childName.startsWith("/")) {
+            childName = childName.substring(1);
+        }
+        while (childName.endsWith("/")) {
+            childName = childName.substring(0, childName.length() - 1);
+        }
+        return new ZipNode(index, entryPath.isEmpty() ? childName : entryPath + "/" + childName);
+    }
+
+    @Override
+    public File asJavaFile() {
+        return null;
+    }
+
+    @Override
+    public int getChildrenCount() {
+        return isDirectory() ? entry.children.size() : 0;
+    }
+
+    /**
+     * Reads attributes from the central directory, without touching the archive.
+     */
+    @Override
+    public void visitChildren(final ChildVisitor visitor) {
+        if (!isDirectory()) {
+            return;
+        }
+        for (final ZipIndex.Entry child : entry.children.values()) {
+            if (child.directory) {
+                visitor.visit(child.name, NodeAttributes.Type.DIRECTORY, 0, child.lastModified);
+            } else {
+                visitor.visit(child.name, NodeAttributes.Type.FILE, child.size, child.lastModified);
+            }
+        }
+    }
+
+    /**
+     * Stored entries are read with a positional read from the archive.
+     */
+    @Override
+    public int readInto(final ByteBuffer buffer) {
+        if (isStored()) {
+            return index.read(entry, 0, buffer, getPath());
+        }
+        return INode.super.readInto(buffer);
+    }
+
+    /**
+     * Stored entries are memory-mapped from the archive, compressed entries are inflated to heap buffers.
+     */
+    @Override
+    public MappedData map(final long offset, final long length) {
+        MappedData.checkRegion(offset, length);
+        if (isStored()) {
+            final long available = Math.max(0, entry.size - offset);
+            return MappedData.map(index.archive, index.dataOffset(entry) + Math.min(offset, entry.size),
+                    Math.min(length, available), MappedData.SEGMENT_SIZE);
+        }
+        file();
+        return INode.super.map(offset, length);
+    }
+}
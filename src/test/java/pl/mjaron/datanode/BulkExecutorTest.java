@@ -0,0 +1,97 @@
+package pl.mjaron.datanode;
+
+import org.junit.jupiter.api.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class BulkExecutorTest {
+
+    @Test
+    void perStoreLimit() {
+        final BulkExecutor executor = BulkExecutor.create(8, 2);
+        final AtomicInteger running = new AtomicInteger(0);
+        final AtomicInteger maxRunning = new AtomicInteger(0);
+        final INode root = new MemoryNode();
+        final List<INode> nodes = new ArrayList<>();
+        for (int i = 0; i < 10; ++i) {
+            nodes.add(root.getChild("file" + i));
+        }
+        final List<String> names = executor.invokeAll(nodes, node -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            running.decrementAndGet();
+            return node.getName();
+        });
+        Assertions.assertEquals("file7", names.get(7));
+        Assertions.assertTrue(maxRunning.get() <= 2);
+        executor.shutdown();
+    }
+
+    @Test
+    void concurrentTreeCopy() {
+        final INode source = new MemoryNode();
+        for (int i = 0; i < 5; ++i) {
+            source.getChild("dir" + i).mkdirs().getChild("file.txt").write("content " + i);
+        }
+        final BulkExecutor executor = BulkExecutor.platform(4, 4);
+        final INode target = source.copyTo(new MemoryNode().getChild("copy"), executor);
+        Assertions.assertEquals(10, target.getDescendants().size());
+        Assertions.assertEquals("content 3", target.getChild("dir3/file.txt").readString());
+        executor.shutdown();
+    }
+
+    @Test
+    void failurePropagates() {
+        final INode missing = new MemoryNode().getChild("missing");
+        final List<INode> nodes = new ArrayList<>();
+        nodes.add(missing);
+        Assertions.assertThrows(RuntimeException.class, () -> BulkExecutor.getDefault().invokeAll(nodes, INode::readBytes));
+    }
+
+    @Test
+    void busyStoreDoesNotHoldThreads() throws Exception {
+        final BulkExecutor executor = BulkExecutor.platform(2, 1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final INode memory = new MemoryNode();
+        final List<CompletableFuture<Boolean>> blocked = new ArrayList<>();
+        for (int i = 0; i < 5; ++i) {
+            blocked.add(executor.submit(memory, () -> {
+                try {
+                    return release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+        final INode local = new FileNode("bulk.txt");
+        Assertions.assertEquals("bulk.txt", executor.submit(local, local::getName).get(5, TimeUnit.SECONDS));
+        release.countDown();
+        for (final CompletableFuture<Boolean> future : blocked) {
+            Assertions.assertTrue(future.get(5, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+    }
+
+    @Test
+    void decoratedNodesUseBackingStore() {
+        final BulkExecutor executor = BulkExecutor.platform(1, 1);
+        final INode local = new FileNode("bulkDir").getChild("file.txt");
+        Assertions.assertEquals(executor.storeKey(local), executor.storeKey(new CachingNode(local, 1000, 1000)));
+        Assertions.assertEquals(executor.storeKey(local),
+                executor.storeKey(new MetricsNode(new CachingNode(local, 1000, 1000))));
+        Assertions.assertEquals(executor.storeKey(local), executor.storeKey(new FileNode("bulkDir").getChild("other.txt")));
+        final INode memory = new MemoryNode();
+        Assertions.assertEquals(executor.storeKey(memory), executor.storeKey(new CachingNode(memory, 1000, 1000)));
+        Assertions.assertNotEquals(executor.storeKey(local), executor.storeKey(new CachingNode(memory, 1000, 1000)));
+        executor.shutdown();
+    }
+}
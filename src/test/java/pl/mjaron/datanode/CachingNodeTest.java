@@ -0,0 +1,134 @@
+package pl.mjaron.datanode;
+
+import org.junit.jupiter.api.*;
+
+class CachingNodeTest {
+
+    @Test
+    void metadataIsCached() {
+        final INode backing = new MemoryNode();
+        backing.getChild("dir").mkdirs().getChild("file.txt").write("abc");
+        final CachingNode root = new CachingNode(backing, 60_000, 1024);
+        final INode file = root.getChild("dir").getChild("file.txt");
+
+        Assertions.assertTrue(file.isFile());
+        Assertions.assertEquals(3, file.getSize());
+        backing.getChild("dir/file.txt").write("abcdef");
+        Assertions.assertEquals(3, file.getSize());
+        Assertions.assertEquals(2, root.getCache().getMetadataHits());
+
+        root.getCache().invalidate(backing.getChild("dir/file.txt").getPath());
+        Assertions.assertEquals(6, file.getSize());
+    }
+
+    @Test
+    void attributesShareOneEntry() {
+        final INode backing = new MemoryNode();
+        backing.getChild("file.txt").write("abc");
+        final CachingNode root = new CachingNode(backing, 60_000, 1024);
+        final INode file = root.getChild("file.txt");
+        Assertions.assertTrue(file.exists());
+        Assertions.assertTrue(file.isFile());
+        Assertions.assertFalse(file.isDirectory());
+        Assertions.assertEquals(3, file.getSize());
+        Assertions.assertTrue(file.getLastModified() >= 0);
+        Assertions.assertEquals(1, root.getCache().getMetadataMisses());
+        Assertions.assertEquals(4, root.getCache().getMetadataHits());
+
+        final INode missing = root.getChild("missing.txt");
+        Assertions.assertFalse(missing.exists());
+        Assertions.assertNull(missing.getAttributes());
+        Assertions.assertFalse(missing.isFile());
+        Assertions.assertEquals(2, root.getCache().getMetadataMisses());
+    }
+
+    @Test
+    void writeThroughDecoratorInvalidates() {
+        final CachingNode root = new CachingNode(new MemoryNode(), 60_000, 1024);
+        final INode dir = root.getChild("dir").mkdirs();
+        Assertions.assertEquals(0, dir.getChildrenCount());
+
+        final INode file = dir.getChild("file.txt");
+        Assertions.assertFalse(file.exists());
+        file.write("first");
+        Assertions.assertTrue(file.exists());
+        Assertions.assertEquals(1, dir.getChildrenCount());
+        Assertions.assertEquals("first", file.readString());
+        Assertions.assertEquals("first", file.readString());
+        Assertions.assertEquals(1, root.getCache().getContentHits());
+
+        file.write("second");
+        Assertions.assertEquals("second", file.readString());
+        dir.remove();
+        Assertions.assertFalse(file.exists());
+        Assertions.assertEquals(0, root.getCache().getContentBytes());
+    }
+
+    @Test
+    void contentBudget() {
+        final INode backing = new MemoryNode();
+        for (int i = 0; i < 4; ++i) {
+            backing.getChild("file" + i).write(new byte[100]);
+        }
+        final CachingNode root = new CachingNode(backing, 60_000, 250);
+        for (int i = 0; i < 4; ++i) {
+            root.getChild("file" + i).readBytes();
+        }
+        Assertions.assertEquals(200, root.getCache().getContentBytes());
+        root.getChild("file3").readBytes();
+        Assertions.assertEquals(1, root.getCache().getContentHits());
+        root.getChild("file0").readBytes();
+        Assertions.assertEquals(1, root.getCache().getContentHits());
+    }
+
+    @Test
+    void contentIsCheckedAfterTtl() throws InterruptedException {
+        final INode backing = new MemoryNode();
+        backing.getChild("changed.txt").write("abc");
+        backing.getChild("same.txt").write("same");
+        final CachingNode root = new CachingNode(backing, 50, 1024);
+        Assertions.assertEquals("abc", root.getChild("changed.txt").readString());
+        Assertions.assertEquals("same", root.getChild("same.txt").readString());
+        backing.getChild("changed.txt").write("abcdef");
+        Assertions.assertEquals("abc", root.getChild("changed.txt").readString());
+
+        Thread.sleep(100);
+        Assertions.assertEquals("abcdef", root.getChild("changed.txt").readString());
+        final long hits = root.getCache().getContentHits();
+        Assertions.assertEquals("same", root.getChild("same.txt").readString());
+        Assertions.assertEquals(hits + 1, root.getCache().getContentHits());
+    }
+
+    @Test
+    void invalidation() {
+        final NodeCache cache = new NodeCache(60_000, 1024);
+        final NodeAttributes attributes = new NodeAttributes("a", NodeAttributes.Type.FILE, 1, 1);
+        cache.putContent("/dir/a", new byte[1], attributes, cache.stamp("/dir/a"));
+        cache.putContent("/dir/sub/b", new byte[1], attributes, cache.stamp("/dir/sub/b"));
+        cache.putContent("/dir2/c", new byte[1], attributes, cache.stamp("/dir2/c"));
+        cache.invalidate("/dir");
+        Assertions.assertEquals(1, cache.getContentBytes());
+        Assertions.assertNotNull(cache.getContent("/dir2/c", () -> attributes));
+        Assertions.assertNull(cache.getContent("/dir/sub/b", () -> attributes));
+
+        final Object late = cache.stamp("/dir/late");
+        cache.invalidate("/dir/late");
+        cache.putContent("/dir/late", new byte[1], attributes, late);
+        Assertions.assertNull(cache.getContent("/dir/late", () -> attributes));
+
+        final Object underParent = cache.stamp("/dir/x/y");
+        cache.invalidate("/dir/x");
+        cache.putContent("/dir/x/y", new byte[1], attributes, underParent);
+        Assertions.assertNull(cache.getContent("/dir/x/y", () -> attributes));
+
+        final Object unrelated = cache.stamp("/dir2/d");
+        cache.invalidate("/dir/other");
+        cache.putContent("/dir2/d", new byte[1], attributes, unrelated);
+        Assertions.assertNotNull(cache.getContent("/dir2/d", () -> attributes));
+        Assertions.assertEquals("value", cache.get("/dir2/e", NodeCache.Kind.CHILDREN_NAMES, () -> {
+            cache.invalidate("/dir/other");
+            return "value";
+        }));
+        Assertions.assertEquals("value", cache.get("/dir2/e", NodeCache.Kind.CHILDREN_NAMES, () -> "reloaded"));
+    }
+}
@@ -0,0 +1,167 @@
+package pl.mjaron.datanode;
+
+import org.junit.jupiter.api.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPInputStream;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class CompressedNodeTest {
+
+    private static final INode directory = new FileNode("compressed_dir");
+
+    private static byte[] text(final int size) {
+        final StringBuilder builder = new StringBuilder(size + 64);
+        for (int line = 0; builder.length() < size; ++line) {
+            builder.append("Line ").append(line).append(" of compressible content.\n");
+        }
+        return builder.substring(0, size).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] gunzip(final byte[] compressed) throws IOException {
+        try (final InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return NodeIo.readAll(in, -1);
+        }
+    }
+
+    @Test
+    @Order(0)
+    void prepare() {
+        directory.remove().mkdirs();
+    }
+
+    @Test
+    @Order(1)
+    void roundTrip() {
+        final byte[] content = text(100_000);
+        for (final CompressionCodec codec : new CompressionCodec[]{CompressionCodec.gzip(), CompressionCodec.deflate()}) {
+            for (final INode root : new INode[]{directory, new MemoryNode()}) {
+                final CompressedNode compressed = new CompressedNode(root, codec);
+                final INode file = compressed.getChild("sub/file.txt");
+                compressed.getChild("sub").mkdirs();
+                file.write(content);
+                Assertions.assertArrayEquals(content, file.readBytes());
+                Assertions.assertTrue(root.getChild("sub/file.txt").getSize() < content.length / 4);
+                Assertions.assertTrue(compressed.getChild("sub").getChildren().get(0) instanceof CompressedNode);
+
+                file.writeAtomic("atomic".getBytes(StandardCharsets.UTF_8));
+                Assertions.assertEquals("atomic", file.readString());
+                file.append(ByteBuffer.wrap(" appended".getBytes(StandardCharsets.UTF_8)));
+                Assertions.assertEquals("atomic appended", file.readString());
+                compressed.getChild("sub").remove();
+            }
+        }
+    }
+
+    @Test
+    @Order(2)
+    void parallelBlocks() throws IOException {
+        final byte[] content = text(1_000_000);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final INode file = new CompressedNode(directory, CompressionCodec.gzip(), 64 * 1024, executor)
+                    .getChild("large.txt.gz");
+            try (final OutputStream out = file.getOutputStream()) {
+                for (int offset = 0; offset < content.length; offset += 10_000) {
+                    out.write(content, offset, Math.min(10_000, content.length - offset));
+                }
+            }
+            final byte[] stored = directory.getChild("large.txt.gz").readBytes();
+            Assertions.assertTrue(stored.length < content.length / 4);
+            Assertions.assertArrayEquals(content, gunzip(stored));
+            Assertions.assertArrayEquals(content, file.readBytes());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Stream like a network stream: reads return small chunks and no bytes are reported as available.
+     */
+    private static final class NetworkLikeInputStream extends FilterInputStream {
+        NetworkLikeInputStream(final byte[] data) {
+            super(new ByteArrayInputStream(data));
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            return in.read(b, off, Math.min(len, 7));
+        }
+
+        @Override
+        public int available() {
+            return 0;
+        }
+    }
+
+    @Test
+    @Order(3)
+    void membersWithoutAvailableBytes() throws IOException {
+        final byte[] content = text(300_000);
+        final INode file = new CompressedNode(new MemoryNode(), CompressionCodec.gzip(), 100_000, ForkJoinPool.commonPool())
+                .getChild("members.gz");
+        file.write(content);
+        final byte[] stored = ((CompressedNode) file).getDelegate().readBytes();
+        try (final InputStream in = CompressionCodec.gzip().decompress(new NetworkLikeInputStream(stored))) {
+            Assertions.assertArrayEquals(content, NodeIo.readAll(in, -1));
+        }
+        final byte[] padded = Arrays.copyOf(stored, stored.length + 512);
+        try (final InputStream in = CompressionCodec.gzip().decompress(new NetworkLikeInputStream(padded))) {
+            Assertions.assertArrayEquals(content, NodeIo.readAll(in, -1));
+        }
+        final byte[] notGzip = new byte[16];
+        Assertions.assertThrows(IOException.class, () -> NodeIo.readAll(CompressionCodec.gzip().decompress(new ByteArrayInputStream(notGzip)), -1));
+    }
+
+    @Test
+    @Order(4)
+    void emptyAndAppend() throws IOException {
+        final INode file = new CompressedNode(directory, CompressionCodec.gzip()).getChild("empty.gz");
+        file.touch();
+        Assertions.assertTrue(file.isFile());
+        Assertions.assertEquals(0, file.readBytes().length);
+
+        file.append(ByteBuffer.wrap("first".getBytes(StandardCharsets.UTF_8)));
+        final long size = file.getSize();
+        file.append(ByteBuffer.wrap(" second".getBytes(StandardCharsets.UTF_8)));
+        Assertions.assertTrue(file.getSize() > size);
+        Assertions.assertEquals("first second", file.readString());
+        Assertions.assertEquals("first second", new String(gunzip(directory.getChild("empty.gz").readBytes()),
+                StandardCharsets.UTF_8));
+    }
+
+    @Test
+    @Order(5)
+    void copyCompressed() {
+        final CompressedNode source = new CompressedNode(directory, CompressionCodec.gzip());
+        final INode copy = source.getChild("copy.gz");
+        source.getChild("empty.gz").copyTo(copy);
+        Assertions.assertArrayEquals(directory.getChild("empty.gz").readBytes(), directory.getChild("copy.gz").readBytes());
+
+        final INode plain = new MemoryNode().getChild("plain.txt");
+        copy.copyTo(plain);
+        Assertions.assertEquals("first second", plain.readString());
+
+        final INode deflated = new CompressedNode(directory, CompressionCodec.deflate()).getChild("copy.zz");
+        copy.moveTo(deflated);
+        Assertions.assertFalse(copy.exists());
+        Assertions.assertEquals("first second", deflated.readString());
+    }
+
+    @Test
+    @Order(6)
+    void cleanup() {
+        directory.remove();
+        Assertions.assertFalse(directory.exists());
+    }
+}
@@ -0,0 +1,87 @@
+package pl.mjaron.datanode;
+
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Random;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class ContentHasherTest {
+
+    private static final INode root = new FileNode("hashTree");
+    private static final INode cacheFile = new FileNode("hashCache.bin");
+
+    private static byte[] sha256(final byte[] content) throws NoSuchAlgorithmException {
+        return MessageDigest.getInstance("SHA-256").digest(content);
+    }
+
+    @Test
+    @Order(0)
+    void hashDescendants() throws NoSuchAlgorithmException {
+        root.remove();
+        cacheFile.remove();
+        root.getChild("a").mkdirs();
+        root.getChild("a").getChild("small.txt").write("small");
+        root.getChild("empty.txt").touch();
+        final byte[] large = new byte[3 * 1024 * 1024 + 17];
+        new Random(1).nextBytes(large);
+        root.getChild("large.bin").write(large);
+
+        final HashCache cache = new HashCache("SHA-256");
+        final Map<String, byte[]> hashes = new ContentHasher("SHA-256", cache).hashDescendants(root);
+        Assertions.assertEquals(3, hashes.size());
+        Assertions.assertArrayEquals(sha256("small".getBytes(StandardCharsets.UTF_8)),
+                hashes.get(root.getChild("a").getChild("small.txt").getPath()));
+        Assertions.assertArrayEquals(sha256(new byte[0]), hashes.get(root.getChild("empty.txt").getPath()));
+        Assertions.assertArrayEquals(sha256(large), hashes.get(root.getChild("large.bin").getPath()));
+        Assertions.assertArrayEquals(sha256(large), root.getChild("large.bin").hash("SHA-256"));
+        Assertions.assertEquals(0, cache.getHits());
+        Assertions.assertEquals(3, cache.size());
+        cache.save(cacheFile);
+    }
+
+    @Test
+    @Order(1)
+    void cachedHashes() throws IOException, NoSuchAlgorithmException {
+        final HashCache cache = new HashCache("SHA-256").load(cacheFile);
+        Assertions.assertEquals(3, cache.size());
+        final ContentHasher hasher = new ContentHasher("SHA-256", cache);
+        hasher.hashDescendants(root);
+        Assertions.assertEquals(3, cache.getHits());
+        Assertions.assertEquals(0, cache.getMisses());
+
+        final INode small = root.getChild("a").getChild("small.txt");
+        small.write("small changed");
+        Files.setLastModifiedTime(small.asJavaFile().toPath(), FileTime.fromMillis(System.currentTimeMillis() + 5_000));
+        final INode empty = root.getChild("empty.txt");
+        empty.write("xyz");
+        root.getChild("large.bin").remove();
+        final Map<String, byte[]> hashes = hasher.hashDescendantsAndPrune(root);
+        Assertions.assertEquals(2, hashes.size());
+        Assertions.assertArrayEquals(sha256("small changed".getBytes(StandardCharsets.UTF_8)), hashes.get(small.getPath()));
+        Assertions.assertArrayEquals(sha256("xyz".getBytes(StandardCharsets.UTF_8)), hashes.get(empty.getPath()));
+        Assertions.assertEquals(2, cache.getMisses());
+        Assertions.assertEquals(2, cache.size());
+
+        Assertions.assertEquals(0, new HashCache("MD5").load(cacheFile).size());
+    }
+
+    @Test
+    @Order(2)
+    void memoryTree() throws NoSuchAlgorithmException {
+        final INode memoryRoot = new MemoryNode();
+        memoryRoot.getChild("x").mkdirs().getChild("y.txt").write("y");
+        memoryRoot.getChild("z.txt").write("z");
+        final Map<String, byte[]> hashes = new ContentHasher("SHA-256", null).hashDescendants(memoryRoot);
+        Assertions.assertEquals(2, hashes.size());
+        Assertions.assertArrayEquals(sha256("y".getBytes(StandardCharsets.UTF_8)),
+                hashes.get(memoryRoot.getChild("x").getChild("y.txt").getPath()));
+        Assertions.assertArrayEquals(sha256("z".getBytes(StandardCharsets.UTF_8)), memoryRoot.getChild("z.txt").hash("SHA-256"));
+    }
+}
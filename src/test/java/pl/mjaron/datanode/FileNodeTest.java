@@ -2,7 +2,27 @@ package pl.mjaron.datanode;
 
 import org.junit.jupiter.api.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.regex.Pattern;
 
 @TestMethodOrder(MethodOrderer.OrderAnnotation.class)
@@ -159,4 +179,375 @@ class FileNodeTest {
         System.out.println("Descendants: " + descendants);
         Assertions.assertEquals(2, descendants.size());
     }
-}
\ No newline at end of file
+
+    @Test
+    @Order(16)
+    void streamDescendants() {
+        INode node = new FileNode("myDir");
+        try (Stream<INode> stream = node.streamDescendants()) {
+            Assertions.assertEquals(node.getDescendants().toString(), stream.collect(Collectors.toList()).toString());
+        }
+        try (Stream<INode> stream = node.streamFileDescendants()) {
+            Assertions.assertEquals(1, stream.count());
+        }
+    }
+
+    @Test
+    @Order(17)
+    void descendantsIterator() {
+        INode node = new FileNode("myDir");
+        node.getChild("secondNestedDir").mkdirs().getChild("secondFile.txt").touch();
+
+        Iterator<INode> bfs = node.descendantsIterator(TraversalOrder.BREADTH_FIRST, Integer.MAX_VALUE, null);
+        Assertions.assertTrue(bfs.next().isDirectory());
+        Assertions.assertTrue(bfs.next().isDirectory());
+        Assertions.assertTrue(bfs.next().isFile());
+        Assertions.assertTrue(bfs.next().isFile());
+        Assertions.assertFalse(bfs.hasNext());
+
+        Assertions.assertEquals(2, node.streamDescendants(TraversalOrder.DEPTH_FIRST, 1, null).count());
+        Assertions.assertEquals(2, node.streamDescendants(TraversalOrder.DEPTH_FIRST, Integer.MAX_VALUE,
+                n -> n.getName().equals("secondNestedDir")).count());
+        node.getChild("secondNestedDir").remove();
+    }
+
+    @Test
+    @Order(18)
+    void parallelDescendants() {
+        INode node = new FileNode("myDir");
+        for (int i = 0; i < 10; ++i) {
+            node.getChild("parallel").getChild("dir" + i).mkdirs().getChild("file.txt").touch();
+        }
+        List<INode> files = node.getFileDescendants(new ParallelTraversal(4));
+        Assertions.assertEquals(11, files.size());
+        Assertions.assertEquals(node.getDescendants().size(), node.getDescendants(new ParallelTraversal(4)).size());
+        Assertions.assertEquals(11, node.streamFileDescendants().parallel().count());
+        node.getChild("parallel").remove();
+    }
+
+    @Test
+    @Order(19)
+    void copyTo() {
+        INode source = new FileNode("copySource");
+        source.remove();
+        source.getChild("nested").mkdirs().getChild("file.txt").write("copied content");
+        INode target = source.copyTo(new FileNode("copyTarget").remove());
+        Assertions.assertEquals("copied content", target.getChild("nested").getChild("file.txt").readString());
+        Assertions.assertTrue(source.exists());
+
+        INode pathTarget = source.copyTo(new PathNode("copyPathTarget").remove());
+        Assertions.assertEquals(14, pathTarget.getChild("nested").getChild("file.txt").getSize());
+    }
+
+    @Test
+    @Order(20)
+    void moveTo() {
+        INode source = new FileNode("copyTarget");
+        INode target = source.moveTo(new FileNode("moveTarget").remove());
+        Assertions.assertFalse(source.exists());
+        Assertions.assertEquals("copied content", target.getChild("nested").getChild("file.txt").readString());
+        target.remove();
+        new FileNode("copySource").remove();
+        new FileNode("copyPathTarget").remove();
+    }
+
+    @Test
+    @Order(21)
+    void map() throws Exception {
+        INode node = new FileNode("mappedFile.bin");
+        node.write("0123456789");
+        try (MappedData data = node.map()) {
+            Assertions.assertTrue(data.isMapped());
+            Assertions.assertEquals(10, data.size());
+            Assertions.assertEquals('7', data.get(7));
+        }
+        try (MappedData data = node.map(8, 100)) {
+            Assertions.assertEquals(2, data.size());
+            Assertions.assertEquals('9', data.getSegment(0).get(1));
+        }
+        try (MappedData data = MappedData.map(node.asJavaFile().toPath(), 1, 8, 3)) {
+            Assertions.assertEquals(3, data.getSegmentCount());
+            Assertions.assertEquals(2, data.getSegment(2).remaining());
+            Assertions.assertEquals('8', data.get(7));
+        }
+        try (MappedData data = MappedData.read(node.getInputStream(), 1, 8, 3)) {
+            Assertions.assertFalse(data.isMapped());
+            Assertions.assertEquals(3, data.getSegmentCount());
+            Assertions.assertEquals('8', data.get(7));
+        }
+        final byte[] large = new byte[250_000];
+        large[249_999] = 7;
+        try (MappedData data = MappedData.read(new ByteArrayInputStream(large), 0, Long.MAX_VALUE, 100_000)) {
+            Assertions.assertEquals(250_000, data.size());
+            Assertions.assertEquals(3, data.getSegmentCount());
+            Assertions.assertEquals(50_000, data.getSegment(2).remaining());
+            Assertions.assertEquals(7, data.get(249_999));
+        }
+        try (MappedData data = MappedData.read(new ByteArrayInputStream(large, 0, 10), 2, 50, 100_000)) {
+            Assertions.assertEquals(8, data.size());
+            Assertions.assertEquals(8, data.getSegment(0).remaining());
+        }
+        Assertions.assertThrows(IllegalArgumentException.class, () -> node.map(-1, 10));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new MemoryNode().getChild("file").touch().map(-1, 10));
+        node.remove();
+    }
+
+    @Test
+    @Order(22)
+    void readIntoBuffers() {
+        INode node = new FileNode("readFile.bin");
+        node.write("0123456789");
+        Assertions.assertEquals("0123456789", new String(node.readBytes()));
+
+        byte[] array = new byte[20];
+        Assertions.assertEquals(4, node.read(array, 2, 4));
+        Assertions.assertEquals('3', array[5]);
+        Assertions.assertEquals(10, node.read(array, 0, 20));
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(6);
+        Assertions.assertEquals(6, node.readInto(direct));
+        Assertions.assertEquals('5', direct.get(5));
+        ByteBuffer heap = ByteBuffer.allocate(16);
+        heap.position(1);
+        Assertions.assertEquals(10, node.readInto(heap));
+        Assertions.assertEquals(11, heap.position());
+        node.remove();
+    }
+
+    @Test
+    @Order(23)
+    void asyncOperations() throws Exception {
+        INode node = new FileNode("asyncFile.txt");
+        Assertions.assertSame(node, node.writeAsync("async content".getBytes()).get());
+        Assertions.assertEquals("async content", new String(node.readBytesAsync().get()));
+        Assertions.assertTrue(node.existsAsync().get());
+        Assertions.assertEquals(1, new FileNode("myDir").getChildrenAsync().get().size());
+        INode copy = node.copyToAsync(new FileNode("asyncCopy.txt")).get();
+        Assertions.assertEquals("async content", copy.readString());
+        copy.remove();
+        node.remove();
+        Assertions.assertThrows(Exception.class, () -> node.readBytesAsync().get());
+    }
+
+    @Test
+    @Order(24)
+    void childrenWithAttributes() {
+        INode dir = new FileNode("attributesDir");
+        dir.remove();
+        dir.getChild("sub").mkdirs();
+        dir.getChild("file.txt").write("12345");
+        Assertions.assertEquals(2, dir.getChildrenCount());
+        Assertions.assertEquals(0, dir.getChild("missing").getChildrenCount());
+        Assertions.assertEquals(0, dir.getChild("file.txt").getChildrenCount());
+        Assertions.assertTrue(dir.getChild("file.txt").getLastModified() > 0);
+        Assertions.assertEquals(0, dir.getChild("missing").getLastModified());
+
+        List<NodeAttributes> attributes = dir.getChildrenWithAttributes();
+        Assertions.assertEquals(2, attributes.size());
+        for (NodeAttributes child : attributes) {
+            if (child.getName().equals("file.txt")) {
+                Assertions.assertTrue(child.isFile());
+                Assertions.assertEquals(5, child.getSize());
+                Assertions.assertEquals(dir.getChild("file.txt").getLastModified(), child.getLastModified());
+            } else {
+                Assertions.assertEquals("sub", child.getName());
+                Assertions.assertEquals(NodeAttributes.Type.DIRECTORY, child.getType());
+                Assertions.assertEquals(0, child.getSize());
+            }
+        }
+        long[] totalSize = {0};
+        dir.visitChildren((name, type, size, lastModified) -> totalSize[0] += size);
+        Assertions.assertEquals(5, totalSize[0]);
+        dir.remove();
+    }
+
+    @Test
+    @Order(25)
+    void filteredChildren() {
+        INode dir = new FileNode("filterDir");
+        dir.remove();
+        dir.getChild("a.txt").mkdirs();
+        dir.getChild("a.txt").getChild("inner.txt").write("inner");
+        dir.getChild("b.md").write("b");
+        dir.getChild("c.txt").write("c");
+        dir.getChild(".hidden").mkdirs();
+        dir.getChild(".hidden").getChild("secret.txt").write("s");
+
+        Assertions.assertEquals(2, dir.getChildren(name -> name.endsWith(".txt")).size());
+        Assertions.assertEquals(3, dir.getChildrenByGlob("*.{txt,md}").size());
+        Assertions.assertEquals(1, dir.getChildrenByGlob("[!a]*.txt").size());
+        Assertions.assertEquals(1, dir.getChildrenByGlob("?.md").size());
+        Assertions.assertEquals(0, dir.getChildrenByGlob("a").size());
+        Assertions.assertEquals(2, dir.getChildrenMatching("glob:*.txt").size());
+        Assertions.assertEquals(1, dir.getChildrenMatching("regex:[bc]\\.md").size());
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> dir.getChildrenMatching("unknown:*"));
+        Assertions.assertTrue(dir.getChildren(name -> true).get(0) instanceof FileNode);
+        Assertions.assertEquals(0, dir.getChild("missing").getChildren(name -> true).size());
+
+        List<INode> visible = dir.getDescendants(name -> !name.startsWith("."));
+        Assertions.assertEquals(5, visible.size());
+        Assertions.assertEquals(4, dir.getDescendants(name -> name.endsWith(".txt")).size());
+        Assertions.assertEquals(3, dir.streamDescendants(TraversalOrder.BREADTH_FIRST, Integer.MAX_VALUE,
+                name -> !name.startsWith("."), null).filter(INode::isFile).count());
+        Assertions.assertEquals(6, dir.getDescendants().size());
+        dir.remove();
+    }
+
+    /**
+     * Collects events until all expected ones arrive or the timeout passes.
+     */
+    static Map<String, NodeEvent.Kind> awaitEvents(BlockingQueue<List<NodeEvent>> batches, Map<String, NodeEvent.Kind> expected) throws InterruptedException {
+        Map<String, NodeEvent.Kind> received = new HashMap<>();
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!received.entrySet().containsAll(expected.entrySet()) && System.currentTimeMillis() < deadline) {
+            List<NodeEvent> batch = batches.poll(100, TimeUnit.MILLISECONDS);
+            if (batch != null) {
+                for (NodeEvent event : batch) {
+                    received.put(event.getPath(), event.getKind());
+                }
+            }
+        }
+        return received;
+    }
+
+    @Test
+    @Order(26)
+    void watch() throws Exception {
+        INode dir = new FileNode("watchDir");
+        dir.remove();
+        dir.mkdirs().getChild("existing.txt").write("a");
+        BlockingQueue<List<NodeEvent>> batches = new LinkedBlockingQueue<>();
+        try (NodeWatcher watcher = dir.watch(50, batches::add)) {
+            dir.getChild("created.txt").write("new");
+            dir.getChild("sub").getChild("deeper").mkdirs();
+            dir.getChild("sub").getChild("deeper").getChild("nested.txt").write("nested");
+            Map<String, NodeEvent.Kind> expected = new HashMap<>();
+            expected.put("created.txt", NodeEvent.Kind.CREATED);
+            expected.put("sub", NodeEvent.Kind.CREATED);
+            expected.put("sub/deeper", NodeEvent.Kind.CREATED);
+            expected.put("sub/deeper/nested.txt", NodeEvent.Kind.CREATED);
+            Map<String, NodeEvent.Kind> received = awaitEvents(batches, expected);
+            Assertions.assertEquals(expected, received);
+
+            dir.getChild("existing.txt").write("modified content");
+            dir.getChild("sub").remove();
+            expected.clear();
+            expected.put("existing.txt", NodeEvent.Kind.MODIFIED);
+            expected.put("sub", NodeEvent.Kind.DELETED);
+            expected.put("sub/deeper", NodeEvent.Kind.DELETED);
+            expected.put("sub/deeper/nested.txt", NodeEvent.Kind.DELETED);
+            received = awaitEvents(batches, expected);
+            Assertions.assertEquals(expected, received);
+            Assertions.assertTrue(watcher.isRunning());
+        }
+        dir.remove();
+    }
+
+    @Test
+    @Order(27)
+    void writeAtomic() {
+        INode dir = new FileNode("atomicDir");
+        dir.remove();
+        dir.mkdirs();
+        final INode file = dir.getChild("file.txt");
+        file.writeAtomic("first".getBytes(StandardCharsets.UTF_8));
+        Assertions.assertEquals("first", file.readString());
+        file.writeAtomic("second, longer".getBytes(StandardCharsets.UTF_8));
+        Assertions.assertEquals("second, longer", file.readString());
+        Assertions.assertEquals(Collections.singletonList("file.txt"), dir.getChildrenNames());
+
+        final PathNode pathFile = new PathNode(file.asJavaFile().toPath());
+        Assertions.assertEquals(14, pathFile.getSize());
+        pathFile.writeAtomic("third".getBytes(StandardCharsets.UTF_8));
+        Assertions.assertEquals(5, pathFile.getSize());
+        dir.remove();
+    }
+
+    @Test
+    @Order(28)
+    void gatheringWrites() {
+        final INode file = new FileNode("gathering.bin");
+        file.remove();
+        final ByteBuffer header = ByteBuffer.allocateDirect(4).putInt(0xCAFEBABE);
+        header.flip();
+        final ByteBuffer payload = ByteBuffer.wrap("payload".getBytes(StandardCharsets.UTF_8));
+        final ByteBuffer trailer = ByteBuffer.allocateDirect(1).put((byte) '.');
+        trailer.flip();
+        file.write(header, payload, trailer);
+        Assertions.assertFalse(header.hasRemaining());
+        Assertions.assertFalse(payload.hasRemaining());
+        Assertions.assertEquals(12, file.getSize());
+
+        new PathNode(file.asJavaFile().toPath()).append(ByteBuffer.wrap("!".getBytes(StandardCharsets.UTF_8)));
+        file.append(ByteBuffer.wrap("?".getBytes(StandardCharsets.UTF_8)));
+        final ByteBuffer content = ByteBuffer.wrap(file.readBytes());
+        Assertions.assertEquals(0xCAFEBABE, content.getInt());
+        Assertions.assertEquals("payload.!?", new String(content.array(), 4, 10, StandardCharsets.UTF_8));
+
+        final INode metrics = new MetricsNode(file);
+        metrics.write(ByteBuffer.wrap("short".getBytes(StandardCharsets.UTF_8)));
+        Assertions.assertEquals("short", file.readString());
+        file.remove();
+        file.append(ByteBuffer.wrap("created".getBytes(StandardCharsets.UTF_8)));
+        Assertions.assertEquals("created", file.readString());
+        file.remove();
+    }
+
+    @Test
+    @Order(29)
+    void moveIntoExistingDirectory() {
+        final INode source = new FileNode("mergeSource").remove();
+        source.getChild("sub").mkdirs().getChild("moved.txt").write("moved");
+        source.getChild("top.txt").write("top");
+        final INode target = new FileNode("mergeTarget").remove();
+        target.getChild("sub").mkdirs().getChild("kept.txt").write("kept");
+        target.getChild("top.txt").write("overwritten");
+
+        source.moveTo(target);
+        Assertions.assertFalse(source.exists());
+        Assertions.assertEquals("moved", target.getChild("sub/moved.txt").readString());
+        Assertions.assertEquals("kept", target.getChild("sub/kept.txt").readString());
+        Assertions.assertEquals("top", target.getChild("top.txt").readString());
+
+        target.remove();
+    }
+
+    @Test
+    @Order(30)
+    void writeAtomicKeepsPermissions() throws IOException {
+        final Path directory = new FileNode("atomicPermissions").remove().mkdirs().asJavaFile().toPath();
+        if (Files.getFileAttributeView(directory, PosixFileAttributeView.class) == null) {
+            return;
+        }
+        final Path existing = directory.resolve("existing.txt");
+        new PathNode(existing).write("old");
+        final Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rw-r-----");
+        Files.setPosixFilePermissions(existing, permissions);
+        new PathNode(existing).writeAtomic("new".getBytes(StandardCharsets.UTF_8));
+        Assertions.assertEquals(permissions, Files.getPosixFilePermissions(existing));
+
+        final Path plain = directory.resolve("plain.txt");
+        new PathNode(plain).write("plain");
+        final Path created = directory.resolve("created.txt");
+        new PathNode(created).writeAtomic("created".getBytes(StandardCharsets.UTF_8));
+        Assertions.assertEquals(Files.getPosixFilePermissions(plain), Files.getPosixFilePermissions(created));
+        new FileNode("atomicPermissions").remove();
+    }
+
+    @Test
+    @Order(31)
+    void mappingReleasedOnClose() throws IOException {
+        final Path maps = Paths.get("/proc/self/maps");
+        if (!Files.isReadable(maps)) {
+            return;
+        }
+        final INode node = new FileNode("mappingRelease.bin").write(new byte[4096]);
+        final String path = node.asJavaFile().toPath().toRealPath().toString();
+        try (MappedData data = node.map()) {
+            Assertions.assertEquals(0, data.getSegment(0).get(4095));
+            Assertions.assertTrue(new String(Files.readAllBytes(maps), StandardCharsets.UTF_8).contains(path));
+        }
+        Assertions.assertFalse(new String(Files.readAllBytes(maps), StandardCharsets.UTF_8).contains(path));
+        node.remove();
+    }
+}
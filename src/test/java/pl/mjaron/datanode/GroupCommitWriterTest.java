@@ -0,0 +1,94 @@
+package pl.mjaron.datanode;
+
+import org.junit.jupiter.api.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+class GroupCommitWriterTest {
+
+    @Test
+    void concurrentWrites() throws Exception {
+        final INode dir = new FileNode("groupCommitDir");
+        dir.remove();
+        dir.mkdirs();
+        final int count = 200;
+        try (final GroupCommitWriter writer = new GroupCommitWriter(5, 32)) {
+            final List<CompletableFuture<INode>> writes = new ArrayList<>();
+            final List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 4; ++t) {
+                final int first = t * (count / 4);
+                final Thread thread = new Thread(() -> {
+                    for (int i = first; i < first + count / 4; ++i) {
+                        final CompletableFuture<INode> write = writer.write(dir.getChild("f" + i), ("content " + i).getBytes(StandardCharsets.UTF_8));
+                        synchronized (writes) {
+                            writes.add(write);
+                        }
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            for (final Thread thread : threads) {
+                thread.join();
+            }
+            CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0])).get(30, TimeUnit.SECONDS);
+        }
+        Assertions.assertEquals(count, dir.getChildrenCount());
+        for (int i = 0; i < count; ++i) {
+            Assertions.assertEquals("content " + i, dir.getChild("f" + i).readString());
+        }
+        dir.remove();
+    }
+
+    @Test
+    void flushAndDurability() throws Exception {
+        final INode dir = new FileNode("groupCommitFlushDir");
+        dir.remove();
+        dir.mkdirs();
+        try (final GroupCommitWriter writer = new GroupCommitWriter(60_000, 1000, GroupCommitWriter.Durability.CONTENT,
+                BulkExecutor.getDefault())) {
+            final INode file = dir.getChild("file.txt");
+            file.write("old");
+            final CompletableFuture<INode> write = writer.write(file, "new".getBytes(StandardCharsets.UTF_8));
+            Assertions.assertFalse(write.isDone());
+            Assertions.assertEquals("old", file.readString());
+            writer.flush().get(10, TimeUnit.SECONDS);
+            Assertions.assertSame(file, write.get());
+            Assertions.assertEquals("new", file.readString());
+
+            final INode memory = new MemoryNode().getChild("memory.txt");
+            Assertions.assertEquals("memory", writer.writeAndWait(memory, "memory".getBytes(StandardCharsets.UTF_8)).readString());
+
+            final CompletableFuture<INode> missingParent = writer.write(dir.getChild("missing").getChild("x"), new byte[1]);
+            Assertions.assertThrows(Exception.class, () -> missingParent.get(10, TimeUnit.SECONDS));
+
+            writer.write(dir.getChild("pending.txt"), "pending".getBytes(StandardCharsets.UTF_8));
+        }
+        Assertions.assertEquals("pending", dir.getChild("pending.txt").readString());
+        Assertions.assertEquals(2, dir.getChildrenCount());
+        dir.remove();
+    }
+
+    @Test
+    void rejectedSync() throws Exception {
+        final INode dir = new FileNode("groupCommitRejectedDir");
+        dir.remove();
+        dir.mkdirs();
+        try (final GroupCommitWriter writer = new GroupCommitWriter(0, 1, GroupCommitWriter.Durability.CONTENT,
+                task -> {
+                    throw new RejectedExecutionException("Rejected by test.");
+                })) {
+            final CompletableFuture<INode> write = writer.write(dir.getChild("file.txt"), new byte[10]);
+            final ExecutionException e = Assertions.assertThrows(ExecutionException.class, () -> write.get(10, TimeUnit.SECONDS));
+            Assertions.assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+        Assertions.assertEquals(0, dir.getChildrenCount());
+        dir.remove();
+    }
+}
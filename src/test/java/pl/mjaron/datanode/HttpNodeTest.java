@@ -2,10 +2,64 @@ package pl.mjaron.datanode;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import com.sun.net.httpserver.HttpServer;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
 class HttpNodeTest {
 
+    /**
+     * Serves given content at /file.txt on a local port, recording methods and client ports of the requests.
+     * <p>
+     * Note that this server closes the connection after each response without a body, e.g. to HEAD request.
+     */
+    static HttpServer startServer(final byte[] content, final List<String> methods, final List<Integer> clientPorts) throws Exception {
+        final HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            synchronized (methods) {
+                methods.add(exchange.getRequestMethod());
+                clientPorts.add(exchange.getRemoteAddress().getPort());
+            }
+            if (!exchange.getRequestURI().getPath().equals("/file.txt")) {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+                return;
+            }
+            exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+            exchange.getResponseHeaders().set("ETag", "\"v1\"");
+            if (exchange.getRequestMethod().equals("HEAD")) {
+                exchange.getResponseHeaders().set("Content-Length", Integer.toString(content.length));
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+                return;
+            }
+            int from = 0;
+            int to = content.length - 1;
+            final String range = exchange.getRequestHeaders().getFirst("Range");
+            if (range != null) {
+                final String[] bounds = range.substring("bytes=".length()).split("-");
+                from = Integer.parseInt(bounds[0]);
+                to = Math.min(to, Integer.parseInt(bounds[1]));
+                exchange.getResponseHeaders().set("Content-Range", "bytes " + from + "-" + to + "/" + content.length);
+            }
+            exchange.sendResponseHeaders((range != null) ? 206 : 200, to - from + 1);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(content, from, to - from + 1);
+            }
+            exchange.close();
+        });
+        server.start();
+        return server;
+    }
+
     void checkNode(INode node) {
         System.out.println("Checking node: " + node.toString());
         System.out.println("Node exists: " + node.exists());
@@ -54,4 +108,82 @@ class HttpNodeTest {
 
         assertTrue(new HttpNode("https://www.iana.org").getChild("domains").getChild("reserved").isFile());
     }
+
+    @Test
+    void localMetadataUsesHead() throws Exception {
+        final byte[] content = "local content".getBytes(StandardCharsets.UTF_8);
+        final List<String> methods = new ArrayList<>();
+        final List<Integer> clientPorts = new ArrayList<>();
+        final HttpServer server = startServer(content, methods, clientPorts);
+        try {
+            final INode root = new HttpNode("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+            final INode file = root.getChild("file.txt");
+            assertTrue(file.exists());
+            assertEquals(content.length, file.getSize());
+            assertFalse(root.getChild("missing.txt").exists());
+            assertEquals("local content", file.readString());
+            assertEquals("local content", new String(file.readBytes(), StandardCharsets.UTF_8));
+            assertEquals(Arrays.asList("HEAD", "HEAD", "HEAD", "GET", "GET"), methods);
+            assertEquals(clientPorts.get(3), clientPorts.get(4), "Connection should be reused.");
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void rangedRead() throws Exception {
+        final byte[] content = "0123456789abcdefghij".getBytes(StandardCharsets.UTF_8);
+        final HttpServer server = startServer(content, new ArrayList<>(), new ArrayList<>());
+        try {
+            final HttpNode file = new HttpNode("http://127.0.0.1:" + server.getAddress().getPort() + "/file.txt");
+            try (InputStream in = file.getInputStream(5, 4)) {
+                assertEquals("5678", new String(NodeIo.readAll(in, -1), StandardCharsets.UTF_8));
+            }
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void skipWithoutProgress() throws Exception {
+        final InputStream in = new FilterInputStream(new ByteArrayInputStream("0123456789".getBytes(StandardCharsets.UTF_8))) {
+            @Override
+            public long skip(final long n) {
+                return 0;
+            }
+        };
+        assertTrue(NodeIo.skipFully(in, 5));
+        assertEquals('5', in.read());
+        assertFalse(NodeIo.skipFully(in, 10));
+    }
+
+    @Test
+    void parallelDownload() throws Exception {
+        final byte[] content = new byte[1000];
+        new Random(7).nextBytes(content);
+        final List<String> methods = new ArrayList<>();
+        final HttpServer server = startServer(content, methods, new ArrayList<>());
+        try {
+            final HttpNode file = new HttpNode("http://127.0.0.1:" + server.getAddress().getPort() + "/file.txt");
+            final INode memoryTarget = file.download(new MemoryNode().getChild("file.bin"), 4, 64);
+            assertArrayEquals(content, memoryTarget.readBytes());
+
+            final INode fileTarget = file.download(new FileNode("downloaded.bin"), 4, 64);
+            assertArrayEquals(content, fileTarget.readBytes());
+            assertFalse(new File("downloaded.bin" + RangedDownload.STATE_SUFFIX).exists());
+
+            // Pretend that first 10 chunks have been downloaded before.
+            final BitSet completed = new BitSet();
+            completed.set(0, 10);
+            new RangedDownload.State("\"v1\"", content.length, 64, completed)
+                    .save(RangedDownload.statePath(fileTarget.asJavaFile().toPath()));
+            methods.clear();
+            file.download(fileTarget, 2, 64);
+            assertArrayEquals(content, fileTarget.readBytes());
+            assertEquals(Arrays.asList("HEAD", "GET", "GET", "GET", "GET", "GET", "GET"), methods);
+            fileTarget.remove();
+        } finally {
+            server.stop(0);
+        }
+    }
 }
@@ -0,0 +1,207 @@
+package pl.mjaron.datanode;
+
+import org.junit.jupiter.api.*;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.regex.Pattern;
+
+class MemoryNodeTest {
+
+    @Test
+    void demoTest() {
+        final String sentence = "Hello world\r\nByeWorld\n\r";
+        final INode root = new MemoryNode();
+        root
+                .getChild("subdirectory").mkdirs()
+                .getChild("file.txt").remove().touch()
+                .write(sentence);
+
+        Assertions.assertEquals(sentence, root.getChild("subdirectory/file.txt").readString());
+        Assertions.assertEquals("/subdirectory/file.txt", root.getChild("subdirectory").getChild("file.txt").getPath());
+    }
+
+    @Test
+    void fileAndDirectory() {
+        final INode root = new MemoryNode();
+        final INode dir = root.getChild("dir");
+        Assertions.assertFalse(dir.exists());
+        dir.mkdirs();
+        Assertions.assertTrue(dir.isDirectory());
+        Assertions.assertFalse(dir.isFile());
+
+        final INode file = dir.getChild("file.bin").touch();
+        Assertions.assertTrue(file.isFile());
+        Assertions.assertEquals(0, file.getSize());
+        Assertions.assertEquals(1, dir.getChildrenCount());
+        Assertions.assertEquals(1, dir.getChildren(Pattern.compile("file.*")).size());
+
+        Assertions.assertThrows(RuntimeException.class, () -> root.getChild("missing").getChild("file.bin").touch());
+        Assertions.assertThrows(RuntimeException.class, () -> file.getChild("nested").mkdirs());
+
+        dir.remove();
+        Assertions.assertFalse(file.exists());
+        Assertions.assertEquals(0, root.getChildrenCount());
+    }
+
+    @Test
+    void contentVisibleOnFlush() throws Exception {
+        final INode file = new MemoryNode().getChild("file.bin").touch();
+        try (OutputStream out = file.getOutputStream()) {
+            for (int i = 0; i < 20000; ++i) {
+                out.write(i);
+            }
+            Assertions.assertEquals(0, file.getSize());
+            out.flush();
+            Assertions.assertEquals(20000, file.getSize());
+            out.write(new byte[100]);
+        }
+        Assertions.assertEquals(20100, file.getSize());
+        final byte[] content = file.readBytes();
+        Assertions.assertEquals((byte) 19999, content[19999]);
+
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(10);
+        Assertions.assertEquals(10, file.readInto(buffer));
+        Assertions.assertEquals(9, buffer.get(9));
+        try (MappedData data = file.map(5, 10)) {
+            Assertions.assertEquals(10, data.size());
+            Assertions.assertEquals(14, data.get(9));
+        }
+    }
+
+    @Test
+    void copyBetweenImplementations() {
+        final INode memory = new MemoryNode();
+        memory.getChild("a/b").mkdirs().getChild("c.txt").write("content");
+        final INode onDisk = memory.copyTo(new FileNode("memoryCopy").remove());
+        Assertions.assertEquals("content", onDisk.getChild("a/b/c.txt").readString());
+
+        final INode back = onDisk.copyTo(new MemoryNode().getChild("copied"));
+        Assertions.assertEquals(3, back.getDescendants().size());
+        Assertions.assertEquals("content", back.getChild("a/b/c.txt").readString());
+        onDisk.remove();
+    }
+
+    @Test
+    void childrenWithAttributes() {
+        final INode root = new MemoryNode();
+        final INode dir = root.getChild("dir").mkdirs();
+        final long created = dir.getLastModified();
+        Assertions.assertTrue(created > 0);
+        dir.getChild("file.bin").write(new byte[7]);
+        dir.getChild("sub").mkdirs();
+        Assertions.assertTrue(dir.getLastModified() >= created);
+
+        final List<NodeAttributes> attributes = dir.getChildrenWithAttributes();
+        Assertions.assertEquals(2, attributes.size());
+        for (final NodeAttributes child : attributes) {
+            if (child.isFile()) {
+                Assertions.assertEquals("file.bin", child.getName());
+                Assertions.assertEquals(7, child.getSize());
+                Assertions.assertEquals(dir.getChild("file.bin").getLastModified(), child.getLastModified());
+            } else {
+                Assertions.assertTrue(child.isDirectory());
+            }
+        }
+        Assertions.assertEquals(0, root.getChild("missing").getLastModified());
+    }
+
+    @Test
+    void filteredChildren() {
+        final INode root = new MemoryNode();
+        root.getChild("src").mkdirs();
+        root.getChild("src/Main.java").write("class Main {}");
+        root.getChild("src/notes.txt").write("notes");
+        root.getChild("build").mkdirs();
+        root.getChild("build/Main.class").write(new byte[4]);
+
+        Assertions.assertEquals(1, root.getChild("src").getChildrenByGlob("*.java").size());
+        Assertions.assertEquals("Main.java", root.getChild("src").getChildrenByGlob("*.java").get(0).getName());
+        Assertions.assertEquals(4, root.getDescendants(name -> !name.equals("build")).size());
+        Assertions.assertEquals(2, root.getDescendants(name -> name.startsWith("Main.")).size());
+        Assertions.assertEquals(3, root.streamDescendants(TraversalOrder.DEPTH_FIRST, Integer.MAX_VALUE,
+                name -> !name.equals("build"), null).count());
+    }
+
+    @Test
+    void watchPolling() throws Exception {
+        final INode root = new MemoryNode();
+        root.getChild("dir").mkdirs();
+        root.getChild("dir/file.txt").write("first");
+        final BlockingQueue<List<NodeEvent>> batches = new LinkedBlockingQueue<>();
+        try (NodeWatcher watcher = root.watch(20, batches::add)) {
+            root.getChild("dir/new.txt").write("new");
+            root.getChild("dir/file.txt").remove();
+
+            final Map<String, NodeEvent.Kind> expected = new HashMap<>();
+            expected.put("dir/new.txt", NodeEvent.Kind.CREATED);
+            expected.put("dir/file.txt", NodeEvent.Kind.DELETED);
+            Assertions.assertEquals(expected, FileNodeTest.awaitEvents(batches, expected));
+            Assertions.assertTrue(watcher.isRunning());
+        }
+        Assertions.assertNull(NodeWatcher.coalesce(NodeEvent.Kind.CREATED, NodeEvent.Kind.DELETED));
+        Assertions.assertEquals(NodeEvent.Kind.CREATED, NodeWatcher.coalesce(NodeEvent.Kind.CREATED, NodeEvent.Kind.MODIFIED));
+        Assertions.assertEquals(NodeEvent.Kind.MODIFIED, NodeWatcher.coalesce(NodeEvent.Kind.DELETED, NodeEvent.Kind.CREATED));
+        Assertions.assertEquals(NodeEvent.Kind.DELETED, NodeWatcher.coalesce(NodeEvent.Kind.MODIFIED, NodeEvent.Kind.DELETED));
+    }
+
+    @Test
+    void gatheringWrites() {
+        final INode file = new MemoryNode().getChild("file.bin");
+        final ByteBuffer header = ByteBuffer.allocateDirect(4).putInt(0xCAFEBABE);
+        header.flip();
+        final ByteBuffer payload = ByteBuffer.wrap("payload".getBytes());
+        file.write(header, payload);
+        Assertions.assertFalse(header.hasRemaining());
+        Assertions.assertFalse(payload.hasRemaining());
+        Assertions.assertEquals(11, file.getSize());
+        file.append(ByteBuffer.wrap("!".getBytes()));
+        final ByteBuffer content = ByteBuffer.wrap(file.readBytes());
+        Assertions.assertEquals(0xCAFEBABE, content.getInt());
+        Assertions.assertEquals("payload!", new String(content.array(), 4, 8));
+
+        final INode appended = new MemoryNode().getChild("appended.txt");
+        appended.append(ByteBuffer.wrap("a".getBytes()));
+        appended.append(ByteBuffer.wrap("b".getBytes()), ByteBuffer.wrap("c".getBytes()));
+        Assertions.assertEquals("abc", appended.readString());
+    }
+
+    @Test
+    void previousContentUntilPublished() throws Exception {
+        final INode file = new MemoryNode().getChild("file.txt").write("old".getBytes());
+        try (OutputStream out = file.getOutputStream()) {
+            out.write("new content".getBytes());
+            Assertions.assertEquals("old", file.readString());
+        }
+        Assertions.assertEquals("new content", file.readString());
+
+        file.getOutputStream().close();
+        Assertions.assertTrue(file.isFile());
+        Assertions.assertEquals(0, file.getSize());
+    }
+
+    @Test
+    void traversalsInsideForkJoinPool() {
+        final INode root = new MemoryNode();
+        for (int i = 0; i < 20; ++i) {
+            root.getChild("dir" + i).getChild("nested").mkdirs().getChild("file.txt").write("content");
+        }
+        final ForkJoinPool pool = new ForkJoinPool(2);
+        final List<ForkJoinTask<Integer>> walks = new ArrayList<>();
+        for (int i = 0; i < 8; ++i) {
+            walks.add(pool.submit(() -> new ParallelTraversal(pool, 4).getFileDescendants(root).size()));
+        }
+        for (final ForkJoinTask<Integer> walk : walks) {
+            Assertions.assertEquals(20, (int) walk.join());
+        }
+        pool.shutdown();
+    }
+}
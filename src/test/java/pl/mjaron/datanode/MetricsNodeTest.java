@@ -0,0 +1,86 @@
+package pl.mjaron.datanode;
+
+import org.junit.jupiter.api.*;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+
+class MetricsNodeTest {
+
+    @Test
+    void countsOperationsAndBytes() throws IOException {
+        final MetricsNode root = new MetricsNode(new MemoryNode());
+        final INode file = root.getChild("dir").mkdirs().getChild("file.txt");
+        file.write("abcd");
+        Assertions.assertTrue(file.exists());
+        Assertions.assertEquals("abcd", file.readString());
+        try (OutputStream out = root.getChild("other.txt").getOutputStream()) {
+            out.write(new byte[10]);
+        }
+        try (InputStream in = root.getChild("other.txt").getInputStream()) {
+            Assertions.assertEquals(10, in.read(new byte[64]));
+        }
+        Assertions.assertEquals(2, root.getChildren().size());
+        Assertions.assertTrue(root.getChildren().get(0) instanceof MetricsNode);
+
+        final NodeMetrics.Snapshot snapshot = root.getMetrics().snapshot();
+        Assertions.assertEquals(14, snapshot.getBytesRead());
+        Assertions.assertEquals(14, snapshot.getBytesWritten());
+        Assertions.assertEquals(1, snapshot.get(NodeMetrics.Operation.MKDIRS).getCount());
+        Assertions.assertEquals(1, snapshot.get(NodeMetrics.Operation.WRITE).getCount());
+        Assertions.assertEquals(1, snapshot.get(NodeMetrics.Operation.READ).getCount());
+        Assertions.assertEquals(2, snapshot.get(NodeMetrics.Operation.LIST).getCount());
+        Assertions.assertEquals(0, snapshot.get(NodeMetrics.Operation.COPY).getCount());
+        Assertions.assertFalse(snapshot.getOperations().containsKey(NodeMetrics.Operation.COPY));
+    }
+
+    @Test
+    void countsErrors() {
+        final MetricsNode root = new MetricsNode(new MemoryNode());
+        Assertions.assertThrows(RuntimeException.class, () -> root.getChild("missing.txt").readBytes());
+        final NodeMetrics.OperationSnapshot read = root.getMetrics().snapshot().get(NodeMetrics.Operation.READ);
+        Assertions.assertEquals(1, read.getCount());
+        Assertions.assertEquals(1, read.getErrors());
+    }
+
+    @Test
+    void histogram() {
+        final NodeMetrics metrics = new NodeMetrics();
+        for (int i = 0; i < 99; ++i) {
+            metrics.record(NodeMetrics.Operation.EXISTS, 100, false);
+        }
+        metrics.record(NodeMetrics.Operation.EXISTS, 5000, false);
+        final NodeMetrics.OperationSnapshot exists = metrics.snapshot().get(NodeMetrics.Operation.EXISTS);
+        Assertions.assertEquals(100, exists.getCount());
+        Assertions.assertEquals(99, exists.getHistogram()[7]);
+        Assertions.assertEquals(1, exists.getHistogram()[13]);
+        Assertions.assertEquals(127, exists.getP50Nanos());
+        Assertions.assertEquals(127, exists.getP99Nanos());
+        Assertions.assertEquals(5000, exists.percentileNanos(1.0));
+        Assertions.assertEquals(5000, exists.getMaxNanos());
+        Assertions.assertEquals(149, (long) exists.getMeanNanos());
+
+        metrics.reset();
+        Assertions.assertTrue(metrics.snapshot().getOperations().isEmpty());
+    }
+
+    @Test
+    void jmx() throws Exception {
+        final NodeMetrics metrics = new NodeMetrics().register("MetricsNodeTest");
+        try {
+            new MetricsNode(new MemoryNode(), metrics).getChild("file.txt").write("abc");
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = metrics.getObjectName();
+            Assertions.assertTrue(server.isRegistered(name));
+            Assertions.assertEquals(3L, server.getAttribute(name, "BytesWritten"));
+            Assertions.assertNotNull(server.getAttribute(name, "Operations"));
+        } finally {
+            metrics.unregister();
+        }
+        Assertions.assertNull(metrics.getObjectName());
+    }
+}
@@ -0,0 +1,131 @@
+package pl.mjaron.datanode;
+
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class PackStoreTest {
+
+    private static final Path directory = Paths.get("packStore");
+    private static final int FILE_COUNT = 10_000;
+
+    private static PackStore open() {
+        return new PackStore(directory, 256 * 1024, Long.MAX_VALUE, 2);
+    }
+
+    @Test
+    @Order(0)
+    void writeAndReopen() {
+        new FileNode(directory.toFile()).remove();
+        try (final PackStore store = open()) {
+            final INode root = store.getRoot();
+            for (int i = 0; i < FILE_COUNT; ++i) {
+                root.getChild("d" + (i % 100)).getChild("f" + i).write("content " + i);
+            }
+            root.getChild("empty").mkdirs();
+            root.getChild("touched.txt").touch();
+            Assertions.assertEquals(FILE_COUNT + 1, store.getFileCount());
+            Assertions.assertTrue(store.getSegmentCount() > 1);
+            Assertions.assertEquals("content 42", root.getChild("d42/f42").readString());
+        }
+        try (final PackStore store = open()) {
+            final INode root = store.getRoot();
+            Assertions.assertEquals(FILE_COUNT + 1, store.getFileCount());
+            Assertions.assertEquals(102, root.getChildrenCount());
+            Assertions.assertTrue(root.getChild("empty").isDirectory());
+            Assertions.assertTrue(root.getChild("touched.txt").isFile());
+            Assertions.assertEquals(0, root.getChild("touched.txt").getSize());
+            Assertions.assertEquals(FILE_COUNT / 100, root.getChild("d7").getChildrenCount());
+            Assertions.assertEquals("content 9999", root.getChild("d99").getChild("f9999").readString());
+            Assertions.assertEquals(FILE_COUNT + 1, root.getFileDescendants().size());
+            final NodeAttributes attributes = root.getChild("d3").getChildrenWithAttributes().get(0);
+            Assertions.assertTrue(attributes.isFile());
+            Assertions.assertTrue(attributes.getLastModified() > 0);
+        }
+    }
+
+    @Test
+    @Order(1)
+    void modifyAndCompact() throws IOException {
+        try (final PackStore store = open()) {
+            final INode root = store.getRoot();
+            for (int i = 0; i < 50; ++i) {
+                root.getChild("d" + i).remove();
+            }
+            root.getChild("d60").getChild("f60").write("changed");
+            Assertions.assertThrows(RuntimeException.class, () -> root.getChild("d60/f60/inner").write("x"));
+            Assertions.assertThrows(RuntimeException.class, () -> root.getChild("d61").write("x"));
+            Assertions.assertTrue(store.getGarbage() > store.getSize() / 3);
+
+            final InputStream openedBefore = root.getChild("d70").getChild("f70").getInputStream();
+            final long sizeBefore = store.getSize();
+            store.compact();
+            Assertions.assertTrue(store.getSize() < sizeBefore / 2);
+            Assertions.assertEquals(0, store.getGarbage());
+            Assertions.assertEquals("content 70", new String(NodeIo.readAll(openedBefore, -1)));
+            openedBefore.close();
+            Assertions.assertEquals("changed", root.getChild("d60/f60").readString());
+            Assertions.assertFalse(root.getChild("d10").exists());
+        }
+        try (final PackStore store = open()) {
+            final INode root = store.getRoot();
+            Assertions.assertEquals(FILE_COUNT / 2 + 1, store.getFileCount());
+            Assertions.assertFalse(root.getChild("d10").exists());
+            Assertions.assertTrue(root.getChild("empty").isDirectory());
+            Assertions.assertEquals("changed", root.getChild("d60/f60").readString());
+            Assertions.assertEquals("content 99", root.getChild("d99/f99").readString());
+        }
+    }
+
+    @Test
+    @Order(2)
+    void tornRecordIsTruncated() throws IOException {
+        try (final PackStore store = open()) {
+            store.getRoot().getChild("last.txt").write("last");
+        }
+        Path last = null;
+        for (final INode segment : new FileNode(directory.toFile()).getChildren()) {
+            final Path path = segment.asJavaFile().toPath();
+            if (last == null || path.getFileName().toString().compareTo(last.getFileName().toString()) > 0) {
+                last = path;
+            }
+        }
+        final long size = Files.size(last);
+        Files.write(last, new byte[]{1, 0, 0, 0, 5, 0}, StandardOpenOption.APPEND);
+        try (final PackStore store = open()) {
+            Assertions.assertEquals("last", store.getRoot().getChild("last.txt").readString());
+            store.getRoot().getChild("after.txt").write("after");
+        }
+        Assertions.assertTrue(Files.size(last) >= size);
+        try (final PackStore store = open()) {
+            Assertions.assertEquals("after", store.getRoot().getChild("after.txt").readString());
+        }
+    }
+
+    @Test
+    @Order(3)
+    void backgroundCompaction() throws InterruptedException {
+        try (final PackStore store = new PackStore(directory, 64 * 1024, 1024, 0.5)) {
+            final INode file = store.getRoot().getChild("overwritten.bin");
+            final byte[] content = new byte[4096];
+            for (int i = 0; i < 200; ++i) {
+                Arrays.fill(content, (byte) i);
+                file.write(content);
+            }
+            for (int i = 0; i < 100 && store.getGarbage() > store.getSize() / 2; ++i) {
+                Thread.sleep(20);
+            }
+            Assertions.assertTrue(store.getGarbage() <= store.getSize() / 2);
+            Assertions.assertArrayEquals(content, file.readBytes());
+            Assertions.assertEquals(content.length, file.getSize());
+        }
+        new FileNode(directory.toFile()).remove();
+    }
+}
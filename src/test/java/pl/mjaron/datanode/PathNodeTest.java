@@ -0,0 +1,100 @@
+package pl.mjaron.datanode;
+
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class PathNodeTest {
+
+    @Test
+    @Order(0)
+    void prepareTree() {
+        final INode root = new PathNode("pathRoot");
+        root.remove();
+        root.getChild("a").getChild("b").mkdirs();
+        root.getChild("a").getChild("file1.txt").write("first");
+        root.getChild("a").getChild("b").getChild("file2.txt").write("second file");
+        Assertions.assertTrue(root.isDirectory());
+        Assertions.assertEquals("second file", root.getChild("a").getChild("b").getChild("file2.txt").readString());
+    }
+
+    @Test
+    @Order(1)
+    void getChildrenCarryAttributes() {
+        final INode a = new PathNode("pathRoot").getChild("a");
+        final List<INode> children = a.getChildren();
+        Assertions.assertEquals(2, children.size());
+        for (final INode child : children) {
+            if (child.getName().equals("file1.txt")) {
+                Assertions.assertTrue(child.isFile());
+                Assertions.assertEquals(5, child.getSize());
+            } else {
+                Assertions.assertTrue(child.isDirectory());
+            }
+        }
+    }
+
+    @Test
+    @Order(2)
+    void getDescendants() {
+        final INode root = new PathNode("pathRoot");
+        Assertions.assertEquals(4, root.getDescendants().size());
+        Assertions.assertEquals(2, root.getFileDescendants().size());
+    }
+
+    @Test
+    @Order(3)
+    void refresh() {
+        final PathNode file = (PathNode) new PathNode("pathRoot").getChild("a").getChildren(name -> name.equals("file1.txt")).get(0);
+        final INode direct = new PathNode("pathRoot").getChild("a").getChild("file1.txt");
+        Assertions.assertEquals(5, file.getSize());
+        Assertions.assertEquals(5, direct.getSize());
+        new FileNode(file.asJavaFile()).write("changed content");
+        Assertions.assertEquals(5, file.getSize());
+        Assertions.assertEquals(15, direct.getSize());
+        Assertions.assertEquals(15, file.refresh().getSize());
+
+        final INode created = new PathNode("pathRoot").getChild("created.txt");
+        Assertions.assertFalse(created.exists());
+        new FileNode(created.asJavaFile()).write("new");
+        Assertions.assertTrue(created.isFile());
+        Assertions.assertEquals(3, created.getSize());
+    }
+
+    @Test
+    @Order(4)
+    void symbolicLinks() throws IOException {
+        final Path root = new PathNode("pathLinks").remove().mkdirs().asJavaFile().toPath();
+        final Path real = Files.createDirectories(root.resolve("real"));
+        Files.write(real.resolve("file.txt"), "linked".getBytes());
+        try {
+            Files.createSymbolicLink(root.resolve("fileLink"), Paths.get("real", "file.txt"));
+            Files.createSymbolicLink(root.resolve("dirLink"), Paths.get("real"));
+            Files.createSymbolicLink(real.resolve("loop"), Paths.get(".."));
+        } catch (UnsupportedOperationException | IOException e) {
+            new PathNode(root).remove();
+            return;
+        }
+        final INode links = new PathNode(root);
+        Assertions.assertEquals(3, links.getFileDescendants().size());
+        Assertions.assertEquals("linked", links.getChild("dirLink").getChild("file.txt").readString());
+        // real, real/file.txt, real/loop, fileLink, dirLink, dirLink/file.txt, dirLink/loop
+        Assertions.assertEquals(7, links.getDescendants().size());
+        links.remove();
+        Assertions.assertTrue(Files.notExists(root));
+    }
+
+    @Test
+    @Order(5)
+    void remove() {
+        final INode root = new PathNode("pathRoot");
+        root.remove();
+        Assertions.assertFalse(root.exists());
+        Assertions.assertEquals(0, root.getChildren().size());
+    }
+}
@@ -0,0 +1,133 @@
+package pl.mjaron.datanode;
+
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class TreeManifestTest {
+
+    private static final INode root = new FileNode("manifestTree");
+    private static final INode manifest = new FileNode("manifest.bin");
+    private static final INode updatedManifest = new FileNode("manifestUpdated.bin");
+
+    /**
+     * Moves modification time of all directories to the past, so the diff can trust their listings.
+     */
+    private static void ageDirectories() throws IOException {
+        final FileTime past = FileTime.fromMillis(System.currentTimeMillis() - 60_000);
+        Files.setLastModifiedTime(root.asJavaFile().toPath(), past);
+        for (final INode node : root.getDescendants()) {
+            if (node.isDirectory()) {
+                Files.setLastModifiedTime(node.asJavaFile().toPath(), past);
+            }
+        }
+    }
+
+    private static Map<String, NodeEvent.Kind> diff(final INode against, final boolean statFiles) {
+        final Map<String, NodeEvent.Kind> changes = new HashMap<>();
+        final long count = TreeManifest.diff(root, against, statFiles, event -> changes.put(event.getPath(), event.getKind()));
+        Assertions.assertEquals(changes.size(), count);
+        return changes;
+    }
+
+    @Test
+    @Order(0)
+    void write() throws IOException {
+        root.remove();
+        root.getChild("a").getChild("a1").mkdirs();
+        root.getChild("a").getChild("file.txt").write("first");
+        root.getChild("a").getChild("a1").getChild("deep.txt").write("deep");
+        root.getChild("b").mkdirs();
+        root.getChild("b").getChild("removed.txt").write("to remove");
+        root.getChild("b").getChild("gone").mkdirs();
+        root.getChild("b").getChild("gone").getChild("inner.txt").write("inner");
+        root.getChild("top.txt").write("top");
+        ageDirectories();
+
+        Assertions.assertEquals(9, TreeManifest.write(root, manifest, "SHA-256"));
+        final List<TreeManifest.Entry> entries = new ArrayList<>();
+        TreeManifest.read(manifest, entries::add);
+        Assertions.assertEquals(9, entries.size());
+        Assertions.assertEquals("a", entries.get(0).getPath());
+        Assertions.assertEquals(NodeAttributes.Type.DIRECTORY, entries.get(0).getType());
+        for (final TreeManifest.Entry entry : entries) {
+            if (entry.getPath().equals("a/a1/deep.txt")) {
+                Assertions.assertEquals(4, entry.getSize());
+                Assertions.assertEquals(32, entry.getHash().length);
+            }
+        }
+        Assertions.assertTrue(diff(manifest, true).isEmpty());
+    }
+
+    @Test
+    @Order(1)
+    void diffChanges() throws IOException {
+        root.getChild("a").getChild("added.txt").write("added");
+        root.getChild("b").getChild("removed.txt").remove();
+        root.getChild("b").getChild("gone").remove();
+        root.getChild("c").getChild("c1").mkdirs();
+        root.getChild("c").getChild("c1").getChild("new.txt").write("new");
+        // In-place modification doesn't change modification time of the directory.
+        root.getChild("a").getChild("a1").getChild("deep.txt").write("DEEP");
+        Files.setLastModifiedTime(root.getChild("a").getChild("a1").getChild("deep.txt").asJavaFile().toPath(),
+                FileTime.fromMillis(System.currentTimeMillis() + 5_000));
+        // Touched without content change, hashes show it is the same.
+        Files.setLastModifiedTime(root.getChild("top.txt").asJavaFile().toPath(),
+                FileTime.fromMillis(System.currentTimeMillis() + 5_000));
+
+        final Map<String, NodeEvent.Kind> expected = new HashMap<>();
+        expected.put("a/added.txt", NodeEvent.Kind.CREATED);
+        expected.put("b/removed.txt", NodeEvent.Kind.DELETED);
+        expected.put("b/gone", NodeEvent.Kind.DELETED);
+        expected.put("b/gone/inner.txt", NodeEvent.Kind.DELETED);
+        expected.put("c", NodeEvent.Kind.CREATED);
+        expected.put("c/c1", NodeEvent.Kind.CREATED);
+        expected.put("c/c1/new.txt", NodeEvent.Kind.CREATED);
+
+        // Directory a/a1 is trusted, its file is not checked.
+        Assertions.assertEquals(expected, diff(manifest, false));
+
+        expected.put("a/a1/deep.txt", NodeEvent.Kind.MODIFIED);
+        Assertions.assertEquals(expected, diff(manifest, true));
+    }
+
+    @Test
+    @Order(2)
+    void update() {
+        final List<NodeEvent> events = new ArrayList<>();
+        Assertions.assertEquals(8, TreeManifest.update(root, manifest, updatedManifest, true, events::add));
+        Assertions.assertTrue(events.get(0).getNode() instanceof FileNode);
+        Assertions.assertTrue(diff(updatedManifest, true).isEmpty());
+
+        final List<TreeManifest.Entry> entries = new ArrayList<>();
+        TreeManifest.read(updatedManifest, entries::add);
+        Assertions.assertEquals(root.getDescendants().size(), entries.size());
+
+        root.remove();
+        manifest.remove();
+        updatedManifest.remove();
+    }
+
+    @Test
+    @Order(3)
+    void memoryTree() {
+        final INode memoryRoot = new MemoryNode();
+        memoryRoot.getChild("dir").mkdirs();
+        memoryRoot.getChild("dir/file.txt").write("content");
+        final INode memoryManifest = new MemoryNode().getChild("manifest.bin");
+        Assertions.assertEquals(2, TreeManifest.write(memoryRoot, memoryManifest, null));
+        memoryRoot.getChild("dir/file.txt").write("changed content");
+        final List<NodeEvent> events = new ArrayList<>();
+        TreeManifest.diff(memoryRoot, memoryManifest, true, events::add);
+        Assertions.assertEquals(1, events.size());
+        Assertions.assertEquals(NodeEvent.Kind.MODIFIED, events.get(0).getKind());
+        Assertions.assertEquals("dir/file.txt", events.get(0).getPath());
+    }
+}
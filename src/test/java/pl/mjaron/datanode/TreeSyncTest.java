@@ -0,0 +1,122 @@
+package pl.mjaron.datanode;
+
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.atomic.AtomicLong;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class TreeSyncTest {
+
+    private static final INode source = new FileNode("syncSource");
+    private static final INode target = new FileNode("syncTarget");
+
+    @Test
+    @Order(0)
+    void initialCopy() {
+        source.remove();
+        target.remove();
+        source.getChild("a").getChild("a1").mkdirs();
+        source.getChild("a").getChild("file.txt").write("first");
+        source.getChild("a").getChild("a1").getChild("deep.txt").write("deep");
+        source.getChild("empty").mkdirs();
+        source.getChild("top.txt").write("top");
+
+        final AtomicLong progressCalls = new AtomicLong();
+        final TreeSync.Report report = new TreeSync(source, target)
+                .setProgressListener(progress -> progressCalls.incrementAndGet())
+                .run();
+        Assertions.assertEquals(3, report.getFilesCompared());
+        Assertions.assertEquals(3, report.getFilesCopied());
+        Assertions.assertEquals(12, report.getBytesCopied());
+        Assertions.assertEquals(12, report.getBytesToCopy());
+        Assertions.assertEquals(4, report.getDirectoriesCreated());
+        Assertions.assertEquals(3, progressCalls.get());
+        Assertions.assertEquals("deep", target.getChild("a").getChild("a1").getChild("deep.txt").readString());
+        Assertions.assertTrue(target.getChild("empty").isDirectory());
+        Assertions.assertEquals(source.getChild("top.txt").getLastModified(), target.getChild("top.txt").getLastModified());
+    }
+
+    @Test
+    @Order(1)
+    void unchangedTreeIsNotCopied() {
+        final TreeSync.Report report = new TreeSync(source, target).run();
+        Assertions.assertEquals(3, report.getFilesCompared());
+        Assertions.assertEquals(0, report.getFilesToCopy());
+        Assertions.assertEquals(0, report.getDirectoriesCreated());
+    }
+
+    @Test
+    @Order(2)
+    void changes() throws IOException {
+        final INode changed = source.getChild("a").getChild("file.txt");
+        changed.write("FIRST");
+        final INode copied = target.getChild("a").getChild("file.txt");
+        Files.setLastModifiedTime(copied.asJavaFile().toPath(), FileTime.fromMillis(changed.getLastModified() - 10_000));
+        source.getChild("top.txt").write("top, longer");
+        source.getChild("empty").remove();
+        source.getChild("empty").write("now a file");
+        target.getChild("extra.txt").write("extra");
+        target.getChild("extraDir").mkdirs().getChild("inner.txt").write("inner");
+
+        TreeSync.Report report = new TreeSync(source, target).run();
+        Assertions.assertEquals(3, report.getFilesCopied());
+        Assertions.assertEquals(1, report.getRemoved());
+        Assertions.assertEquals("FIRST", target.getChild("a").getChild("file.txt").readString());
+        Assertions.assertEquals("top, longer", target.getChild("top.txt").readString());
+        Assertions.assertEquals("now a file", target.getChild("empty").readString());
+        Assertions.assertTrue(target.getChild("extra.txt").exists());
+
+        report = new TreeSync(source, target).setDeleteExtraneous(true).run();
+        Assertions.assertEquals(0, report.getFilesCopied());
+        Assertions.assertEquals(2, report.getRemoved());
+        Assertions.assertFalse(target.getChild("extra.txt").exists());
+        Assertions.assertFalse(target.getChild("extraDir").exists());
+    }
+
+    @Test
+    @Order(3)
+    void contentComparison() throws IOException {
+        final INode file = target.getChild("a").getChild("a1").getChild("deep.txt");
+        file.write("DEEP");
+        final FileTime sourceTime = Files.getLastModifiedTime(source.getChild("a").getChild("a1").getChild("deep.txt").asJavaFile().toPath());
+        Files.setLastModifiedTime(file.asJavaFile().toPath(), sourceTime);
+
+        Assertions.assertEquals(0, new TreeSync(source, target).run().getFilesCopied());
+        final TreeSync.Report report = new TreeSync(source, target).setComparison(TreeSync.Comparison.CONTENT).run();
+        Assertions.assertEquals(1, report.getFilesToCopy());
+        Assertions.assertEquals(1, report.getFilesCopied());
+        Assertions.assertEquals("deep", file.readString());
+    }
+
+    @Test
+    @Order(4)
+    void memoryTarget() {
+        final INode memory = new MemoryNode();
+        Assertions.assertEquals(4, new TreeSync(source, memory).run().getFilesCopied());
+        Assertions.assertEquals(0, new TreeSync(source, memory).run().getFilesCopied());
+        Assertions.assertEquals("FIRST", memory.getChild("a").getChild("file.txt").readString());
+
+        final INode single = new MemoryNode().getChild("copy.txt");
+        Assertions.assertEquals(1, new TreeSync(source.getChild("top.txt"), single).run().getFilesCopied());
+        Assertions.assertEquals("top, longer", single.readString());
+    }
+
+    @Test
+    @Order(5)
+    void differentTimes() throws IOException {
+        final INode file = target.getChild("top.txt");
+        file.write("TOP, LONGER");
+        final FileTime sourceTime = Files.getLastModifiedTime(source.getChild("top.txt").asJavaFile().toPath());
+        Files.setLastModifiedTime(file.asJavaFile().toPath(), FileTime.fromMillis(sourceTime.toMillis() + 10_000));
+        Assertions.assertEquals(0, new TreeSync(source, target).setTimeTolerance(20_000).run().getFilesCopied());
+        Assertions.assertEquals(1, new TreeSync(source, target).run().getFilesCopied());
+        Assertions.assertEquals("top, longer", file.readString());
+        Assertions.assertEquals(sourceTime.toMillis(), Files.getLastModifiedTime(file.asJavaFile().toPath()).toMillis());
+        Assertions.assertEquals(0, new TreeSync(source, target).run().getFilesCopied());
+        source.remove();
+        target.remove();
+    }
+}
@@ -0,0 +1,138 @@
+package pl.mjaron.datanode;
+
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class ZipNodeTest {
+
+    private static final INode archive = new FileNode("archive.zip");
+    private static final byte[] large = new byte[200_000];
+
+    private static void putStored(final ZipOutputStream zip, final String name, final byte[] content) throws IOException {
+        final ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(content.length);
+        entry.setCompressedSize(content.length);
+        final CRC32 crc = new CRC32();
+        crc.update(content);
+        entry.setCrc(crc.getValue());
+        zip.putNextEntry(entry);
+        zip.write(content);
+        zip.closeEntry();
+    }
+
+    @Test
+    @Order(0)
+    void createArchive() throws IOException {
+        new Random(7).nextBytes(large);
+        try (final OutputStream out = archive.getOutputStream(); final ZipOutputStream zip = new ZipOutputStream(out)) {
+            zip.putNextEntry(new ZipEntry("docs/"));
+            zip.closeEntry();
+            zip.putNextEntry(new ZipEntry("docs/readme.txt"));
+            zip.write("Deflated text, deflated text, deflated text.".getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+            putStored(zip, "data/stored.bin", large);
+            zip.putNextEntry(new ZipEntry("data/nested/deflated.bin"));
+            zip.write(large);
+            zip.closeEntry();
+            zip.putNextEntry(new ZipEntry("empty.txt"));
+            zip.closeEntry();
+        }
+    }
+
+    @Test
+    @Order(1)
+    void tree() {
+        final ZipNode root = new ZipNode(archive.asJavaFile());
+        Assertions.assertTrue(root.isDirectory());
+        Assertions.assertEquals(Arrays.asList("data", "docs", "empty.txt"), root.getChildrenNames());
+        final INode data = root.getChild("data");
+        Assertions.assertTrue(data.isDirectory());
+        Assertions.assertEquals(Arrays.asList("nested", "stored.bin"), data.getChildrenNames());
+        Assertions.assertTrue(data.getChild("nested").getChild("deflated.bin").isFile());
+        Assertions.assertFalse(root.getChild("missing").exists());
+        Assertions.assertEquals(4, root.getFileDescendants().size());
+
+        final List<NodeAttributes> attributes = data.getChildrenWithAttributes();
+        Assertions.assertEquals(NodeAttributes.Type.DIRECTORY, attributes.get(0).getType());
+        Assertions.assertEquals(large.length, attributes.get(1).getSize());
+        Assertions.assertTrue(attributes.get(1).getLastModified() > 0);
+        Assertions.assertEquals(archive.getPath() + "!/data/stored.bin", data.getChild("stored.bin").getPath());
+    }
+
+    @Test
+    @Order(2)
+    void read() {
+        final INode root = new ZipNode(archive.getPath());
+        Assertions.assertEquals("Deflated text, deflated text, deflated text.", root.getChild("docs").getChild("readme.txt").readString());
+        Assertions.assertArrayEquals(large, root.getChild("data").getChild("stored.bin").readBytes());
+        Assertions.assertArrayEquals(large, root.getChild("data/nested/deflated.bin").readBytes());
+        Assertions.assertEquals(0, root.getChild("empty.txt").readBytes().length);
+
+        final INode stored = root.getChild("data").getChild("stored.bin");
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(large.length + 100);
+        Assertions.assertEquals(large.length, stored.readInto(buffer));
+        buffer.flip();
+        final byte[] read = new byte[buffer.remaining()];
+        buffer.get(read);
+        Assertions.assertArrayEquals(large, read);
+
+        try (final MappedData mapped = stored.map(1000, 500)) {
+            Assertions.assertTrue(mapped.isMapped());
+            Assertions.assertEquals(500, mapped.size());
+            Assertions.assertEquals(large[1000], mapped.get(0));
+            Assertions.assertEquals(large[1499], mapped.get(499));
+        }
+        try (final MappedData inflated = root.getChild("data/nested/deflated.bin").map(1000, 500)) {
+            Assertions.assertEquals(500, inflated.size());
+            Assertions.assertEquals(large[1499], inflated.get(499));
+        }
+
+        final INode copy = new MemoryNode();
+        root.copyTo(copy);
+        Assertions.assertArrayEquals(large, copy.getChild("data").getChild("nested").getChild("deflated.bin").readBytes());
+    }
+
+    @Test
+    @Order(3)
+    void readOnly() {
+        final INode root = new ZipNode(archive.getPath());
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> root.getChild("new.txt").write("x"));
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> root.getChild("docs").remove());
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> root.getChild("dir").mkdirs());
+        Assertions.assertThrows(RuntimeException.class, () -> root.getChild("missing.txt").readBytes());
+    }
+
+    @Test
+    @Order(4)
+    void zip64() throws IOException {
+        final INode many = new FileNode("archive64.zip");
+        final int count = 70_000;
+        try (final OutputStream out = many.getOutputStream(); final ZipOutputStream zip = new ZipOutputStream(out)) {
+            zip.setLevel(0);
+            for (int i = 0; i < count; ++i) {
+                zip.putNextEntry(new ZipEntry("d" + (i % 10) + "/f" + i));
+                zip.write(Integer.toString(i).getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+        }
+        final INode root = new ZipNode(many.getPath());
+        Assertions.assertEquals(10, root.getChildrenCount());
+        Assertions.assertEquals(count / 10, root.getChild("d3").getChildrenCount());
+        Assertions.assertEquals("69999", root.getChild("d9/f69999").readString());
+        many.remove();
+        archive.remove();
+        Assertions.assertFalse(archive.exists());
+    }
+}